@@ -0,0 +1,52 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the registries used by the benchmarks.
+ */
+final class BenchmarkRegistries {
+
+    private static final int SAMPLES = 100;
+
+    private BenchmarkRegistries() {
+    }
+
+    /**
+     * Returns a registry holding {@code size} gauges, counters, histograms, meters and timers, named like Jersey
+     * resource metrics.
+     */
+    static MetricRegistry registry(int size) {
+        final MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < size; i++) {
+            final long value = i;
+            registry.register(name("gauge", i), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return value;
+                }
+            });
+            registry.counter(name("counter", i)).inc(i);
+
+            final Histogram histogram = registry.histogram(name("histogram", i));
+            final Meter meter = registry.meter(name("meter", i));
+            final Timer timer = registry.timer(name("timer", i));
+            for (int j = 1; j <= SAMPLES; j++) {
+                histogram.update(j);
+                meter.mark();
+                timer.update(j, TimeUnit.MILLISECONDS);
+            }
+        }
+        return registry;
+    }
+
+    private static String name(String type, int index) {
+        return MetricRegistry.name("io.github.fabito.dropwizard.samples.resources.EchoResource", type + index);
+    }
+}
@@ -0,0 +1,100 @@
+package io.github.fabito.dropwizard.metrics;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a full {@link StackdriverMonitoringReporter#report()}: collection, serialization and the
+ * (stubbed) round trips.
+ * <p/>
+ * {@code size} is the number of gauges, counters, histograms, meters and timers each in the registry,
+ * {@code transport} is either {@code rest}, {@code rest-streaming} with request bodies streamed from the registry,
+ * or {@code grpc}. The requests and bytes sent are reported as the {@code requests} and {@code bytes} secondary
+ * results, per second like the reports.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class StackdriverMonitoringReporterBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    private int size;
+
+    @Param({"rest", "rest-streaming", "grpc"})
+    private String transport;
+
+    private StubMonitoringTransport restTransport;
+    private StubMetricService metricService;
+    private StackdriverMonitoringReporter reporter;
+
+    @Setup
+    public void setUp() throws IOException {
+        final StackdriverMonitoringReporter.Builder builder = StackdriverMonitoringReporter.forRegistry(BenchmarkRegistries.registry(size));
+        if ("grpc".equals(transport)) {
+            metricService = new StubMetricService();
+            reporter = builder.build("benchmark", metricService.start("benchmark"));
+            return;
+        }
+        if ("rest-streaming".equals(transport)) {
+            builder.streamRequests();
+        }
+        restTransport = new StubMonitoringTransport();
+        reporter = builder.build("benchmark", StubMonitoringTransport.monitoring(restTransport));
+    }
+
+    @TearDown
+    public void tearDown() {
+        reporter.stop();
+        if (metricService != null) {
+            metricService.stop();
+        }
+    }
+
+    @Benchmark
+    public void report(Sent sent) {
+        final long requests = requests();
+        final long bytes = bytesSent();
+        reporter.report();
+        sent.requests += requests() - requests;
+        sent.bytes += bytesSent() - bytes;
+    }
+
+    private long requests() {
+        return metricService != null ? metricService.getRequests() : restTransport.getRequests();
+    }
+
+    private long bytesSent() {
+        return metricService != null ? metricService.getBytesSent() : restTransport.getBytesSent();
+    }
+
+    /**
+     * The requests and bytes sent by the reports of one iteration.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Sent {
+
+        public long requests;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            requests = 0;
+            bytes = 0;
+        }
+    }
+}
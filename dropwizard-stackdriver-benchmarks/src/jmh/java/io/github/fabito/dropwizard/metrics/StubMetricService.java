@@ -0,0 +1,53 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.google.monitoring.v3.CreateTimeSeriesRequest;
+import com.google.monitoring.v3.MetricServiceGrpc;
+import com.google.protobuf.Empty;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process gRPC {@code MetricService} answering every call with an empty success response.
+ * <p/>
+ * Requests are serialized and parsed as over the network, so the protobuf encoding is part of the measured work.
+ */
+class StubMetricService extends MetricServiceGrpc.MetricServiceImplBase {
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private Server server;
+    private ManagedChannel channel;
+
+    ManagedChannel start(String name) throws IOException {
+        server = InProcessServerBuilder.forName(name).addService(this).build().start();
+        channel = InProcessChannelBuilder.forName(name).build();
+        return channel;
+    }
+
+    void stop() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Override
+    public void createTimeSeries(CreateTimeSeriesRequest request, StreamObserver<Empty> responseObserver) {
+        requests.incrementAndGet();
+        bytesSent.addAndGet(request.getSerializedSize());
+        responseObserver.onNext(Empty.getDefaultInstance());
+        responseObserver.onCompleted();
+    }
+
+    long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+}
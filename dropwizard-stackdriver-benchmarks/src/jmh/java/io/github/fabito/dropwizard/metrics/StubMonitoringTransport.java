@@ -0,0 +1,97 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.google.api.client.googleapis.util.Utils;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.monitoring.v3.Monitoring;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link MockHttpTransport} answering every Monitoring API call with an empty success response.
+ * <p/>
+ * Request bodies are fully written, so the JSON serialization done by google-api-client is part of the measured
+ * work. Batch requests get a multipart response with one part per queued call.
+ */
+class StubMonitoringTransport extends MockHttpTransport {
+
+    private static final String BOUNDARY = "batch_stub";
+    private static final String BATCH_PART = "--" + BOUNDARY + "\r\n"
+            + "Content-Type: application/http\r\n"
+            + "\r\n"
+            + "HTTP/1.1 200 OK\r\n"
+            + "Content-Type: application/json; charset=UTF-8\r\n"
+            + "Content-Length: 2\r\n"
+            + "\r\n"
+            + "{}\r\n";
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+
+    static Monitoring monitoring(StubMonitoringTransport transport) {
+        return new Monitoring.Builder(transport, Utils.getDefaultJsonFactory(), null)
+                .setApplicationName("dropwizard-stackdriver-benchmarks")
+                .build();
+    }
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, final String url) throws IOException {
+        return new MockLowLevelHttpRequest(url) {
+            @Override
+            public LowLevelHttpResponse execute() throws IOException {
+                requests.incrementAndGet();
+                if (url.endsWith("/batch")) {
+                    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+                    getStreamingContent().writeTo(content);
+                    bytesSent.addAndGet(content.size());
+                    return batchResponse(count(content.toString("UTF-8"), "\r\nPOST "));
+                }
+                final CountingOutputStream content = new CountingOutputStream(ByteStreams.nullOutputStream());
+                if (getStreamingContent() != null) {
+                    getStreamingContent().writeTo(content);
+                }
+                bytesSent.addAndGet(content.getCount());
+                return new MockLowLevelHttpResponse()
+                        .setContentType(Json.MEDIA_TYPE)
+                        .setContent("{}");
+            }
+        };
+    }
+
+    long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    private static LowLevelHttpResponse batchResponse(int parts) {
+        final StringBuilder content = new StringBuilder(parts * BATCH_PART.length() + 32);
+        for (int i = 0; i < parts; i++) {
+            content.append(BATCH_PART);
+        }
+        content.append("--").append(BOUNDARY).append("--\r\n");
+        return new MockLowLevelHttpResponse()
+                .setContentType("multipart/mixed; boundary=" + BOUNDARY)
+                .setContent(content.toString());
+    }
+
+    private static int count(String content, String token) {
+        int count = 0;
+        int index = content.indexOf(token);
+        while (index != -1) {
+            count++;
+            index = content.indexOf(token, index + token.length());
+        }
+        return count;
+    }
+}
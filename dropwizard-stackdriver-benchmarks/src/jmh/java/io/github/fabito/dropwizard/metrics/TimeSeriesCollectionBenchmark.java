@@ -0,0 +1,89 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.api.services.monitoring.v3.model.TimeSeries;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of building the {@link TimeSeries} of a single report, without sending them.
+ * <p/>
+ * Run with the GC profiler ({@code ./gradlew :dropwizard-stackdriver-benchmarks:jmh}) to compare
+ * {@code gc.alloc.rate.norm}, the bytes allocated per report. Before each report, every timer records 100 new
+ * values in its reservoir, exponentially decaying or {@link HdrHistogramReservoir}, which is rolled over once per
+ * report.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TimeSeriesCollectionBenchmark {
+
+    @Param({"5000"})
+    private int timers;
+
+    @Param({"exponentially-decaying", "hdr-histogram"})
+    private String reservoir;
+
+    private final Clock clock = new Clock() {
+        @Override
+        public long getTick() {
+            return tick;
+        }
+    };
+    private long tick;
+    private StackdriverMonitoringReporter reporter;
+    private SortedMap<String, Timer> timerMap;
+
+    @Setup
+    public void setUp() {
+        final MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < timers; i++) {
+            final String name = MetricRegistry.name("io.github.fabito.dropwizard.samples.resources.EchoResource", "echo" + i);
+            if ("hdr-histogram".equals(reservoir)) {
+                registry.register(name, new Timer(new HdrHistogramReservoir(2, 1, TimeUnit.MINUTES, clock)));
+            } else {
+                registry.timer(name);
+            }
+        }
+        timerMap = registry.getTimers();
+        reporter = StackdriverMonitoringReporter.forRegistry(registry)
+                .build("benchmark", StubMonitoringTransport.monitoring(new StubMonitoringTransport()));
+    }
+
+    @Setup(Level.Invocation)
+    public void record() {
+        tick += TimeUnit.MINUTES.toNanos(1);
+        for (Timer timer : timerMap.values()) {
+            for (int j = 1; j <= 100; j++) {
+                timer.update(j, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<TimeSeries> collect() {
+        return reporter.collect(new TreeMap<String, Gauge>(),
+                new TreeMap<String, Counter>(),
+                new TreeMap<String, Histogram>(),
+                new TreeMap<String, Meter>(),
+                timerMap);
+    }
+}
@@ -0,0 +1,67 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.api.client.googleapis.util.Utils;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonGenerator;
+import com.google.api.services.monitoring.v3.model.CreateTimeSeriesRequest;
+import com.google.api.services.monitoring.v3.model.TimeSeries;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of serializing one report worth of {@link CreateTimeSeriesRequest}s through the
+ * google-api-client {@link JsonFactory}, isolated from collection and HTTP.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class TimeSeriesSerializationBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    private int size;
+
+    private final JsonFactory jsonFactory = Utils.getDefaultJsonFactory();
+    private List<CreateTimeSeriesRequest> requests;
+
+    @Setup
+    public void setUp() {
+        final MetricRegistry registry = BenchmarkRegistries.registry(size);
+        final StackdriverMonitoringReporter reporter = StackdriverMonitoringReporter.forRegistry(registry)
+                .build("benchmark", StubMonitoringTransport.monitoring(new StubMonitoringTransport()));
+        final List<TimeSeries> timeSeries = reporter.collect(registry.getGauges(), registry.getCounters(),
+                registry.getHistograms(), registry.getMeters(), registry.getTimers());
+        requests = Lists.newArrayList();
+        for (List<TimeSeries> partition : Iterables.partition(timeSeries, TimeSeriesSender.MAX_TIME_SERIES_PER_REQUEST)) {
+            requests.add(new CreateTimeSeriesRequest().setTimeSeries(partition));
+        }
+    }
+
+    @Benchmark
+    public long serialize() throws IOException {
+        final CountingOutputStream out = new CountingOutputStream(ByteStreams.nullOutputStream());
+        for (CreateTimeSeriesRequest request : requests) {
+            final JsonGenerator generator = jsonFactory.createJsonGenerator(out, StandardCharsets.UTF_8);
+            generator.serialize(request);
+            generator.flush();
+        }
+        return out.getCount();
+    }
+}
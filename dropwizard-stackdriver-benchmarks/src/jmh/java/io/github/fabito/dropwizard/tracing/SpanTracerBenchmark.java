@@ -0,0 +1,90 @@
+package io.github.fabito.dropwizard.tracing;
+
+import com.google.cloud.trace.Tracer;
+import com.google.cloud.trace.core.Labels;
+import com.google.cloud.trace.core.SpanContext;
+import com.google.cloud.trace.core.SpanId;
+import com.google.cloud.trace.core.SpanKind;
+import com.google.cloud.trace.core.StackTrace;
+import com.google.cloud.trace.core.Timestamp;
+import com.google.cloud.trace.core.TraceContext;
+import com.google.cloud.trace.core.TraceId;
+import com.google.cloud.trace.core.TraceOptions;
+import com.google.cloud.trace.sink.TraceSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a span with one label recorded through the {@link SpanTracer} and through the raw {@link Tracer}, inside a
+ * sampled request or not. The sink discards every event, so only the cost of the tracer is measured; run with
+ * {@code -prof gc} for the bytes allocated per span.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class SpanTracerBenchmark {
+
+    @Param({"true", "false"})
+    private boolean sampled;
+
+    private Tracer tracer;
+    private SpanTracer spanTracer;
+
+    @Setup
+    public void setUp() {
+        final SinkTraceService traceService = new SinkTraceService(new DiscardingTraceSink(),
+                new SamplingTraceOptionsFactory(Sampler.NEVER, new LinkedHashMap<>()));
+        tracer = traceService.getTracer();
+        spanTracer = new SpanTracer(tracer, traceService.getSpanContextHandler());
+        // the context of the request being served, attached to the benchmark thread
+        traceService.getSpanContextHandler().attach(new SpanContext(new TraceId(BigInteger.ONE), new SpanId(1),
+                sampled ? TraceOptions.forTraceEnabled() : TraceOptions.forTraceDisabled()));
+    }
+
+    @Benchmark
+    public boolean spanTracer() {
+        try (Span span = spanTracer.start("load-order")) {
+            span.label("order", 42L);
+            return span.isSampled();
+        }
+    }
+
+    @Benchmark
+    public TraceContext tracer() {
+        final TraceContext context = tracer.startSpan("load-order");
+        tracer.annotateSpan(context, Labels.builder().add("order", Long.toString(42L)).build());
+        tracer.endSpan(context);
+        return context;
+    }
+
+    private static final class DiscardingTraceSink implements TraceSink {
+
+        @Override
+        public void startSpan(SpanContext context, SpanContext parentContext, SpanKind spanKind, String name, Timestamp timestamp) {
+        }
+
+        @Override
+        public void endSpan(SpanContext context, Timestamp timestamp) {
+        }
+
+        @Override
+        public void annotateSpan(SpanContext context, Labels labels) {
+        }
+
+        @Override
+        public void setStackTrace(SpanContext context, StackTrace stackTrace) {
+        }
+    }
+}
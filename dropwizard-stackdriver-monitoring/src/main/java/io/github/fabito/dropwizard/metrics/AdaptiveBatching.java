@@ -0,0 +1,99 @@
+package io.github.fabito.dropwizard.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunes how the time series of a report are split into requests, and how many batch calls are sent in parallel.
+ * <p/>
+ * Uses additive increase, multiplicative decrease on both:
+ * <ul>
+ * <li>a {@code 429} or {@code 503} response, or an I/O error, halves the number of parallel batch calls;</li>
+ * <li>a request rejected because its payload is too large halves the number of time series per request;</li>
+ * <li>after a clean report, the number of time series per request grows back by {@value #PARTITION_STEP}, and one
+ * more parallel batch call is allowed if the report took more than half the reporting period, one less if it took
+ * less than an eighth of it.</li>
+ * </ul>
+ */
+class AdaptiveBatching {
+
+    /**
+     * The maximum number of requests the API accepts in one batch call.
+     */
+    static final int MAX_REQUESTS_PER_BATCH = 1000;
+
+    private static final int MIN_TIME_SERIES_PER_REQUEST = 10;
+    private static final int PARTITION_STEP = 10;
+
+    private final int maxConcurrency;
+    private final int maxPartitionSize;
+    private volatile long periodNanos;
+    private int partitionSize;
+    private int concurrency = 1;
+    private int throttled;
+    private int oversized;
+
+    AdaptiveBatching(int maxConcurrency, int maxPartitionSize) {
+        this.maxConcurrency = maxConcurrency;
+        this.maxPartitionSize = maxPartitionSize;
+        this.partitionSize = maxPartitionSize;
+    }
+
+    /**
+     * Sets the reporting period each report should fit in. Until set, the number of parallel batch calls only
+     * decreases.
+     */
+    void reportingPeriod(long period, TimeUnit unit) {
+        this.periodNanos = unit.toNanos(period);
+    }
+
+    int maxConcurrency() {
+        return maxConcurrency;
+    }
+
+    synchronized int partitionSize() {
+        return partitionSize;
+    }
+
+    synchronized int concurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Records the outcome of one request.
+     *
+     * @param statusCode the HTTP status code, or {@code 0} on an I/O error
+     * @param message    the error message, if any
+     */
+    synchronized void onResponse(int statusCode, String message) {
+        if (statusCode == 0 || statusCode == 429 || statusCode == 503) {
+            throttled++;
+        } else if (statusCode == 413 || statusCode == 400 && message != null && message.contains("payload size")) {
+            oversized++;
+        }
+    }
+
+    /**
+     * Adapts to the requests recorded since the previous report.
+     *
+     * @param elapsedNanos the time taken to send the whole report
+     */
+    synchronized void onReport(long elapsedNanos) {
+        if (oversized > 0) {
+            partitionSize = Math.max(Math.min(MIN_TIME_SERIES_PER_REQUEST, maxPartitionSize), partitionSize / 2);
+        }
+        if (throttled > 0) {
+            concurrency = Math.max(1, concurrency / 2);
+        }
+        if (oversized == 0 && throttled == 0) {
+            partitionSize = Math.min(maxPartitionSize, partitionSize + PARTITION_STEP);
+            final long period = periodNanos;
+            if (period > 0 && elapsedNanos > period / 2) {
+                concurrency = Math.min(maxConcurrency, concurrency + 1);
+            } else if (period <= 0 || elapsedNanos < period / 8) {
+                concurrency = Math.max(1, concurrency - 1);
+            }
+        }
+        throttled = 0;
+        oversized = 0;
+    }
+}
@@ -0,0 +1,44 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Clock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Times the reloads of the cached gauges. Once the time to live is over, a single caller wins the reload while the
+ * others keep reading the previous value. The time to live only starts again once a value is loaded, so a failed
+ * load is retried by the next caller instead of serving the previous value for a whole time to live.
+ *
+ * @see CachedLongGauge
+ * @see CachedDoubleGauge
+ */
+class CacheExpiry {
+
+    private final Clock clock;
+    private final long ttlNanos;
+    private final AtomicBoolean loading = new AtomicBoolean();
+    private volatile long reloadAt;
+
+    CacheExpiry(long ttl, TimeUnit unit, Clock clock) {
+        this.clock = clock;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * Whether the caller must reload the value, then call {@link #loaded(boolean)}.
+     */
+    boolean reload() {
+        return clock.getTick() - reloadAt >= 0 && loading.compareAndSet(false, true);
+    }
+
+    /**
+     * Ends a reload, starting the time to live again if a value was loaded.
+     */
+    void loaded(boolean success) {
+        if (success) {
+            reloadAt = clock.getTick() + ttlNanos;
+        }
+        loading.set(false);
+    }
+}
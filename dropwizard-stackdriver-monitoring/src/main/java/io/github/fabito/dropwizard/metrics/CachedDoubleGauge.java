@@ -0,0 +1,40 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Clock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A {@link DoubleGauge} computing its value at most once per time to live. The first value is computed when the
+ * gauge is created, so no caller ever reads a value that was not computed.
+ *
+ * @see DoubleGauge#cached(DoubleSupplier, long, TimeUnit)
+ */
+class CachedDoubleGauge implements DoubleGauge {
+
+    private final DoubleSupplier supplier;
+    private final CacheExpiry expiry;
+    private volatile double value;
+
+    CachedDoubleGauge(DoubleSupplier supplier, long ttl, TimeUnit unit, Clock clock) {
+        this.supplier = supplier;
+        this.expiry = new CacheExpiry(ttl, unit, clock);
+        this.value = supplier.getAsDouble();
+        expiry.loaded(true);
+    }
+
+    @Override
+    public double getDoubleValue() {
+        if (expiry.reload()) {
+            boolean loaded = false;
+            try {
+                value = supplier.getAsDouble();
+                loaded = true;
+            } finally {
+                expiry.loaded(loaded);
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,40 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Clock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link LongGauge} computing its value at most once per time to live. The first value is computed when the
+ * gauge is created, so no caller ever reads a value that was not computed.
+ *
+ * @see LongGauge#cached(LongSupplier, long, TimeUnit)
+ */
+class CachedLongGauge implements LongGauge {
+
+    private final LongSupplier supplier;
+    private final CacheExpiry expiry;
+    private volatile long value;
+
+    CachedLongGauge(LongSupplier supplier, long ttl, TimeUnit unit, Clock clock) {
+        this.supplier = supplier;
+        this.expiry = new CacheExpiry(ttl, unit, clock);
+        this.value = supplier.getAsLong();
+        expiry.loaded(true);
+    }
+
+    @Override
+    public long getLongValue() {
+        if (expiry.reload()) {
+            boolean loaded = false;
+            try {
+                value = supplier.getAsLong();
+                loaded = true;
+            } finally {
+                expiry.loaded(loaded);
+            }
+        }
+        return value;
+    }
+}
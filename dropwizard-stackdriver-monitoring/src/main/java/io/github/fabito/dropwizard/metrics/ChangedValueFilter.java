@@ -0,0 +1,95 @@
+package io.github.fabito.dropwizard.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the last value reported for each time series so unchanged points can be skipped.
+ * <p/>
+ * Series are keyed by the 64 bit hash of their metric type and values are stored as raw long bits, in an open
+ * addressing table backed by two primitive arrays. Every {@code refreshTicks} ticks the table is cleared, so every
+ * series is sent again (covering points lost to failed sends) and series of removed metrics are forgotten.
+ * <p/>
+ * Not thread safe, callers collecting in parallel must synchronize on it.
+ */
+class ChangedValueFilter {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long EMPTY = 0L;
+
+    private final int refreshTicks;
+    private long ticks;
+    private long[] keys;
+    private long[] values;
+    private int size;
+
+    ChangedValueFilter(int refreshTicks) {
+        if (refreshTicks < 1) {
+            throw new IllegalArgumentException("refreshTicks must be positive");
+        }
+        this.refreshTicks = refreshTicks;
+        this.keys = new long[INITIAL_CAPACITY];
+        this.values = new long[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Starts a new tick, clearing all the remembered values every {@code refreshTicks} ticks.
+     */
+    void tick() {
+        if (ticks++ % refreshTicks == 0) {
+            Arrays.fill(keys, EMPTY);
+            size = 0;
+        }
+    }
+
+    /**
+     * Records the given value and returns whether it differs from the one recorded during a previous tick.
+     *
+     * @param hash  the hash of the series metric type
+     * @param value the raw bits of the series value
+     * @return {@code true} if the point must be reported
+     */
+    boolean changed(long hash, long value) {
+        final long key = hash == EMPTY ? 1L : hash;
+        int index = indexOf(keys, key);
+        if (keys[index] == key) {
+            if (values[index] == value) {
+                return false;
+            }
+            values[index] = value;
+            return true;
+        }
+        keys[index] = key;
+        values[index] = value;
+        if (++size > keys.length >> 1) {
+            grow();
+        }
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        final long[] oldKeys = keys;
+        final long[] oldValues = values;
+        keys = new long[oldKeys.length << 1];
+        values = new long[oldValues.length << 1];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                final int index = indexOf(keys, oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private static int indexOf(long[] keys, long key) {
+        final int mask = keys.length - 1;
+        int index = (int) (key ^ (key >>> 32)) & mask;
+        while (keys[index] != EMPTY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+}
@@ -0,0 +1,292 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.monitoring.v3.model.BucketOptions;
+import com.google.api.services.monitoring.v3.model.Distribution;
+import com.google.api.services.monitoring.v3.model.Metric;
+import com.google.api.services.monitoring.v3.model.MonitoredResource;
+import com.google.api.services.monitoring.v3.model.TimeInterval;
+import com.google.api.services.monitoring.v3.model.TimeSeries;
+import com.google.api.services.monitoring.v3.model.TypedValue;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.monitoring.v3.CreateTimeSeriesRequest;
+import com.google.monitoring.v3.MetricServiceGrpc;
+import com.google.monitoring.v3.Point;
+import com.google.protobuf.Empty;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+import io.grpc.Channel;
+import io.grpc.Status;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.api.MetricDescriptor.MetricKind;
+import static com.google.api.MetricDescriptor.ValueType;
+
+/**
+ * Creates time series with the protobuf {@link MetricServiceGrpc} stub. All requests of a batch are sent at once and
+ * multiplexed over the HTTP/2 connection of the channel.
+ * <p/>
+ * The reporter builds the REST model; metrics, monitored resources, intervals and bucket options are shared
+ * between time series, so their protobuf counterparts are converted once and cached by identity.
+ */
+class GrpcTimeSeriesTransport implements TimeSeriesTransport {
+
+    private final MetricServiceGrpc.MetricServiceFutureStub stub;
+    private final long deadlineNanos;
+    private final String timeSeriesName;
+    private final LoadingCache<Metric, com.google.api.Metric> metrics = identityCache(new CacheLoader<Metric, com.google.api.Metric>() {
+        @Override
+        public com.google.api.Metric load(Metric metric) {
+            final com.google.api.Metric.Builder builder = com.google.api.Metric.newBuilder().setType(metric.getType());
+            if (metric.getLabels() != null) {
+                builder.putAllLabels(metric.getLabels());
+            }
+            return builder.build();
+        }
+    });
+    private final LoadingCache<MonitoredResource, com.google.api.MonitoredResource> resources = identityCache(new CacheLoader<MonitoredResource, com.google.api.MonitoredResource>() {
+        @Override
+        public com.google.api.MonitoredResource load(MonitoredResource resource) {
+            final com.google.api.MonitoredResource.Builder builder = com.google.api.MonitoredResource.newBuilder().setType(resource.getType());
+            if (resource.getLabels() != null) {
+                builder.putAllLabels(resource.getLabels());
+            }
+            return builder.build();
+        }
+    });
+    private final LoadingCache<TimeInterval, com.google.monitoring.v3.TimeInterval> intervals = identityCache(new CacheLoader<TimeInterval, com.google.monitoring.v3.TimeInterval>() {
+        @Override
+        public com.google.monitoring.v3.TimeInterval load(TimeInterval interval) {
+            final com.google.monitoring.v3.TimeInterval.Builder builder = com.google.monitoring.v3.TimeInterval.newBuilder();
+            if (interval.getStartTime() != null) {
+                builder.setStartTime(timestamp(interval.getStartTime()));
+            }
+            return builder.setEndTime(timestamp(interval.getEndTime())).build();
+        }
+    });
+    private final LoadingCache<BucketOptions, com.google.api.Distribution.BucketOptions> bucketOptions = identityCache(new CacheLoader<BucketOptions, com.google.api.Distribution.BucketOptions>() {
+        @Override
+        public com.google.api.Distribution.BucketOptions load(BucketOptions options) {
+            return bucketOptions(options);
+        }
+    });
+
+    /**
+     * @param channel        the channel to {@code monitoring.googleapis.com}
+     * @param timeSeriesName the project of the time series, as {@code projects/<projectId>}
+     * @param deadline       the deadline of each call
+     * @param unit           the unit of {@code deadline}
+     */
+    GrpcTimeSeriesTransport(Channel channel, String timeSeriesName, long deadline, TimeUnit unit) {
+        this.stub = MetricServiceGrpc.newFutureStub(channel);
+        this.timeSeriesName = timeSeriesName;
+        this.deadlineNanos = unit.toNanos(deadline);
+    }
+
+    @Override
+    public long create(List<List<TimeSeries>> requests, Callback callback) throws IOException {
+        final List<ListenableFuture<Empty>> futures = new ArrayList<>(requests.size());
+        final MetricServiceGrpc.MetricServiceFutureStub deadlineStub = stub.withDeadlineAfter(deadlineNanos, TimeUnit.NANOSECONDS);
+        long bytes = 0;
+        for (List<TimeSeries> request : requests) {
+            final CreateTimeSeriesRequest proto = toProto(request);
+            // memoized by the message, computed anyway when it is marshalled
+            bytes += proto.getSerializedSize();
+            futures.add(deadlineStub.createTimeSeries(proto));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+                callback.onSuccess(requests.get(i));
+            } catch (ExecutionException e) {
+                onFailure(requests.get(i), e, callback);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abandon(requests.subList(i, requests.size()), futures.subList(i, futures.size()), callback);
+                break;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Cancels the calls still in flight, reporting their requests as failed without a status code, and reports the
+     * outcome of those already completed.
+     */
+    private static void abandon(List<List<TimeSeries>> requests, List<ListenableFuture<Empty>> futures, Callback callback) {
+        for (int i = 0; i < futures.size(); i++) {
+            if (futures.get(i).cancel(true)) {
+                callback.onFailure(requests.get(i), 0, "Interrupted while creating time series");
+                continue;
+            }
+            try {
+                Uninterruptibles.getUninterruptibly(futures.get(i));
+                callback.onSuccess(requests.get(i));
+            } catch (ExecutionException e) {
+                onFailure(requests.get(i), e, callback);
+            }
+        }
+    }
+
+    private static void onFailure(List<TimeSeries> request, ExecutionException e, Callback callback) {
+        final Status status = Status.fromThrowable(e.getCause());
+        callback.onFailure(request, statusCode(status.getCode()), status.getDescription());
+    }
+
+    @Override
+    public byte[] encode(List<TimeSeries> request) {
+        return toProto(request).toByteArray();
+    }
+
+    @Override
+    public Encoding encoding() {
+        return Encoding.PROTOBUF;
+    }
+
+    @Override
+    public int createEncoded(byte[] request) throws IOException {
+        final CreateTimeSeriesRequest createTimeSeriesRequest;
+        try {
+            createTimeSeriesRequest = CreateTimeSeriesRequest.parseFrom(request);
+        } catch (InvalidProtocolBufferException e) {
+            // a corrupt record
+            return 400;
+        }
+        try {
+            stub.withDeadlineAfter(deadlineNanos, TimeUnit.NANOSECONDS).createTimeSeries(createTimeSeriesRequest).get();
+            return HttpStatusCodes.STATUS_CODE_OK;
+        } catch (ExecutionException e) {
+            return statusCode(Status.fromThrowable(e.getCause()).getCode());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while creating time series");
+        }
+    }
+
+    CreateTimeSeriesRequest toProto(List<TimeSeries> request) {
+        final CreateTimeSeriesRequest.Builder builder = CreateTimeSeriesRequest.newBuilder().setName(timeSeriesName);
+        for (TimeSeries timeSeries : request) {
+            final com.google.monitoring.v3.TimeSeries.Builder series = builder.addTimeSeriesBuilder()
+                    .setMetric(metrics.getUnchecked(timeSeries.getMetric()))
+                    .setMetricKind(MetricKind.valueOf(timeSeries.getMetricKind()));
+            if (timeSeries.getValueType() != null) {
+                series.setValueType(ValueType.valueOf(timeSeries.getValueType()));
+            }
+            if (timeSeries.getResource() != null) {
+                series.setResource(resources.getUnchecked(timeSeries.getResource()));
+            }
+            for (com.google.api.services.monitoring.v3.model.Point point : timeSeries.getPoints()) {
+                series.addPoints(Point.newBuilder()
+                        .setInterval(intervals.getUnchecked(point.getInterval()))
+                        .setValue(typedValue(point.getValue())));
+            }
+        }
+        return builder.build();
+    }
+
+    private com.google.monitoring.v3.TypedValue typedValue(TypedValue value) {
+        final com.google.monitoring.v3.TypedValue.Builder builder = com.google.monitoring.v3.TypedValue.newBuilder();
+        if (value.getInt64Value() != null) {
+            builder.setInt64Value(value.getInt64Value());
+        } else if (value.getDoubleValue() != null) {
+            builder.setDoubleValue(value.getDoubleValue());
+        } else if (value.getDistributionValue() != null) {
+            builder.setDistributionValue(distribution(value.getDistributionValue()));
+        } else if (value.getBoolValue() != null) {
+            builder.setBoolValue(value.getBoolValue());
+        } else if (value.getStringValue() != null) {
+            builder.setStringValue(value.getStringValue());
+        }
+        return builder.build();
+    }
+
+    private com.google.api.Distribution distribution(Distribution distribution) {
+        final com.google.api.Distribution.Builder builder = com.google.api.Distribution.newBuilder()
+                .setCount(distribution.getCount())
+                .setMean(distribution.getMean())
+                .setSumOfSquaredDeviation(distribution.getSumOfSquaredDeviation())
+                .addAllBucketCounts(distribution.getBucketCounts());
+        if (distribution.getBucketOptions() != null) {
+            builder.setBucketOptions(bucketOptions.getUnchecked(distribution.getBucketOptions()));
+        }
+        return builder.build();
+    }
+
+    private static com.google.api.Distribution.BucketOptions bucketOptions(BucketOptions options) {
+        final com.google.api.Distribution.BucketOptions.Builder builder = com.google.api.Distribution.BucketOptions.newBuilder();
+        if (options.getExplicitBuckets() != null) {
+            builder.setExplicitBuckets(com.google.api.Distribution.BucketOptions.Explicit.newBuilder()
+                    .addAllBounds(options.getExplicitBuckets().getBounds()));
+        } else if (options.getExponentialBuckets() != null) {
+            builder.setExponentialBuckets(com.google.api.Distribution.BucketOptions.Exponential.newBuilder()
+                    .setNumFiniteBuckets(options.getExponentialBuckets().getNumFiniteBuckets())
+                    .setGrowthFactor(options.getExponentialBuckets().getGrowthFactor())
+                    .setScale(options.getExponentialBuckets().getScale()));
+        } else if (options.getLinearBuckets() != null) {
+            builder.setLinearBuckets(com.google.api.Distribution.BucketOptions.Linear.newBuilder()
+                    .setNumFiniteBuckets(options.getLinearBuckets().getNumFiniteBuckets())
+                    .setWidth(options.getLinearBuckets().getWidth())
+                    .setOffset(options.getLinearBuckets().getOffset()));
+        }
+        return builder.build();
+    }
+
+    private static Timestamp timestamp(String rfc3339) {
+        final long millis = DateTime.parseRfc3339(rfc3339).getValue();
+        return Timestamp.newBuilder()
+                .setSeconds(Math.floorDiv(millis, 1000))
+                .setNanos((int) Math.floorMod(millis, 1000) * 1000000)
+                .build();
+    }
+
+    /**
+     * Maps a gRPC status code to its HTTP equivalent, as documented in {@code google.rpc.Code}.
+     */
+    static int statusCode(Status.Code code) {
+        switch (code) {
+            case OK:
+                return 200;
+            case INVALID_ARGUMENT:
+            case FAILED_PRECONDITION:
+            case OUT_OF_RANGE:
+                return 400;
+            case UNAUTHENTICATED:
+                return 401;
+            case PERMISSION_DENIED:
+                return 403;
+            case NOT_FOUND:
+                return 404;
+            case ALREADY_EXISTS:
+            case ABORTED:
+                return 409;
+            case RESOURCE_EXHAUSTED:
+                return 429;
+            case CANCELLED:
+                return 499;
+            case UNIMPLEMENTED:
+                return 501;
+            case UNAVAILABLE:
+                return 503;
+            case DEADLINE_EXCEEDED:
+                return 504;
+            default:
+                return 500;
+        }
+    }
+
+    private static <K, V> LoadingCache<K, V> identityCache(CacheLoader<K, V> loader) {
+        // weak keys are compared by identity, and dropped along with the descriptors and ticks holding them
+        return CacheBuilder.newBuilder().weakKeys().build(loader);
+    }
+}
@@ -0,0 +1,97 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Reservoir} recording every value into an HdrHistogram {@link Recorder}, instead of keeping a sample.
+ * <p/>
+ * Recording is wait-free and memory is fixed by the precision, whatever the number of values. Values are rolled
+ * over into a new snapshot once per interval, which should be the reporting period: each snapshot holds the values
+ * of the last complete interval, so percentiles are exact per interval up to the precision. Reading a snapshot does
+ * not consume it: every reader, e.g. the reporter and the admin servlet, gets the same snapshot until the next
+ * rollover, and a snapshot never changes once taken. {@link StackdriverMonitoringReporter} reads these snapshots
+ * without copying or sorting values:
+ * <pre>
+ * final Timer timer = registry.register("requests", new Timer(new HdrHistogramReservoir(1, TimeUnit.MINUTES)));
+ * </pre>
+ */
+public class HdrHistogramReservoir implements Reservoir {
+
+    private final int numberOfSignificantValueDigits;
+    private final long intervalNanos;
+    private final Clock clock;
+    private final Recorder recorder;
+    private long rolledOverAt;
+    private volatile HdrHistogramSnapshot snapshot;
+
+    /**
+     * Creates a reservoir keeping 2 significant decimal digits, rolled over every minute.
+     */
+    public HdrHistogramReservoir() {
+        this(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Creates a reservoir keeping 2 significant decimal digits.
+     *
+     * @param interval the interval between rollovers, usually the reporting period
+     * @param unit     the unit of {@code interval}
+     */
+    public HdrHistogramReservoir(long interval, TimeUnit unit) {
+        this(2, interval, unit, Clock.defaultClock());
+    }
+
+    /**
+     * @param numberOfSignificantValueDigits the precision of the recorded values, from 0 to 5
+     * @param interval                       the interval between rollovers, usually the reporting period
+     * @param unit                           the unit of {@code interval}
+     * @param clock                          the clock whose ticks time the rollovers
+     */
+    public HdrHistogramReservoir(int numberOfSignificantValueDigits, long interval, TimeUnit unit, Clock clock) {
+        this.numberOfSignificantValueDigits = numberOfSignificantValueDigits;
+        this.intervalNanos = unit.toNanos(interval);
+        this.clock = clock;
+        this.recorder = new Recorder(numberOfSignificantValueDigits);
+        this.rolledOverAt = clock.getTick();
+        this.snapshot = new HdrHistogramSnapshot(new Histogram(numberOfSignificantValueDigits));
+    }
+
+    /**
+     * The number of values in the current snapshot.
+     */
+    @Override
+    public int size() {
+        return getSnapshot().size();
+    }
+
+    @Override
+    public void update(long value) {
+        recorder.recordValue(Math.max(0, value));
+    }
+
+    /**
+     * Returns the values recorded during the last complete interval.
+     */
+    @Override
+    public Snapshot getSnapshot() {
+        final long tick = clock.getTick();
+        synchronized (this) {
+            final long elapsed = tick - rolledOverAt;
+            if (elapsed >= intervalNanos) {
+                // aligned to the first rollover, so that a reader with the same period sees every interval once
+                rolledOverAt += elapsed - elapsed % intervalNanos;
+                // copied into a plain histogram: reading the recorder's concurrent one takes a lock per bucket
+                final Histogram interval = new Histogram(numberOfSignificantValueDigits);
+                recorder.getIntervalHistogramInto(interval);
+                snapshot = new HdrHistogramSnapshot(interval);
+            }
+            return snapshot;
+        }
+    }
+}
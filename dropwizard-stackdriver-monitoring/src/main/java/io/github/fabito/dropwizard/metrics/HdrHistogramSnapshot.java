@@ -0,0 +1,98 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Snapshot;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link Snapshot} of an {@link HdrHistogramReservoir}, backed by the {@link Histogram} of one interval.
+ * <p/>
+ * Statistics and percentiles are read from the histogram. {@link #getValues()} expands it and is only meant for
+ * callers unaware of this class; {@link SnapshotDistribution} and {@link MergedSnapshot} iterate the recorded
+ * values and their counts instead.
+ */
+class HdrHistogramSnapshot extends Snapshot {
+
+    private final Histogram histogram;
+
+    HdrHistogramSnapshot(Histogram histogram) {
+        this.histogram = histogram;
+    }
+
+    /**
+     * The interval histogram. Must not be modified.
+     */
+    Histogram histogram() {
+        return histogram;
+    }
+
+    /**
+     * The value stored for the values counted at the given iteration step, halfway through their bucket.
+     */
+    long value(HistogramIterationValue value) {
+        return histogram.medianEquivalentValue(value.getValueIteratedTo());
+    }
+
+    @Override
+    public double getValue(double quantile) {
+        if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+            throw new IllegalArgumentException(quantile + " is not in [0..1]");
+        }
+        return histogram.getTotalCount() == 0 ? 0.0 : histogram.getValueAtPercentile(quantile * 100.0);
+    }
+
+    @Override
+    public long[] getValues() {
+        final long[] values = new long[size()];
+        int position = 0;
+        for (HistogramIterationValue value : histogram.recordedValues()) {
+            final long v = value(value);
+            for (long i = 0; i < value.getCountAtValueIteratedTo() && position < values.length; i++) {
+                values[position++] = v;
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, histogram.getTotalCount());
+    }
+
+    @Override
+    public long getMax() {
+        return histogram.getTotalCount() == 0 ? 0 : histogram.getMaxValue();
+    }
+
+    @Override
+    public double getMean() {
+        return histogram.getTotalCount() == 0 ? 0.0 : histogram.getMean();
+    }
+
+    @Override
+    public long getMin() {
+        return histogram.getTotalCount() == 0 ? 0 : histogram.getMinValue();
+    }
+
+    @Override
+    public double getStdDev() {
+        return histogram.getTotalCount() == 0 ? 0.0 : histogram.getStdDeviation();
+    }
+
+    @Override
+    public void dump(OutputStream output) {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+            for (HistogramIterationValue value : histogram.recordedValues()) {
+                final long v = value(value);
+                for (long i = 0; i < value.getCountAtValueIteratedTo(); i++) {
+                    out.printf("%d%n", v);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link Gauge} of a {@code long} value, read by {@link StackdriverMonitoringReporter} without boxing. Other
+ * reporters read the boxed {@link #getValue()}.
+ * <pre>
+ * registry.register("queue.size", (LongGauge) queue::size);
+ * </pre>
+ */
+public interface LongGauge extends Gauge<Long> {
+
+    long getLongValue();
+
+    @Override
+    default Long getValue() {
+        return getLongValue();
+    }
+
+    /**
+     * Returns a gauge computing its value with the given supplier at most once per {@code ttl}, for values costly
+     * to compute. The first value is computed right away. While one caller computes a new value, the others read
+     * the previous one; a value that could not be computed is computed again by the next caller.
+     *
+     * @param supplier computes the value
+     * @param ttl      how long a value is read before being computed again
+     * @param unit     the unit of {@code ttl}
+     */
+    static LongGauge cached(LongSupplier supplier, long ttl, TimeUnit unit) {
+        return new CachedLongGauge(supplier, ttl, unit, Clock.defaultClock());
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.fabito.dropwizard.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the names abbreviated by another {@link Abbreviator} while a {@link MetricDescriptorCache} holds
+ * descriptors built from them. Each descriptor claims the abbreviation of its name, and releases it when its metric
+ * is removed; the abbreviation is forgotten once no descriptor uses it anymore.
+ * <p/>
+ * Two names may abbreviate to the same string, e.g. {@code io.github.fabito.Foo.x} and {@code io.google.fast.Foo.x}
+ * both to {@code i.g.f.Foo.x}, which would send two time series of the same type and get the whole request
+ * rejected. The first name keeps the abbreviation, the later ones are left unabbreviated. A name that is itself the
+ * abbreviation of another one, e.g. {@code i.g.f.Foo.x}, gets a suffix derived from its hash code instead.
+ */
+class MemoizingAbbreviator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemoizingAbbreviator.class);
+
+    private final Abbreviator abbreviator;
+    private final Map<String, Claim> claims = new HashMap<>();
+    private final Map<String, String> owners = new HashMap<>();
+
+    MemoizingAbbreviator(Abbreviator abbreviator) {
+        this.abbreviator = abbreviator;
+    }
+
+    /**
+     * Abbreviates the given name, keeping its abbreviation until it is released as many times as it was claimed.
+     */
+    synchronized String claim(String name) {
+        Claim claim = claims.get(name);
+        if (claim == null) {
+            claim = new Claim(unique(name, abbreviator.abbreviate(name)));
+            claims.put(name, claim);
+        }
+        claim.references++;
+        return claim.abbreviation;
+    }
+
+    /**
+     * Releases a claim on the abbreviation of the given name.
+     */
+    synchronized void release(String name) {
+        final Claim claim = claims.get(name);
+        if (claim != null && --claim.references == 0) {
+            claims.remove(name);
+            owners.remove(claim.abbreviation, name);
+        }
+    }
+
+    private String unique(String name, String abbreviation) {
+        if (own(abbreviation, name)) {
+            return abbreviation;
+        }
+        String fallback = name;
+        for (int i = 1; !own(fallback, name); i++) {
+            fallback = name + '_' + Integer.toHexString(name.hashCode()) + (i > 1 ? "_" + i : "");
+        }
+        LOGGER.warn("{} and {} both abbreviate to {}, reporting {} as {}", owners.get(abbreviation), name, abbreviation, name, fallback);
+        return fallback;
+    }
+
+    private boolean own(String abbreviation, String name) {
+        final String owner = owners.putIfAbsent(abbreviation, name);
+        return owner == null || owner.equals(name);
+    }
+
+    private static final class Claim {
+
+        private final String abbreviation;
+        private int references;
+
+        private Claim(String abbreviation) {
+            this.abbreviation = abbreviation;
+        }
+    }
+}
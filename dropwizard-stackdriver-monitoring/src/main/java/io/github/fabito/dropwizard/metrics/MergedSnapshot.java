@@ -0,0 +1,154 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Snapshot;
+import org.HdrHistogram.HistogramIterationValue;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A {@link Snapshot} merging the values of several snapshots into log-linear buckets, so its memory does not grow
+ * with the number of merged values.
+ * <p/>
+ * Values below {@value #SUB_BUCKETS} have their own bucket; larger ones share buckets spanning about 3% of their
+ * value. Percentiles are read from the buckets, while the count, minimum, maximum, mean and standard deviation are
+ * exact. Negative values are counted as zero.
+ * <p/>
+ * Not thread safe.
+ */
+class MergedSnapshot extends Snapshot {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS >> 1;
+
+    private long[] counts = new long[SUB_BUCKETS * 2];
+    private long size;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private double sum;
+    private double sumOfSquares;
+
+    /**
+     * Merges all the values of the given snapshot.
+     */
+    void add(Snapshot snapshot) {
+        if (snapshot instanceof HdrHistogramSnapshot) {
+            final HdrHistogramSnapshot hdrHistogramSnapshot = (HdrHistogramSnapshot) snapshot;
+            for (HistogramIterationValue value : hdrHistogramSnapshot.histogram().recordedValues()) {
+                add(hdrHistogramSnapshot.value(value), value.getCountAtValueIteratedTo());
+            }
+            return;
+        }
+        for (long value : snapshot.getValues()) {
+            add(value, 1);
+        }
+    }
+
+    void add(long value, long count) {
+        final long v = Math.max(0, value);
+        final int index = index(v);
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length * 2));
+        }
+        counts[index] += count;
+        size += count;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+        sum += (double) v * count;
+        sumOfSquares += (double) v * v * count;
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * The middle of the values counted in the given bucket.
+     */
+    static long value(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / HALF_SUB_BUCKETS - 1;
+        final long lowest = (long) (index - shift * HALF_SUB_BUCKETS) << shift;
+        return lowest + ((1L << shift) - 1) / 2;
+    }
+
+    @Override
+    public double getValue(double quantile) {
+        if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+            throw new IllegalArgumentException(quantile + " is not in [0..1]");
+        }
+        if (size == 0) {
+            return 0.0;
+        }
+        final long rank = Math.min(size - 1, (long) Math.floor(quantile * size));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                return Math.max(min, Math.min(max, value(i)));
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public long[] getValues() {
+        final long[] values = new long[size()];
+        int position = 0;
+        for (int i = 0; i < counts.length; i++) {
+            final long value = Math.max(min, Math.min(max, value(i)));
+            for (long j = 0; j < counts[i] && position < values.length; j++) {
+                values[position++] = value;
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    @Override
+    public long getMax() {
+        return size == 0 ? 0 : max;
+    }
+
+    @Override
+    public double getMean() {
+        return size == 0 ? 0.0 : sum / size;
+    }
+
+    @Override
+    public long getMin() {
+        return size == 0 ? 0 : min;
+    }
+
+    @Override
+    public double getStdDev() {
+        if (size <= 1) {
+            return 0.0;
+        }
+        final double mean = sum / size;
+        return Math.sqrt(Math.max(0.0, (sumOfSquares - size * mean * mean) / (size - 1)));
+    }
+
+    @Override
+    public void dump(OutputStream output) {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+            for (long value : getValues()) {
+                out.printf("%d%n", value);
+            }
+        }
+    }
+}
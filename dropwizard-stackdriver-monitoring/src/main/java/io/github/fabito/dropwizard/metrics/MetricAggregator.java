@@ -0,0 +1,407 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Sampling;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformSnapshot;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Rolls up the counters, histograms, meters and timers whose names only differ by the given labels, before they
+ * are reported. For instance, dropping {@code tenant} merges {@code requests{route=/ping,tenant=a}} and
+ * {@code requests{route=/ping,tenant=b}} into {@code requests{route=/ping}}.
+ * <ul>
+ * <li>counts and rates are summed;</li>
+ * <li>snapshots are merged into a {@link MergedSnapshot}, when asked for.</li>
+ * </ul>
+ * Gauges and metrics without any of the labels are reported as is. The roll-up of each name is computed once and
+ * cached until the metric is removed from the registry. At most {@code maxGroups} roll-ups of each metric type are
+ * built per report; beyond that, metrics are rolled up into their name without any labels.
+ * <p/>
+ * A roll-up named like a registered metric, e.g. {@code requests{route=/ping}} next to
+ * {@code requests{route=/ping,tenant=a}}, is renamed with a {@value #RENAMED_SUFFIX} suffix on its base name,
+ * {@code requests.rollup{route=/ping}}, so that neither hides the other. Once the last metric of a roll-up is
+ * removed from the registry, the listeners given to {@link #addListener(MetricRegistryListener)} are told that the
+ * roll-up was removed, so that their entries for it are evicted as well.
+ */
+class MetricAggregator extends MetricRegistryListener.Base {
+
+    static final String RENAMED_SUFFIX = ".rollup";
+
+    private static final Group NOT_AGGREGATED = new Group(null, null, null, null);
+    private static final Reservoir NO_RESERVOIR = new Reservoir() {
+        @Override
+        public int size() {
+            return 0;
+        }
+
+        @Override
+        public void update(long value) {
+        }
+
+        @Override
+        public Snapshot getSnapshot() {
+            return new UniformSnapshot(new long[0]);
+        }
+    };
+
+    private final MetricNameParser parser;
+    private final Set<String> droppedLabels;
+    private final int maxGroups;
+    private final ConcurrentMap<String, Group> groups = new ConcurrentHashMap<>();
+    private final Set<String> registered = ConcurrentHashMap.newKeySet();
+    private final Map<String, Integer> rollUps = new HashMap<>();
+    private final List<MetricRegistryListener> listeners = new CopyOnWriteArrayList<>();
+
+    MetricAggregator(MetricNameParser parser, Set<String> droppedLabels, int maxGroups) {
+        this.parser = parser;
+        this.droppedLabels = ImmutableSet.copyOf(droppedLabels);
+        this.maxGroups = maxGroups;
+    }
+
+    /**
+     * Tells the given listener when a roll-up is no longer reported, as if it was removed from the registry.
+     */
+    void addListener(MetricRegistryListener listener) {
+        listeners.add(listener);
+    }
+
+    SortedMap<String, Counter> counters(SortedMap<String, Counter> counters) {
+        return aggregate(counters, Counter::new, (aggregate, counter) -> aggregate.inc(counter.getCount()));
+    }
+
+    SortedMap<String, Histogram> histograms(SortedMap<String, Histogram> histograms) {
+        return aggregate(histograms, AggregatedHistogram::new, AggregatedHistogram::add);
+    }
+
+    SortedMap<String, Meter> meters(SortedMap<String, Meter> meters) {
+        return aggregate(meters, AggregatedMeter::new, AggregatedMeter::add);
+    }
+
+    SortedMap<String, Timer> timers(SortedMap<String, Timer> timers) {
+        return aggregate(timers, AggregatedTimer::new, AggregatedTimer::add);
+    }
+
+    private <M extends Metric, A extends M> SortedMap<String, M> aggregate(SortedMap<String, M> metrics, Supplier<A> factory, BiConsumer<A, M> merge) {
+        if (metrics.isEmpty()) {
+            return metrics;
+        }
+        final SortedMap<String, M> aggregated = new TreeMap<>();
+        final Map<String, A> aggregates = new HashMap<>();
+        for (Map.Entry<String, M> entry : metrics.entrySet()) {
+            final Group group = group(entry.getKey());
+            if (group == NOT_AGGREGATED) {
+                aggregated.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+            A aggregate = aggregates.get(group.name);
+            if (aggregate == null && aggregates.size() >= maxGroups) {
+                aggregate = aggregates.get(group.overflow);
+                if (aggregate == null) {
+                    aggregate = factory.get();
+                    aggregates.put(group.overflow, aggregate);
+                    aggregated.put(taken(group.overflow, metrics) ? group.renamedOverflow : group.overflow, aggregate);
+                }
+            } else if (aggregate == null) {
+                aggregate = factory.get();
+                aggregates.put(group.name, aggregate);
+                aggregated.put(taken(group.name, metrics) ? group.renamed : group.name, aggregate);
+            }
+            merge.accept(aggregate, entry.getValue());
+        }
+        return aggregated;
+    }
+
+    /**
+     * Whether a registered or reported metric has the name of a roll-up.
+     */
+    private boolean taken(String name, SortedMap<String, ?> metrics) {
+        return registered.contains(name) || metrics.containsKey(name);
+    }
+
+    private Group group(String name) {
+        Group group = groups.get(name);
+        if (group == null) {
+            group = computeGroup(name);
+            final Group existing = groups.putIfAbsent(name, group);
+            if (existing != null) {
+                return existing;
+            }
+            retain(group);
+        }
+        return group;
+    }
+
+    private Group computeGroup(String name) {
+        final MetricNameParser.ParsedName parsed = parser.parse(name);
+        boolean dropped = false;
+        final StringBuilder builder = new StringBuilder(name.length()).append(parsed.base());
+        char separator = '{';
+        for (Map.Entry<String, String> label : parsed.labels().entrySet()) {
+            if (droppedLabels.contains(label.getKey())) {
+                dropped = true;
+            } else {
+                builder.append(separator).append(label.getKey()).append('=').append(label.getValue());
+                separator = ',';
+            }
+        }
+        if (!dropped) {
+            return NOT_AGGREGATED;
+        }
+        if (separator == ',') {
+            builder.append('}');
+        }
+        final String labels = builder.substring(parsed.base().length());
+        return new Group(builder.toString(), parsed.base() + RENAMED_SUFFIX + labels, parsed.base(), parsed.base() + RENAMED_SUFFIX);
+    }
+
+    private synchronized void retain(Group group) {
+        if (group != NOT_AGGREGATED) {
+            rollUps.merge(group.name, 1, Integer::sum);
+            rollUps.merge(group.overflow, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Evicts the roll-ups the given metric was the last one of.
+     */
+    private void release(String name, BiConsumer<MetricRegistryListener, String> removal) {
+        registered.remove(name);
+        final Group group = groups.remove(name);
+        if (group == null || group == NOT_AGGREGATED) {
+            return;
+        }
+        final List<String> removed = new ArrayList<>(4);
+        synchronized (this) {
+            if (rollUps.merge(group.name, -1, Integer::sum) == 0) {
+                rollUps.remove(group.name);
+                removed.add(group.name);
+                removed.add(group.renamed);
+            }
+            if (rollUps.merge(group.overflow, -1, Integer::sum) == 0) {
+                rollUps.remove(group.overflow);
+                removed.add(group.overflow);
+                removed.add(group.renamedOverflow);
+            }
+        }
+        for (String rollUp : removed) {
+            for (MetricRegistryListener listener : listeners) {
+                removal.accept(listener, rollUp);
+            }
+        }
+    }
+
+    @Override
+    public void onGaugeAdded(String name, Gauge<?> gauge) {
+        registered.add(name);
+    }
+
+    @Override
+    public void onCounterAdded(String name, Counter counter) {
+        registered.add(name);
+    }
+
+    @Override
+    public void onHistogramAdded(String name, Histogram histogram) {
+        registered.add(name);
+    }
+
+    @Override
+    public void onMeterAdded(String name, Meter meter) {
+        registered.add(name);
+    }
+
+    @Override
+    public void onTimerAdded(String name, Timer timer) {
+        registered.add(name);
+    }
+
+    @Override
+    public void onGaugeRemoved(String name) {
+        registered.remove(name);
+    }
+
+    @Override
+    public void onCounterRemoved(String name) {
+        release(name, MetricRegistryListener::onCounterRemoved);
+    }
+
+    @Override
+    public void onHistogramRemoved(String name) {
+        release(name, MetricRegistryListener::onHistogramRemoved);
+    }
+
+    @Override
+    public void onMeterRemoved(String name) {
+        release(name, MetricRegistryListener::onMeterRemoved);
+    }
+
+    @Override
+    public void onTimerRemoved(String name) {
+        release(name, MetricRegistryListener::onTimerRemoved);
+    }
+
+    private static Snapshot merge(List<Sampling> samplings) {
+        final MergedSnapshot snapshot = new MergedSnapshot();
+        for (Sampling sampling : samplings) {
+            snapshot.add(sampling.getSnapshot());
+        }
+        return snapshot;
+    }
+
+    private static final class Group {
+
+        private final String name;
+        private final String renamed;
+        private final String overflow;
+        private final String renamedOverflow;
+
+        private Group(String name, String renamed, String overflow, String renamedOverflow) {
+            this.name = name;
+            this.renamed = renamed;
+            this.overflow = overflow;
+            this.renamedOverflow = renamedOverflow;
+        }
+    }
+
+    private static final class AggregatedHistogram extends Histogram {
+
+        private final List<Sampling> samplings = new ArrayList<>();
+        private long count;
+
+        private AggregatedHistogram() {
+            super(NO_RESERVOIR);
+        }
+
+        private void add(Histogram histogram) {
+            count += histogram.getCount();
+            samplings.add(histogram);
+        }
+
+        @Override
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public Snapshot getSnapshot() {
+            return merge(samplings);
+        }
+    }
+
+    private static final class AggregatedMeter extends Meter {
+
+        private long count;
+        private double oneMinuteRate;
+        private double fiveMinuteRate;
+        private double fifteenMinuteRate;
+        private double meanRate;
+
+        private void add(Metered meter) {
+            count += meter.getCount();
+            oneMinuteRate += meter.getOneMinuteRate();
+            fiveMinuteRate += meter.getFiveMinuteRate();
+            fifteenMinuteRate += meter.getFifteenMinuteRate();
+            meanRate += meter.getMeanRate();
+        }
+
+        @Override
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public double getOneMinuteRate() {
+            return oneMinuteRate;
+        }
+
+        @Override
+        public double getFiveMinuteRate() {
+            return fiveMinuteRate;
+        }
+
+        @Override
+        public double getFifteenMinuteRate() {
+            return fifteenMinuteRate;
+        }
+
+        @Override
+        public double getMeanRate() {
+            return meanRate;
+        }
+    }
+
+    private static final class AggregatedTimer extends Timer {
+
+        private final List<Sampling> samplings = new ArrayList<>();
+        private long count;
+        private double oneMinuteRate;
+        private double fiveMinuteRate;
+        private double fifteenMinuteRate;
+        private double meanRate;
+
+        private AggregatedTimer() {
+            super(NO_RESERVOIR);
+        }
+
+        private void add(Timer timer) {
+            count += timer.getCount();
+            oneMinuteRate += timer.getOneMinuteRate();
+            fiveMinuteRate += timer.getFiveMinuteRate();
+            fifteenMinuteRate += timer.getFifteenMinuteRate();
+            meanRate += timer.getMeanRate();
+            samplings.add(timer);
+        }
+
+        @Override
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public double getOneMinuteRate() {
+            return oneMinuteRate;
+        }
+
+        @Override
+        public double getFiveMinuteRate() {
+            return fiveMinuteRate;
+        }
+
+        @Override
+        public double getFifteenMinuteRate() {
+            return fifteenMinuteRate;
+        }
+
+        @Override
+        public double getMeanRate() {
+            return meanRate;
+        }
+
+        @Override
+        public Snapshot getSnapshot() {
+            return merge(samplings);
+        }
+    }
+}
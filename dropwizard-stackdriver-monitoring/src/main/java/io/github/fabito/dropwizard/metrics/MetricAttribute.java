@@ -0,0 +1,47 @@
+package io.github.fabito.dropwizard.metrics;
+
+/**
+ * The time series reported for histograms, meters and timers, one per statistic.
+ *
+ * @see StackdriverMonitoringReporter.Builder#reportAttributes(Class, java.util.Set)
+ */
+public enum MetricAttribute {
+
+    MAX("max", true),
+    MEAN("mean", true),
+    MIN("min", true),
+    STDDEV("stddev", true),
+    P50("p50", true),
+    P75("p75", true),
+    P95("p95", true),
+    P98("p98", true),
+    P99("p99", true),
+    P999("p999", true),
+    COUNT("count", false),
+    M1_RATE("m1_rate", false),
+    M5_RATE("m5_rate", false),
+    M15_RATE("m15_rate", false),
+    MEAN_RATE("mean_rate", false);
+
+    private final String code;
+    private final boolean snapshot;
+
+    MetricAttribute(String code, boolean snapshot) {
+        this.code = code;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * The sub type appended to the metric type.
+     */
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * Whether the value is read from a {@link com.codahale.metrics.Snapshot}.
+     */
+    boolean isSnapshot() {
+        return snapshot;
+    }
+}
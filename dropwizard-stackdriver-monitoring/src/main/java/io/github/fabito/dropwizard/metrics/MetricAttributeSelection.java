@@ -0,0 +1,165 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Timer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the {@link MetricAttribute}s reported for each histogram, meter and timer.
+ * <p/>
+ * The attributes of a metric are those of the first name pattern it matches, or else those of its type, minus
+ * the disabled attributes. Name patterns are matched once per metric; the outcome is cached until the metric is
+ * removed from the registry.
+ */
+class MetricAttributeSelection extends MetricRegistryListener.Base {
+
+    static final Set<MetricAttribute> HISTOGRAM = EnumSet.range(MetricAttribute.MAX, MetricAttribute.COUNT);
+    static final Set<MetricAttribute> METERED = EnumSet.range(MetricAttribute.COUNT, MetricAttribute.MEAN_RATE);
+    static final Set<MetricAttribute> TIMER = EnumSet.allOf(MetricAttribute.class);
+
+    private final Set<MetricAttribute> disabled;
+    private final Selection histograms;
+    private final Selection meters;
+    private final Selection timers;
+    private final List<Pattern> patterns = new ArrayList<>();
+    private final List<Set<MetricAttribute>> patternAttributes = new ArrayList<>();
+    private final ConcurrentMap<String, Selection> byName = new ConcurrentHashMap<>();
+
+    /**
+     * @param byType   the attributes of each metric type, all of them for missing types
+     * @param byName   the attributes of the metrics whose name matches each regular expression, in order
+     * @param disabled the attributes never reported
+     */
+    MetricAttributeSelection(Map<Class<? extends Metric>, Set<MetricAttribute>> byType, Map<String, Set<MetricAttribute>> byName, Set<MetricAttribute> disabled) {
+        this.disabled = disabled.isEmpty() ? EnumSet.noneOf(MetricAttribute.class) : EnumSet.copyOf(disabled);
+        this.histograms = select(HISTOGRAM, byType.get(Histogram.class));
+        this.meters = select(METERED, byType.get(Meter.class));
+        this.timers = select(TIMER, byType.get(Timer.class));
+        for (Map.Entry<String, Set<MetricAttribute>> entry : byName.entrySet()) {
+            patterns.add(Pattern.compile(entry.getKey()));
+            patternAttributes.add(entry.getValue());
+        }
+    }
+
+    /**
+     * Reports every attribute.
+     */
+    static MetricAttributeSelection all() {
+        return new MetricAttributeSelection(Collections.emptyMap(), Collections.emptyMap(), EnumSet.noneOf(MetricAttribute.class));
+    }
+
+    Selection histogram(String name) {
+        return select(name, HISTOGRAM, histograms);
+    }
+
+    Selection meter(String name) {
+        return select(name, METERED, meters);
+    }
+
+    Selection timer(String name) {
+        return select(name, TIMER, timers);
+    }
+
+    /**
+     * The largest number of attributes reported for a metric of the given type, used to size requests.
+     *
+     * @param supported {@link #HISTOGRAM}, {@link #METERED} or {@link #TIMER}
+     */
+    int maxSize(Set<MetricAttribute> supported) {
+        int max = supported == HISTOGRAM ? histograms.size() : supported == METERED ? meters.size() : timers.size();
+        for (Set<MetricAttribute> attributes : patternAttributes) {
+            max = Math.max(max, select(supported, attributes).size());
+        }
+        return max;
+    }
+
+    private Selection select(String name, Set<MetricAttribute> supported, Selection byType) {
+        if (patterns.isEmpty()) {
+            return byType;
+        }
+        Selection selection = byName.get(name);
+        if (selection == null) {
+            selection = byType;
+            for (int i = 0; i < patterns.size(); i++) {
+                if (patterns.get(i).matcher(name).matches()) {
+                    selection = select(supported, patternAttributes.get(i));
+                    break;
+                }
+            }
+            final Selection existing = byName.putIfAbsent(name, selection);
+            if (existing != null) {
+                selection = existing;
+            }
+        }
+        return selection;
+    }
+
+    private Selection select(Set<MetricAttribute> supported, Set<MetricAttribute> attributes) {
+        final EnumSet<MetricAttribute> selected = EnumSet.copyOf(supported);
+        if (attributes != null) {
+            selected.retainAll(attributes);
+        }
+        selected.removeAll(disabled);
+        return new Selection(selected);
+    }
+
+    @Override
+    public void onHistogramRemoved(String name) {
+        byName.remove(name);
+    }
+
+    @Override
+    public void onMeterRemoved(String name) {
+        byName.remove(name);
+    }
+
+    @Override
+    public void onTimerRemoved(String name) {
+        byName.remove(name);
+    }
+
+    /**
+     * The attributes reported for a metric.
+     */
+    static final class Selection {
+
+        private final EnumSet<MetricAttribute> attributes;
+        private final boolean snapshot;
+
+        private Selection(EnumSet<MetricAttribute> attributes) {
+            this.attributes = attributes;
+            boolean snapshot = false;
+            for (MetricAttribute attribute : attributes) {
+                snapshot |= attribute.isSnapshot();
+            }
+            this.snapshot = snapshot;
+        }
+
+        boolean contains(MetricAttribute attribute) {
+            return attributes.contains(attribute);
+        }
+
+        /**
+         * Whether any of the attributes is read from a snapshot.
+         */
+        boolean snapshot() {
+            return snapshot;
+        }
+
+        int size() {
+            return attributes.size();
+        }
+    }
+}
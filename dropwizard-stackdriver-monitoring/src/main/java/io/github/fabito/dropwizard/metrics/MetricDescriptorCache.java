@@ -0,0 +1,178 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.MetricRegistryListener;
+import com.google.api.services.monitoring.v3.model.Metric;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the Stackdriver {@link Metric} of every registry name and sub type, so names are parsed and abbreviated,
+ * and metric type strings are built, once instead of on every report. Each entry also carries a 64 bit hash of the metric type and
+ * labels.
+ * <p/>
+ * Registered as a {@link MetricRegistryListener} so entries are evicted, and their abbreviation released, when their
+ * metric is removed from the registry.
+ */
+class MetricDescriptorCache extends MetricRegistryListener.Base {
+
+    private final String prefix;
+    private final MetricNameParser parser;
+    private final MemoizingAbbreviator abbreviator;
+    private final ConcurrentMap<String, Name> descriptors = new ConcurrentHashMap<>();
+
+    /**
+     * @param prefix      the prefix of all metric types
+     * @param parser      splits registry names into a base name and labels
+     * @param abbreviator shortens base names, or {@code null} to keep them as is
+     */
+    MetricDescriptorCache(String prefix, MetricNameParser parser, MemoizingAbbreviator abbreviator) {
+        this.prefix = prefix;
+        this.parser = parser;
+        this.abbreviator = abbreviator;
+    }
+
+    /**
+     * Returns the {@link Descriptor} for the given registry name and sub type.
+     */
+    Descriptor descriptor(String name, String subType) {
+        Name parsed = descriptors.get(name);
+        if (parsed == null) {
+            final MetricNameParser.ParsedName parsedName = parser.parse(name);
+            parsed = new Name(parsedName.base(), abbreviator != null ? abbreviator.claim(parsedName.base()) : parsedName.base(), parsedName.labels());
+            final Name existing = descriptors.putIfAbsent(name, parsed);
+            if (existing != null) {
+                release(parsed);
+                parsed = existing;
+            }
+        }
+        Descriptor descriptor = parsed.subTypes.get(subType);
+        if (descriptor == null) {
+            descriptor = new Descriptor(type(parsed.base, subType), parsed.labels);
+            final Descriptor existing = parsed.subTypes.putIfAbsent(subType, descriptor);
+            if (existing != null) {
+                descriptor = existing;
+            }
+        }
+        return descriptor;
+    }
+
+    int size() {
+        return descriptors.size();
+    }
+
+    private String type(String name, String subType) {
+        final StringBuilder builder = new StringBuilder(prefix.length() + name.length() + subType.length() + 2);
+        append(builder, prefix);
+        append(builder, name);
+        append(builder, subType);
+        return builder.toString();
+    }
+
+    private void append(StringBuilder builder, String part) {
+        if (part != null && !part.isEmpty()) {
+            if (builder.length() > 0) {
+                builder.append('/');
+            }
+            builder.append(part);
+        }
+    }
+
+    @Override
+    public void onGaugeRemoved(String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onCounterRemoved(String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onHistogramRemoved(String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onMeterRemoved(String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onTimerRemoved(String name) {
+        remove(name);
+    }
+
+    private void remove(String name) {
+        final Name removed = descriptors.remove(name);
+        if (removed != null) {
+            release(removed);
+        }
+    }
+
+    private void release(Name name) {
+        if (abbreviator != null) {
+            abbreviator.release(name.parsedBase);
+        }
+    }
+
+    private static final class Name {
+
+        private final String parsedBase;
+        private final String base;
+        private final Map<String, String> labels;
+        private final ConcurrentMap<String, Descriptor> subTypes = new ConcurrentHashMap<>();
+
+        private Name(String parsedBase, String base, Map<String, String> labels) {
+            this.parsedBase = parsedBase;
+            this.base = base;
+            this.labels = labels;
+        }
+    }
+
+    /**
+     * A cached metric type and labels.
+     */
+    static final class Descriptor {
+
+        private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
+
+        private final Metric metric;
+        private final long hash;
+
+        private Descriptor(String type, Map<String, String> labels) {
+            this.metric = new Metric().setType(type).setLabels(labels.isEmpty() ? null : labels);
+            long hash = hash(FNV_OFFSET_BASIS, type);
+            for (Map.Entry<String, String> label : labels.entrySet()) {
+                hash = hash(hash(hash, label.getKey()), label.getValue());
+            }
+            this.hash = hash;
+        }
+
+        /**
+         * The Stackdriver {@link Metric}. The instance is shared and must not be modified.
+         */
+        Metric metric() {
+            return metric;
+        }
+
+        /**
+         * The FNV-1a hash of the metric type and labels.
+         */
+        long hash() {
+            return hash;
+        }
+
+        private static long hash(long hash, String part) {
+            for (int i = 0; i < part.length(); i++) {
+                hash ^= part.charAt(i);
+                hash *= FNV_PRIME;
+            }
+            // separates the parts, so that "ab" + "c" and "a" + "bc" differ
+            hash ^= 0xff;
+            return hash * FNV_PRIME;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Splits registry names into a metric type and Stackdriver metric labels, so that names differing only by their
+ * labels share one metric descriptor.
+ * <p/>
+ * Labels are read from:
+ * <ul>
+ * <li>a trailing tag list, e.g. {@code requests{route=/api/ping,status=200}};</li>
+ * <li>dotted segments matched by a template, e.g. {@code http.{method}.{status}} turns
+ * {@code http.GET.200.requests} into {@code http.requests} with the {@code method} and {@code status} labels. The
+ * first template matching the leading segments of a name applies.</li>
+ * </ul>
+ * Label sets are interned, so names carrying the same labels share one map.
+ * <p/>
+ * Label keys must match Stackdriver's {@code [a-zA-Z][a-zA-Z0-9_]*} syntax, of at most 100 characters: other
+ * characters of tag keys are replaced by {@code _}, and template labels are checked when the parser is created.
+ * Names whose tag list is not made of {@code key=value} pairs, e.g. {@code cache{size}}, are reported without
+ * labels, characters other than letters, digits, {@code _}, {@code .}, {@code /} and {@code -} replaced by
+ * {@code _}, e.g. {@code cache_size_}. Both are logged once per name.
+ */
+class MetricNameParser {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricNameParser.class);
+    private static final Splitter SEGMENTS = Splitter.on('.');
+    private static final Splitter TAGS = Splitter.on(',').trimResults().omitEmptyStrings();
+    private static final Pattern LABEL_KEY = Pattern.compile("[a-zA-Z][a-zA-Z0-9_]{0,99}");
+    private static final int MAX_LABEL_KEY_LENGTH = 100;
+    private static final int MAX_INVALID_NAMES = 1000;
+
+    private final List<List<String>> templates = new ArrayList<>();
+    private final Interner<Map<String, String>> labelSets = Interners.newWeakInterner();
+    private final Cache<String, ParsedName> invalidNames = CacheBuilder.newBuilder().maximumSize(MAX_INVALID_NAMES).build();
+
+    MetricNameParser(List<String> templates) {
+        for (String template : templates) {
+            final List<String> segments = SEGMENTS.splitToList(template);
+            for (String segment : segments) {
+                final String label = label(segment);
+                if (label != null && !LABEL_KEY.matcher(label).matches()) {
+                    throw new IllegalArgumentException("Invalid label " + label + " in template " + template);
+                }
+            }
+            this.templates.add(segments);
+        }
+    }
+
+    /**
+     * Parses the given registry name. Names without labels are returned as is, with empty labels.
+     */
+    ParsedName parse(String name) {
+        final ParsedName invalid = invalidNames.getIfPresent(name);
+        if (invalid != null) {
+            return invalid;
+        }
+        final Map<String, String> labels = new TreeMap<>();
+        String base = name;
+        String problem = null;
+        final int open = name.indexOf('{');
+        if (open > 0 && name.charAt(name.length() - 1) == '}') {
+            base = name.substring(0, open);
+            for (String tag : TAGS.split(name.substring(open + 1, name.length() - 1))) {
+                final int equals = tag.indexOf('=');
+                if (equals <= 0) {
+                    final String sanitized = sanitize(name);
+                    return invalid(name, new ParsedName(sanitized, ImmutableSortedMap.of()), "tag " + tag + " is not a key=value pair, reporting the name as " + sanitized);
+                }
+                final String key = tag.substring(0, equals).trim();
+                final String labelKey = labelKey(key);
+                if (!labelKey.equals(key)) {
+                    problem = "label key " + key + " is reported as " + labelKey;
+                }
+                labels.put(labelKey, tag.substring(equals + 1).trim());
+            }
+        }
+        if (!templates.isEmpty()) {
+            base = applyTemplates(base, labels);
+        }
+        final ParsedName parsed = new ParsedName(base, labels.isEmpty() ? ImmutableSortedMap.of() : labelSets.intern(ImmutableSortedMap.copyOf(labels)));
+        return problem != null ? invalid(name, parsed, problem) : parsed;
+    }
+
+    /**
+     * Remembers the parsed name, so that the problem is only logged once.
+     */
+    private ParsedName invalid(String name, ParsedName parsed, String problem) {
+        final ParsedName existing = invalidNames.asMap().putIfAbsent(name, parsed);
+        if (existing != null) {
+            return existing;
+        }
+        LOGGER.warn("Metric name {}: {}", name, problem);
+        return parsed;
+    }
+
+    private static String labelKey(String key) {
+        if (LABEL_KEY.matcher(key).matches()) {
+            return key;
+        }
+        final StringBuilder builder = new StringBuilder(key.length() + 1);
+        if (!isLetter(key.charAt(0))) {
+            builder.append('l');
+        }
+        for (int i = 0; i < key.length() && builder.length() < MAX_LABEL_KEY_LENGTH; i++) {
+            final char c = key.charAt(i);
+            builder.append(isLetter(c) || (c >= '0' && c <= '9') ? c : '_');
+        }
+        return builder.toString();
+    }
+
+    private static String sanitize(String name) {
+        final StringBuilder builder = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            builder.append(isLetter(c) || (c >= '0' && c <= '9') || c == '_' || c == '.' || c == '/' || c == '-' ? c : '_');
+        }
+        return builder.toString();
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private String applyTemplates(String name, Map<String, String> labels) {
+        final List<String> segments = SEGMENTS.splitToList(name);
+        for (List<String> template : templates) {
+            if (matches(template, segments)) {
+                final StringBuilder base = new StringBuilder(name.length());
+                for (int i = 0; i < segments.size(); i++) {
+                    final String label = i < template.size() ? label(template.get(i)) : null;
+                    if (label != null) {
+                        labels.put(label, segments.get(i));
+                    } else {
+                        if (base.length() > 0) {
+                            base.append('.');
+                        }
+                        base.append(segments.get(i));
+                    }
+                }
+                return base.toString();
+            }
+        }
+        return name;
+    }
+
+    private static boolean matches(List<String> template, List<String> segments) {
+        if (template.size() > segments.size()) {
+            return false;
+        }
+        for (int i = 0; i < template.size(); i++) {
+            if (label(template.get(i)) == null && !template.get(i).equals(segments.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String label(String segment) {
+        return segment.length() > 2 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}'
+                ? segment.substring(1, segment.length() - 1)
+                : null;
+    }
+
+    /**
+     * A registry name split into a base name and labels.
+     */
+    static final class ParsedName {
+
+        private final String base;
+        private final Map<String, String> labels;
+
+        private ParsedName(String base, Map<String, String> labels) {
+            this.base = base;
+            this.labels = labels;
+        }
+
+        /**
+         * The name without its labels, used to build the metric type.
+         */
+        String base() {
+            return base;
+        }
+
+        /**
+         * The labels, sorted by key. Interned, must not be modified.
+         */
+        Map<String, String> labels() {
+            return labels;
+        }
+    }
+}
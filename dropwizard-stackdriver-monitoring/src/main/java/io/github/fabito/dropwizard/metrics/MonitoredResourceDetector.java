@@ -0,0 +1,148 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.google.api.client.googleapis.util.Utils;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.services.monitoring.v3.model.MonitoredResource;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Function;
+
+/**
+ * Detects the {@link MonitoredResource} the application runs on, from the environment and the Compute Engine
+ * metadata server. Meant to be called once, when the reporter is built.
+ * <ul>
+ * <li>{@code k8s_pod}, or {@code gke_container} when asked for, on Kubernetes;</li>
+ * <li>{@code gce_instance} on Compute Engine;</li>
+ * <li>{@code global} anywhere else.</li>
+ * </ul>
+ */
+class MonitoredResourceDetector {
+
+    static final String GCE_INSTANCE = "gce_instance";
+    static final String GKE_CONTAINER = "gke_container";
+    static final String K8S_POD = "k8s_pod";
+    static final String GLOBAL = "global";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MonitoredResourceDetector.class);
+    private static final String METADATA_URL = "http://metadata.google.internal/computeMetadata/v1/";
+    private static final int METADATA_TIMEOUT_MILLIS = 1000;
+    private static final Path NAMESPACE_FILE = Paths.get("/var/run/secrets/kubernetes.io/serviceaccount/namespace");
+
+    private final Function<String, String> metadata;
+    private final Function<String, String> environment;
+
+    MonitoredResourceDetector() {
+        this(MonitoredResourceDetector::fetchMetadata, System::getenv);
+    }
+
+    /**
+     * @param metadata    returns the value of a metadata path, or {@code null}
+     * @param environment returns the value of an environment variable, or {@code null}
+     */
+    MonitoredResourceDetector(Function<String, String> metadata, Function<String, String> environment) {
+        this.metadata = metadata;
+        this.environment = environment;
+    }
+
+    /**
+     * Detects the monitored resource.
+     *
+     * @param projectId the project the time series are written to
+     * @param type      the resource type to build, or {@code null} to pick one from the environment
+     */
+    MonitoredResource detect(String projectId, String type) {
+        final boolean kubernetes = environment.apply("KUBERNETES_SERVICE_HOST") != null;
+        final String instanceId = type == null || !GLOBAL.equals(type) ? metadata.apply("instance/id") : null;
+        final String resourceType = type != null ? type : kubernetes ? K8S_POD : instanceId != null ? GCE_INSTANCE : GLOBAL;
+        final MonitoredResource resource;
+        switch (resourceType) {
+            case K8S_POD:
+                resource = resource(K8S_POD, ImmutableMap.of(
+                        "project_id", projectId,
+                        "location", orEmpty(zone()),
+                        "cluster_name", orEmpty(metadata.apply("instance/attributes/cluster-name")),
+                        "namespace_name", orEmpty(namespace()),
+                        "pod_name", orEmpty(environment.apply("HOSTNAME"))));
+                break;
+            case GKE_CONTAINER:
+                resource = resource(GKE_CONTAINER, ImmutableMap.<String, String>builder()
+                        .put("project_id", projectId)
+                        .put("cluster_name", orEmpty(metadata.apply("instance/attributes/cluster-name")))
+                        .put("namespace_id", orEmpty(namespace()))
+                        .put("instance_id", orEmpty(instanceId))
+                        .put("pod_id", orEmpty(environment.apply("HOSTNAME")))
+                        .put("container_name", orEmpty(environment.apply("CONTAINER_NAME")))
+                        .put("zone", orEmpty(zone()))
+                        .build());
+                break;
+            case GCE_INSTANCE:
+                resource = resource(GCE_INSTANCE, ImmutableMap.of(
+                        "project_id", projectId,
+                        "instance_id", orEmpty(instanceId),
+                        "zone", orEmpty(zone())));
+                break;
+            case GLOBAL:
+                resource = resource(GLOBAL, ImmutableMap.of("project_id", projectId));
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported monitored resource type " + resourceType);
+        }
+        LOGGER.info("Reporting time series for monitored resource {}", resource);
+        return resource;
+    }
+
+    private static MonitoredResource resource(String type, ImmutableMap<String, String> labels) {
+        return new MonitoredResource().setType(type).setLabels(labels);
+    }
+
+    private String zone() {
+        // projects/<number>/zones/<zone>
+        final String zone = metadata.apply("instance/zone");
+        return zone != null ? zone.substring(zone.lastIndexOf('/') + 1) : null;
+    }
+
+    private String namespace() {
+        final String namespace = environment.apply("NAMESPACE");
+        if (namespace != null || !Files.isReadable(NAMESPACE_FILE)) {
+            return namespace;
+        }
+        try {
+            return new String(Files.readAllBytes(NAMESPACE_FILE), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String orEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    private static String fetchMetadata(String path) {
+        try {
+            final HttpRequest request = Utils.getDefaultTransport().createRequestFactory()
+                    .buildGetRequest(new GenericUrl(METADATA_URL + path))
+                    .setConnectTimeout(METADATA_TIMEOUT_MILLIS)
+                    .setReadTimeout(METADATA_TIMEOUT_MILLIS)
+                    .setNumberOfRetries(0);
+            request.getHeaders().set("Metadata-Flavor", "Google");
+            final HttpResponse response = request.execute();
+            try {
+                return response.parseAsString();
+            } finally {
+                response.disconnect();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Metadata {} unavailable", path, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Clock;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the reports of a {@link StackdriverMonitoringReporter}, each one at its own period, on a single thread.
+ * <p/>
+ * Every report is shifted by an offset of up to {@code maxJitter}, picked once per instance, so that instances
+ * started together do not all report in the same second. When aligned, reports run at wall-clock multiples of
+ * their period plus that offset, e.g. a few seconds after the top of each minute for a one minute period, and the
+ * next report is computed from the clock after each run so the schedule does not drift.
+ */
+class ReportScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReportScheduler.class);
+
+    private final ScheduledExecutorService executor;
+    private final Clock clock;
+    private final long maxJitterMillis;
+    private final boolean aligned;
+    private final double phase;
+
+    ReportScheduler(String name, Clock clock, long maxJitterMillis, boolean aligned) {
+        this(Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build()),
+                clock, maxJitterMillis, aligned, ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * @param phase the offset of this instance, as a fraction of the maximum jitter
+     */
+    ReportScheduler(ScheduledExecutorService executor, Clock clock, long maxJitterMillis, boolean aligned, double phase) {
+        this.executor = executor;
+        this.clock = clock;
+        this.maxJitterMillis = maxJitterMillis;
+        this.aligned = aligned;
+        this.phase = phase;
+    }
+
+    /**
+     * The executor running the reports, shut down by the reporter.
+     */
+    ScheduledExecutorService executor() {
+        return executor;
+    }
+
+    /**
+     * Runs the given report every period.
+     */
+    void schedule(Runnable report, long period, TimeUnit unit) {
+        final long periodMillis = unit.toMillis(period);
+        if (periodMillis < 1) {
+            throw new IllegalArgumentException("period must be at least 1ms");
+        }
+        if (aligned) {
+            new AlignedReport(report, periodMillis).scheduleNext();
+        } else {
+            executor.scheduleAtFixedRate(() -> run(report), firstDelayMillis(periodMillis, clock.getTime()), periodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The delay before the first report, from the given wall-clock time.
+     */
+    long firstDelayMillis(long periodMillis, long now) {
+        return aligned ? nextAligned(periodMillis, now) - now : periodMillis + offsetMillis(periodMillis);
+    }
+
+    /**
+     * The first wall-clock time after {@code now} at a multiple of the period plus the offset of this instance.
+     */
+    long nextAligned(long periodMillis, long now) {
+        final long offset = offsetMillis(periodMillis);
+        return Math.floorDiv(now - offset, periodMillis) * periodMillis + periodMillis + offset;
+    }
+
+    private long offsetMillis(long periodMillis) {
+        return (long) (phase * Math.min(maxJitterMillis, periodMillis - 1));
+    }
+
+    private static void run(Runnable report) {
+        try {
+            report.run();
+        } catch (RuntimeException e) {
+            LOGGER.error("RuntimeException thrown from report. Exception was suppressed.", e);
+        }
+    }
+
+    private final class AlignedReport implements Runnable {
+
+        private final Runnable report;
+        private final long periodMillis;
+        private long scheduled;
+
+        private AlignedReport(Runnable report, long periodMillis) {
+            this.report = report;
+            this.periodMillis = periodMillis;
+            this.scheduled = Long.MIN_VALUE;
+        }
+
+        @Override
+        public void run() {
+            ReportScheduler.run(report);
+            scheduleNext();
+        }
+
+        private void scheduleNext() {
+            final long now = clock.getTime();
+            // the previous run may have woken up a little early, never report twice for the same boundary
+            long next = scheduled == Long.MIN_VALUE ? nextAligned(periodMillis, now) : scheduled + periodMillis;
+            if (next <= now) {
+                next = nextAligned(periodMillis, now);
+            }
+            scheduled = next;
+            try {
+                executor.schedule(this, next - now, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // stopped
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.json.Json;
+import com.google.api.services.monitoring.v3.Monitoring;
+import com.google.api.services.monitoring.v3.model.CreateTimeSeriesRequest;
+import com.google.api.services.monitoring.v3.model.Empty;
+import com.google.api.services.monitoring.v3.model.TimeSeries;
+import com.google.common.io.CountingOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Creates time series with the JSON/REST {@link Monitoring} client. Several requests are sent as one
+ * {@link BatchRequest}. Being the only transport with JSON request bodies, it is the one sending streamed requests.
+ */
+class RestTimeSeriesTransport implements TimeSeriesTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RestTimeSeriesTransport.class);
+
+    private final Monitoring monitoring;
+    private final String timeSeriesName;
+
+    RestTimeSeriesTransport(Monitoring monitoring, String timeSeriesName) {
+        this.monitoring = monitoring;
+        this.timeSeriesName = timeSeriesName;
+    }
+
+    @Override
+    public long create(List<List<TimeSeries>> requests, Callback callback) throws IOException {
+        if (requests.size() == 1) {
+            final List<TimeSeries> request = requests.get(0);
+            final HttpRequest create = monitoring.projects().timeSeries().create(timeSeriesName, new CreateTimeSeriesRequest().setTimeSeries(request)).buildHttpRequest();
+            final CountingContent content = new CountingContent(create.getContent());
+            try {
+                execute(create.setContent(content));
+                callback.onSuccess(request);
+            } catch (HttpResponseException e) {
+                callback.onFailure(request, e.getStatusCode(), e.getMessage());
+            }
+            return content.bytesWritten();
+        }
+
+        final CountingInterceptor counting = new CountingInterceptor();
+        final BatchRequest batch = monitoring.batch(http -> http.setInterceptor(counting));
+        for (List<TimeSeries> request : requests) {
+            monitoring.projects().timeSeries().create(timeSeriesName, new CreateTimeSeriesRequest().setTimeSeries(request))
+                    .queue(batch, new CreateTimeSeriesJsonBatchCallback(request, callback));
+        }
+        batch.execute();
+        return counting.bytesWritten();
+    }
+
+    /**
+     * Sends a streamed request body.
+     *
+     * @return the size of the request body, in bytes
+     */
+    long stream(StreamingTimeSeriesContent content) throws IOException {
+        post(content);
+        return content.bytesWritten();
+    }
+
+    @Override
+    public byte[] encode(List<TimeSeries> request) throws IOException {
+        return monitoring.getJsonFactory().toByteArray(new CreateTimeSeriesRequest().setTimeSeries(request));
+    }
+
+    @Override
+    public Encoding encoding() {
+        return Encoding.JSON;
+    }
+
+    @Override
+    public int createEncoded(byte[] request) throws IOException {
+        try {
+            post(new ByteArrayContent(Json.MEDIA_TYPE, request));
+            return HttpStatusCodes.STATUS_CODE_OK;
+        } catch (HttpResponseException e) {
+            return e.getStatusCode();
+        }
+    }
+
+    private void post(HttpContent content) throws IOException {
+        execute(monitoring.getRequestFactory()
+                .buildPostRequest(new GenericUrl(monitoring.getBaseUrl() + "v3/" + timeSeriesName + "/timeSeries"), content)
+                .setParser(monitoring.getObjectParser()));
+    }
+
+    private static void execute(HttpRequest request) throws IOException {
+        final HttpResponse response = request.execute();
+        try {
+            final Empty empty = response.parseAs(Empty.class);
+            if (empty != null && !empty.isEmpty()) {
+                LOGGER.warn(empty.toPrettyString());
+            }
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    /**
+     * Counts the bytes of a request body while it is written, before compression. The body may be written more
+     * than once, e.g. to compute the length of its compressed form, so only the last write is counted.
+     */
+    private static final class CountingContent implements HttpContent {
+
+        private final HttpContent content;
+        private long bytesWritten;
+
+        private CountingContent(HttpContent content) {
+            this.content = content;
+        }
+
+        long bytesWritten() {
+            return bytesWritten;
+        }
+
+        @Override
+        public long getLength() throws IOException {
+            return content.getLength();
+        }
+
+        @Override
+        public String getType() {
+            return content.getType();
+        }
+
+        @Override
+        public boolean retrySupported() {
+            return content.retrySupported();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            final CountingOutputStream counting = new CountingOutputStream(out);
+            content.writeTo(counting);
+            bytesWritten = counting.getCount();
+        }
+    }
+
+    /**
+     * Counts the body of the batch request it intercepts.
+     */
+    private static final class CountingInterceptor implements HttpExecuteInterceptor {
+
+        private CountingContent content;
+
+        long bytesWritten() {
+            return content != null ? content.bytesWritten() : 0;
+        }
+
+        @Override
+        public void intercept(HttpRequest request) {
+            content = new CountingContent(request.getContent());
+            request.setContent(content);
+        }
+    }
+
+    private static class CreateTimeSeriesJsonBatchCallback extends JsonBatchCallback<Empty> {
+
+        private final List<TimeSeries> batchItems;
+        private final Callback callback;
+
+        private CreateTimeSeriesJsonBatchCallback(List<TimeSeries> batchItems, Callback callback) {
+            this.batchItems = batchItems;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) throws IOException {
+            if (e != null) {
+                callback.onFailure(batchItems, e.getCode(), e.getMessage());
+            } else {
+                callback.onFailure(batchItems, HttpStatusCodes.STATUS_CODE_SERVER_ERROR, null);
+            }
+        }
+
+        @Override
+        public void onSuccess(Empty empty, HttpHeaders responseHeaders) throws IOException {
+            if (!empty.isEmpty()) {
+                LOGGER.warn(empty.toPrettyString());
+            }
+            callback.onSuccess(batchItems);
+        }
+    }
+}
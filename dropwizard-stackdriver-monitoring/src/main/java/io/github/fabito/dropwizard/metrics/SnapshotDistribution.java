@@ -0,0 +1,122 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Snapshot;
+import com.google.api.services.monitoring.v3.model.BucketOptions;
+import com.google.api.services.monitoring.v3.model.Distribution;
+import com.google.api.services.monitoring.v3.model.Explicit;
+import com.google.api.services.monitoring.v3.model.Exponential;
+import com.google.api.services.monitoring.v3.model.Linear;
+import org.HdrHistogram.HistogramIterationValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps the values of a {@link Snapshot} onto a Stackdriver {@link Distribution} with fixed {@link BucketOptions}.
+ * <p/>
+ * Bucket boundaries are computed once, each value is then placed with a binary search. Following the Monitoring API,
+ * bucket {@code 0} is the underflow bucket and the last bucket is the overflow bucket.
+ */
+class SnapshotDistribution {
+
+    private final BucketOptions bucketOptions;
+    private final double[] bounds;
+
+    SnapshotDistribution(BucketOptions bucketOptions) {
+        this.bucketOptions = bucketOptions;
+        this.bounds = bounds(bucketOptions);
+    }
+
+    /**
+     * Builds the {@link Distribution} of the given snapshot.
+     *
+     * @param snapshot the snapshot
+     * @param factor   a factor applied to every value, used to convert durations
+     * @return a new {@link Distribution}
+     */
+    Distribution distribution(Snapshot snapshot, double factor) {
+        if (snapshot instanceof HdrHistogramSnapshot) {
+            return distribution((HdrHistogramSnapshot) snapshot, factor);
+        }
+        final long[] values = snapshot.getValues();
+        final long[] counts = new long[bounds.length + 1];
+        double mean = 0;
+        double sumOfSquaredDeviation = 0;
+        for (int i = 0; i < values.length; i++) {
+            final double value = values[i] * factor;
+            counts[bucket(value)]++;
+            // Welford's online algorithm
+            final double delta = value - mean;
+            mean += delta / (i + 1);
+            sumOfSquaredDeviation += delta * (value - mean);
+        }
+        return distribution(values.length, mean, sumOfSquaredDeviation, counts);
+    }
+
+    /**
+     * Iterates the distinct recorded values, each one weighted by its count, instead of expanding the histogram.
+     */
+    private Distribution distribution(HdrHistogramSnapshot snapshot, double factor) {
+        final long[] counts = new long[bounds.length + 1];
+        long total = 0;
+        double mean = 0;
+        double sumOfSquaredDeviation = 0;
+        for (HistogramIterationValue recorded : snapshot.histogram().recordedValues()) {
+            final double value = snapshot.value(recorded) * factor;
+            final long count = recorded.getCountAtValueIteratedTo();
+            counts[bucket(value)] += count;
+            // weighted form of Welford's algorithm
+            total += count;
+            final double delta = value - mean;
+            mean += delta * count / total;
+            sumOfSquaredDeviation += count * delta * (value - mean);
+        }
+        return distribution(total, mean, sumOfSquaredDeviation, counts);
+    }
+
+    private Distribution distribution(long count, double mean, double sumOfSquaredDeviation, long[] counts) {
+        final List<Long> bucketCounts = new ArrayList<>(counts.length);
+        for (long bucketCount : counts) {
+            bucketCounts.add(bucketCount);
+        }
+        return new Distribution()
+                .setCount(count)
+                .setMean(mean)
+                .setSumOfSquaredDeviation(sumOfSquaredDeviation)
+                .setBucketOptions(bucketOptions)
+                .setBucketCounts(bucketCounts);
+    }
+
+    private int bucket(double value) {
+        final int index = Arrays.binarySearch(bounds, value);
+        // a value equal to a lower bound belongs to the bucket starting with it
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    private static double[] bounds(BucketOptions bucketOptions) {
+        if (bucketOptions.getExplicitBuckets() != null) {
+            final Explicit explicit = bucketOptions.getExplicitBuckets();
+            final double[] bounds = new double[explicit.getBounds().size()];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = explicit.getBounds().get(i);
+            }
+            return bounds;
+        } else if (bucketOptions.getExponentialBuckets() != null) {
+            final Exponential exponential = bucketOptions.getExponentialBuckets();
+            final double[] bounds = new double[exponential.getNumFiniteBuckets() + 1];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = exponential.getScale() * Math.pow(exponential.getGrowthFactor(), i);
+            }
+            return bounds;
+        } else if (bucketOptions.getLinearBuckets() != null) {
+            final Linear linear = bucketOptions.getLinearBuckets();
+            final double[] bounds = new double[linear.getNumFiniteBuckets() + 1];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = linear.getOffset() + linear.getWidth() * i;
+            }
+            return bounds;
+        }
+        throw new IllegalArgumentException("BucketOptions must define explicit, exponential or linear buckets");
+    }
+}
@@ -0,0 +1,57 @@
+package io.github.fabito.dropwizard.metrics;
+
+import io.dropwizard.Configuration;
+import io.dropwizard.ConfiguredBundle;
+import io.dropwizard.setup.Bootstrap;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reports the metrics of an application to <a href="https://cloud.google.com/monitoring/">Stackdriver Monitoring</a>,
+ * with a final report when the application stops.
+ * <p/>
+ * Reporters declared under {@code metrics.reporters} are stopped by Dropwizard without a final report. Declare the
+ * {@link StackdriverReporterFactory} in the application configuration instead, and hand it to this bundle:
+ * <code>
+ *    private final StackdriverMonitoringBundle<SampleConfiguration> monitoringBundle =
+ *      new StackdriverMonitoringBundle<SampleConfiguration>() {
+ *         @Override
+ *         public StackdriverReporterFactory getStackdriverReporterFactory(SampleConfiguration configuration) {
+ *             return configuration.getStackdriverReporterFactory();
+ *      }
+ *    };
+ *
+ *    @Override
+ *    public void initialize(final Bootstrap<SampleConfiguration> bootstrap) {
+ *      bootstrap.addBundle(monitoringBundle);
+ *    }
+ * </code>
+ * The reporter runs at the frequency of the factory, or else at the {@code metrics.frequency} of the application.
+ */
+public abstract class StackdriverMonitoringBundle<T extends Configuration> implements ConfiguredBundle<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StackdriverMonitoringBundle.class);
+
+    private StackdriverMonitoringReporter reporter;
+
+    public abstract StackdriverReporterFactory getStackdriverReporterFactory(T configuration);
+
+    @Override
+    public void initialize(Bootstrap<?> bootstrap) {
+    }
+
+    @Override
+    public void run(T configuration, Environment environment) throws Exception {
+        final StackdriverReporterFactory factory = getStackdriverReporterFactory(configuration);
+        final Duration frequency = factory.getFrequency().orElseGet(() -> configuration.getMetricsFactory().getFrequency());
+        LOGGER.debug("Reporting metrics to Stackdriver every {}", frequency);
+        reporter = factory.build(environment.metrics());
+        environment.lifecycle().manage(new StackdriverReporterManager(reporter, frequency, factory.getStopTimeout()));
+    }
+
+    public StackdriverMonitoringReporter getReporter() {
+        return reporter;
+    }
+}
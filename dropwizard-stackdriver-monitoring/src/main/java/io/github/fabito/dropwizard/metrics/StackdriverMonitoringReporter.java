@@ -1,28 +1,32 @@
 package io.github.fabito.dropwizard.metrics;
 
 import com.codahale.metrics.*;
-import com.google.api.client.googleapis.batch.BatchRequest;
-import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
-import com.google.api.client.googleapis.json.GoogleJsonError;
-import com.google.api.client.http.HttpHeaders;
+import com.codahale.metrics.Metric;
+import com.google.api.client.json.JsonFactory;
 import com.google.api.client.util.DateTime;
 import com.google.api.services.monitoring.v3.Monitoring;
 import com.google.api.services.monitoring.v3.model.*;
-import com.google.api.services.monitoring.v3.model.Metric;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import io.grpc.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Created by fabio on 21/12/16.
@@ -31,6 +35,7 @@ public class StackdriverMonitoringReporter extends ScheduledReporter {
 
     static final String CUMULATIVE = "CUMULATIVE";
     static final String GAUGE = "GAUGE";
+    static final String DISTRIBUTION = "DISTRIBUTION";
 
     /**
      * Returns a new {@link Builder} for {@link StackdriverMonitoringReporter}.
@@ -48,17 +53,80 @@ public class StackdriverMonitoringReporter extends ScheduledReporter {
     public static class Builder {
 
         private final MetricRegistry registry;
+        private String prefix;
         private Clock clock;
         private TimeUnit rateUnit;
         private TimeUnit durationUnit;
         private MetricFilter filter;
+        private int senderThreads;
+        private int maxInFlight;
+        private int batchSize;
+        private int maxConcurrentBatches;
+        private int refreshTicks;
+        private BucketOptions distributionBuckets;
+        private int parallelism;
+        private boolean streaming;
+        private File spoolLocation;
+        private int spoolBytes;
+        private final Map<Class<? extends Metric>, Set<MetricAttribute>> attributesByType;
+        private final Map<String, Set<MetricAttribute>> attributesByName;
+        private Set<MetricAttribute> disabledAttributes;
+        private final List<String> labelTemplates;
+        private Abbreviator abbreviator;
+        private Set<String> droppedLabels;
+        private MonitoredResource resource;
+        private boolean detectResource;
+        private String resourceType;
+        private MetricRegistry instrumentation;
+        private long maxJitterMillis;
+        private boolean alignToWallClock;
+        private final Map<MetricFilter, Long> groupPeriods;
+        private ReportScheduler scheduler;
+        private long callDeadlineNanos;
 
         private Builder(MetricRegistry registry) {
             this.registry = registry;
+            this.prefix = null;
             this.clock = Clock.defaultClock();
             this.rateUnit = TimeUnit.SECONDS;
             this.durationUnit = TimeUnit.MILLISECONDS;
             this.filter = MetricFilter.ALL;
+            this.senderThreads = 0;
+            this.maxInFlight = 0;
+            this.batchSize = TimeSeriesSender.MAX_TIME_SERIES_PER_REQUEST;
+            this.maxConcurrentBatches = 0;
+            this.refreshTicks = 0;
+            this.distributionBuckets = null;
+            this.parallelism = 0;
+            this.streaming = false;
+            this.spoolLocation = null;
+            this.spoolBytes = 0;
+            this.attributesByType = new HashMap<>();
+            this.attributesByName = new LinkedHashMap<>();
+            this.disabledAttributes = EnumSet.noneOf(MetricAttribute.class);
+            this.labelTemplates = new ArrayList<>();
+            this.abbreviator = null;
+            this.droppedLabels = null;
+            this.resource = null;
+            this.detectResource = false;
+            this.resourceType = null;
+            this.instrumentation = null;
+            this.maxJitterMillis = 0;
+            this.alignToWallClock = false;
+            this.groupPeriods = new LinkedHashMap<>();
+            this.scheduler = null;
+            this.callDeadlineNanos = TimeUnit.SECONDS.toNanos(30);
+        }
+
+        /**
+         * Prefix all metric names with the given string.
+         *
+         * @param prefix the prefix for all metric names
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder prefixedWith(String prefix) {
+            this.prefix = prefix;
+            return this;
         }
 
         /**
@@ -105,284 +173,862 @@ public class StackdriverMonitoringReporter extends ScheduledReporter {
             return this;
         }
 
+        /**
+         * Send time series on a dedicated pool of {@code senderThreads} threads instead of the reporting thread,
+         * so a slow Monitoring API never delays the next collection. At most {@code maxInFlight} sends are
+         * queued, newer ones are dropped once the queue is full. Reports are still sent one after the other, in
+         * order, as Stackdriver rejects points older than the latest point of their time series: the threads send
+         * the batch calls of one report in parallel, unless {@link #adaptBatches(int)} sets their number.
+         *
+         * @param senderThreads the number of batch calls sent in parallel
+         * @param maxInFlight   the maximum number of queued sends
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder sendAsynchronously(int senderThreads, int maxInFlight) {
+            if (senderThreads < 1 || maxInFlight < 1) {
+                throw new IllegalArgumentException("senderThreads and maxInFlight must be positive");
+            }
+            this.senderThreads = senderThreads;
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * Shift every report by a random offset of up to {@code maxJitter}, picked once per reporter, so that
+         * instances started together do not all report at the same time. The offset never exceeds the period.
+         *
+         * @param maxJitter the maximum offset
+         * @param unit      the unit of {@code maxJitter}
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder jitter(long maxJitter, TimeUnit unit) {
+            if (maxJitter < 0) {
+                throw new IllegalArgumentException("maxJitter must not be negative");
+            }
+            this.maxJitterMillis = unit.toMillis(maxJitter);
+            return this;
+        }
+
+        /**
+         * Report at wall-clock multiples of the period, plus the offset picked by {@link #jitter(long, TimeUnit)},
+         * instead of one period after {@link StackdriverMonitoringReporter#start(long, TimeUnit)}. With a one minute period, reports run at the
+         * top of each minute, or a few seconds later with jitter.
+         *
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder alignToWallClock() {
+            this.alignToWallClock = true;
+            return this;
+        }
+
+        /**
+         * Report the metrics matching the given filter every {@code period}, instead of at the period given to
+         * {@link StackdriverMonitoringReporter#start(long, TimeUnit)}, e.g. latency timers every 10 seconds and JVM gauges every 5 minutes. A
+         * metric belongs to the first matching group. All groups are reported by the same thread.
+         *
+         * @param period  the reporting period of the group
+         * @param unit    the unit of {@code period}
+         * @param metrics the metrics of the group
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder reportEvery(long period, TimeUnit unit, MetricFilter metrics) {
+            if (unit.toMillis(period) < 1) {
+                throw new IllegalArgumentException("period must be at least 1ms");
+            }
+            this.groupPeriods.put(metrics, unit.toMillis(period));
+            return this;
+        }
+
+        /**
+         * Run the reports with the given scheduler, instead of one on a thread of its own.
+         */
+        StackdriverMonitoringReporter.Builder scheduleWith(ReportScheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Send at most {@code batchSize} time series per request, instead of the
+         * {@value TimeSeriesSender#MAX_TIME_SERIES_PER_REQUEST} accepted by the API.
+         *
+         * @param batchSize the maximum number of time series per request
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder batchSize(int batchSize) {
+            if (batchSize < 1 || batchSize > TimeSeriesSender.MAX_TIME_SERIES_PER_REQUEST) {
+                throw new IllegalArgumentException("batchSize must be between 1 and " + TimeSeriesSender.MAX_TIME_SERIES_PER_REQUEST);
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Only report the given attributes of the histograms, meters or timers, instead of all of them. Snapshots
+         * are only taken when a snapshot attribute is selected.
+         *
+         * @param type       {@link Histogram}, {@link Meter} or {@link Timer}
+         * @param attributes the attributes to report
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder reportAttributes(Class<? extends Metric> type, Set<MetricAttribute> attributes) {
+            if (type != Histogram.class && type != Meter.class && type != Timer.class) {
+                throw new IllegalArgumentException("type must be Histogram, Meter or Timer");
+            }
+            this.attributesByType.put(type, attributes);
+            return this;
+        }
+
+        /**
+         * Only report the given attributes of the histograms, meters and timers whose name matches the regular
+         * expression, instead of those of their type. A metric takes the attributes of the first matching
+         * expression.
+         *
+         * @param nameRegex  a regular expression matching whole metric names
+         * @param attributes the attributes to report
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder reportAttributes(String nameRegex, Set<MetricAttribute> attributes) {
+            this.attributesByName.put(nameRegex, attributes);
+            return this;
+        }
+
+        /**
+         * Never report the given attributes, whatever the type and name of the metric.
+         *
+         * @param disabledAttributes the attributes not to report
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder disabledMetricAttributes(Set<MetricAttribute> disabledAttributes) {
+            this.disabledAttributes = disabledAttributes;
+            return this;
+        }
+
+        /**
+         * Turn dotted name segments into metric labels. In the template, label segments are written in braces, e.g.
+         * {@code http.{method}.{status}} reports {@code http.GET.200.requests} as {@code http.requests} with the
+         * {@code method} and {@code status} labels. The first template matching the leading segments of a name
+         * applies. Trailing tags, as in {@code requests{route=/api/ping,status=200}}, are always turned into labels.
+         *
+         * @param template a dotted name template
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder labelTemplate(String template) {
+            this.labelTemplates.add(template);
+            return this;
+        }
+
+        /**
+         * Shorten metric names with the given {@link Abbreviator}, e.g. a {@link TargetLengthBasedClassNameAbbreviator}
+         * for names built from class names. Labels are not abbreviated. Each name is abbreviated once, and its
+         * abbreviation remembered until its metric is removed. A name abbreviating to the abbreviation of an
+         * earlier name is reported unabbreviated, so that the two do not share a metric type.
+         *
+         * @param abbreviator an {@link Abbreviator}
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder abbreviateNamesWith(Abbreviator abbreviator) {
+            this.abbreviator = abbreviator;
+            return this;
+        }
+
+        /**
+         * Roll up the counters, histograms, meters and timers whose names only differ by the given labels, e.g.
+         * dropping {@code tenant} while keeping {@code route}. Counts and rates are summed, snapshots are merged.
+         * Only the rolled up time series are sent. At most 10000 roll-ups of each metric type are reported per
+         * report; beyond that, metrics are rolled up into their name without any labels.
+         *
+         * @param droppedLabels the labels to aggregate away
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder aggregateDroppingLabels(Set<String> droppedLabels) {
+            this.droppedLabels = droppedLabels;
+            return this;
+        }
+
+        /**
+         * Attach the given monitored resource to all time series, instead of the default {@code global} one.
+         *
+         * @param resource a monitored resource
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder withMonitoredResource(MonitoredResource resource) {
+            this.resource = resource;
+            this.detectResource = false;
+            return this;
+        }
+
+        /**
+         * Detect the monitored resource when the reporter is built, and attach it to all time series:
+         * {@code k8s_pod} on Kubernetes, {@code gce_instance} on Compute Engine, {@code global} elsewhere.
+         *
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder detectMonitoredResource() {
+            return detectMonitoredResource(null);
+        }
+
+        /**
+         * Build a monitored resource of the given type from the environment and the Compute Engine metadata when
+         * the reporter is built, and attach it to all time series.
+         *
+         * @param resourceType {@code k8s_pod}, {@code gke_container}, {@code gce_instance} or {@code global}
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder detectMonitoredResource(String resourceType) {
+            this.resource = null;
+            this.detectResource = true;
+            this.resourceType = resourceType;
+            return this;
+        }
+
+        /**
+         * Adapt the number of time series per request, up to the batch size, and the number of batch calls sent in
+         * parallel, up to
+         * {@code maxConcurrentBatches}, to the latency of the reports and to {@code 429}, {@code 503} and payload
+         * size errors. Parallel batch calls are added while a report takes more than half the reporting period.
+         *
+         * @param maxConcurrentBatches the maximum number of batch calls sent in parallel
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder adaptBatches(int maxConcurrentBatches) {
+            if (maxConcurrentBatches < 1) {
+                throw new IllegalArgumentException("maxConcurrentBatches must be positive");
+            }
+            this.maxConcurrentBatches = maxConcurrentBatches;
+            return this;
+        }
+
+        /**
+         * Only report points whose value changed since they were last reported. Every {@code refreshTicks}
+         * reports, all points are sent regardless. Each group of {@link #reportEvery(long, TimeUnit, MetricFilter)}
+         * counts its own reports.
+         *
+         * @param refreshTicks the number of reports between two full reports
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder reportChangesOnly(int refreshTicks) {
+            if (refreshTicks < 1) {
+                throw new IllegalArgumentException("refreshTicks must be positive");
+            }
+            this.refreshTicks = refreshTicks;
+            return this;
+        }
+
+        /**
+         * Report each histogram and timer snapshot as a single {@code DISTRIBUTION} time series using the given
+         * buckets, instead of one time series per statistic and percentile. Timer values are converted to the
+         * duration unit before being bucketed.
+         *
+         * @param bucketOptions explicit, exponential or linear buckets
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder reportDistributions(BucketOptions bucketOptions) {
+            this.distributionBuckets = bucketOptions;
+            return this;
+        }
+
+        /**
+         * Take snapshots and build time series on a {@link ForkJoinPool} with the given parallelism, instead of
+         * the reporting thread only. Time series are still sent in registry order.
+         *
+         * @param parallelism the number of collecting threads
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder collectInParallel(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be positive");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Write time series straight from the registry into the request bodies, at most 200 per request, instead
+         * of building all of them in memory first. Each request is sent on its own, values are read while it is
+         * written, and {@link #collectInParallel(int)} does not apply. Cannot be combined with
+         * {@link #reportChangesOnly(int)} nor {@link #spoolFailedRequests(File, int)}, as a streamed body can only be
+         * written once.
+         *
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder streamRequests() {
+            this.streaming = true;
+            return this;
+        }
+
+        /**
+         * Keep requests that failed with an I/O error, a {@code 429} or a {@code 5xx} response in a memory-mapped
+         * file of {@code maxBytes} bytes, and send them again before the next reports. Stackdriver rejects points
+         * older than the latest point of their time series, so while requests are spooled, newer reports are
+         * spooled behind them instead of being sent. When the file is full, the oldest requests are evicted.
+         * Requests still spooled on stop are sent by the next reporter opening the same file. Cannot be combined
+         * with {@link #streamRequests()}.
+         *
+         * @param location the spool file
+         * @param maxBytes the size of the spool file
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder spoolFailedRequests(File location, int maxBytes) {
+            if (location == null || maxBytes < 1024) {
+                throw new IllegalArgumentException("location must be set and maxBytes at least 1024");
+            }
+            this.spoolLocation = location;
+            this.spoolBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Register the reporter's own metrics in the given registry instead of the reported one. By default,
+         * they are registered in the reported registry under {@code stackdriver-reporter.}, and left out of the
+         * reports so that a slow or failing export does not feed back into its own load.
+         * <ul>
+         * <li>{@code report.duration}, {@code report.time-series} and {@code report.errors}: the time taken by
+         * each report, the time series it built and the reports that failed;</li>
+         * <li>{@code sender.latency}, {@code sender.requests}, {@code sender.bytes} and {@code sender.failures}:
+         * the time taken by each send, its requests, their bodies and the requests that failed;</li>
+         * <li>{@code sender.queue-depth} and {@code sender.dropped} when sending asynchronously, {@code spool.*}
+         * when spooling failed requests.</li>
+         * </ul>
+         *
+         * @param instrumentation the registry of the reporter's own metrics
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder instrumentation(MetricRegistry instrumentation) {
+            this.instrumentation = instrumentation;
+            return this;
+        }
+
+        /**
+         * Give up on gRPC calls after the given deadline, 30 seconds by default. REST requests time out as set
+         * on the requests of the {@link Monitoring} client.
+         *
+         * @param deadline the deadline of each call
+         * @param unit     the unit of {@code deadline}
+         * @return {@code this}
+         */
+        public StackdriverMonitoringReporter.Builder callDeadline(long deadline, TimeUnit unit) {
+            if (deadline <= 0) {
+                throw new IllegalArgumentException("deadline must be positive");
+            }
+            this.callDeadlineNanos = unit.toNanos(deadline);
+            return this;
+        }
+
         /**
          * Builds a {@link ConsoleReporter} with the given properties.
          *
          * @return a {@link ConsoleReporter}
          */
         public StackdriverMonitoringReporter build(String projectId, Monitoring monitoring) {
-            return new StackdriverMonitoringReporter(registry,
-                    monitoring,
-                    projectId,
-                    clock,
-                    rateUnit,
-                    durationUnit,
-                    filter);
+            return build(projectId, new RestTimeSeriesTransport(monitoring, "projects/" + projectId), streaming ? monitoring.getJsonFactory() : null);
+        }
+
+        /**
+         * Builds a {@link StackdriverMonitoringReporter} sending time series with the gRPC {@code MetricService}
+         * instead of the REST API. All requests share the HTTP/2 connection of the channel, which must carry the
+         * call credentials. Cannot be combined with {@link #streamRequests()}.
+         *
+         * @param projectId the Google Cloud project id
+         * @param channel   a channel to {@code monitoring.googleapis.com}
+         * @return a {@link StackdriverMonitoringReporter}
+         */
+        public StackdriverMonitoringReporter build(String projectId, Channel channel) {
+            if (streaming) {
+                throw new IllegalStateException("Streamed requests need the REST transport");
+            }
+            return build(projectId, new GrpcTimeSeriesTransport(channel, "projects/" + projectId, callDeadlineNanos, TimeUnit.NANOSECONDS), null);
+        }
+
+        private StackdriverMonitoringReporter build(String projectId, TimeSeriesTransport transport, JsonFactory jsonFactory) {
+            if (streaming && refreshTicks > 0) {
+                throw new IllegalStateException("Streamed requests cannot report changes only");
+            }
+            if (streaming && spoolLocation != null) {
+                throw new IllegalStateException("Streamed requests cannot be spooled");
+            }
+            final TimeSeriesSpool spool;
+            try {
+                spool = spoolLocation != null ? new TimeSeriesSpool(spoolLocation, spoolBytes, transport.encoding()) : null;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to open spool " + spoolLocation, e);
+            }
+            return new StackdriverMonitoringReporter(this,
+                    transport,
+                    jsonFactory,
+                    spool,
+                    detectResource ? new MonitoredResourceDetector().detect(projectId, resourceType) : resource,
+                    instrumentation != null ? instrumentation : registry,
+                    scheduler != null ? scheduler : new ReportScheduler("stackdriver-reporter", clock, maxJitterMillis, alignToWallClock));
         }
     }
 
     static String CUSTOM_METRIC_PREFIX = "custom.googleapis.com/dw";
+    static final String OWN_METRICS_PREFIX = "stackdriver-reporter";
+    private static final long STOP_TIMEOUT_SECONDS = 10;
+    private static final int PARALLEL_CHUNK_SIZE = 128;
+    private static final int MAX_AGGREGATES = 10000;
     private static final Logger LOGGER = LoggerFactory.getLogger(StackdriverMonitoringReporter.class);
-    private final Monitoring monitoring;
+    private final TimeSeriesSender sender;
+    private final MetricDescriptorCache descriptors;
+    private final int refreshTicks;
+    private final ChangedValueFilter changedValues;
+    private final SnapshotDistribution distributions;
+    private final ForkJoinPool collectors;
+    private final MetricAttributeSelection attributes;
+    private final MonitoredResource resource;
+    private final MetricAggregator aggregator;
+    private final JsonFactory streamingJsonFactory;
+    private final int batchSize;
+    private final MetricRegistry registry;
     private final Clock clock;
-    private final String timeSeriesName;
     private final String startTime;
+    private final MetricRegistry instrumentation;
+    private final MetricFilter filter;
+    private final ReportScheduler scheduler;
+    private final Map<MetricFilter, Long> groupPeriods;
+    private final Timer reportDuration = new Timer();
+    private final Histogram reportedTimeSeries = new Histogram(new ExponentiallyDecayingReservoir());
+    private final Counter reportErrors = new Counter();
 
-    private StackdriverMonitoringReporter(MetricRegistry registry, Monitoring monitoring, String projectId, Clock clock, TimeUnit rateUnit, TimeUnit durationUnit, MetricFilter filter) {
-        super(registry, "stackdriver-reporter", filter, rateUnit, durationUnit);
-        this.monitoring = monitoring;
-        this.clock = clock;
-        this.timeSeriesName = "projects/" + projectId;
+    /**
+     * Creates a reporter with the settings of the given builder, and the transport, spool, resource, registry of
+     * its own metrics and scheduler resolved by {@link Builder#build(String, Monitoring)}.
+     */
+    private StackdriverMonitoringReporter(Builder builder, TimeSeriesTransport transport, JsonFactory jsonFactory, TimeSeriesSpool spool, MonitoredResource resource, MetricRegistry instrumentation, ReportScheduler scheduler) {
+        super(builder.registry, "stackdriver-reporter", instrumentation == builder.registry ? excludeOwnMetrics(builder.filter) : builder.filter, builder.rateUnit, builder.durationUnit, scheduler.executor());
+        final MetricNameParser parser = new MetricNameParser(builder.labelTemplates);
+        this.instrumentation = instrumentation;
+        this.filter = instrumentation == builder.registry ? excludeOwnMetrics(builder.filter) : builder.filter;
+        this.scheduler = scheduler;
+        this.groupPeriods = new LinkedHashMap<>(builder.groupPeriods);
+        this.sender = new TimeSeriesSender(transport, builder.senderThreads, builder.maxInFlight, builder.batchSize,
+                builder.maxConcurrentBatches > 0 ? new AdaptiveBatching(builder.maxConcurrentBatches, builder.batchSize) : null, spool, instrumentation);
+        this.descriptors = new MetricDescriptorCache(builder.prefix != null ? CUSTOM_METRIC_PREFIX + "/" + builder.prefix : CUSTOM_METRIC_PREFIX, parser,
+                builder.abbreviator != null ? new MemoizingAbbreviator(builder.abbreviator) : null);
+        this.resource = resource;
+        this.aggregator = builder.droppedLabels != null && !builder.droppedLabels.isEmpty() ? new MetricAggregator(parser, builder.droppedLabels, MAX_AGGREGATES) : null;
+        this.batchSize = builder.batchSize;
+        this.refreshTicks = builder.refreshTicks;
+        this.changedValues = refreshTicks > 0 ? new ChangedValueFilter(refreshTicks) : null;
+        this.distributions = builder.distributionBuckets != null ? new SnapshotDistribution(builder.distributionBuckets) : null;
+        this.collectors = builder.parallelism > 0 ? new ForkJoinPool(builder.parallelism) : null;
+        this.streamingJsonFactory = jsonFactory;
+        this.registry = builder.registry;
+        this.attributes = new MetricAttributeSelection(builder.attributesByType, builder.attributesByName, builder.disabledAttributes);
+        this.registry.addListener(descriptors);
+        this.registry.addListener(attributes);
+        if (aggregator != null) {
+            aggregator.addListener(descriptors);
+            aggregator.addListener(attributes);
+            this.registry.addListener(aggregator);
+        }
+        this.clock = builder.clock;
         this.startTime = new DateTime(clock.getTime(), 0).toStringRfc3339();
+        instrumentation.register(MetricRegistry.name(OWN_METRICS_PREFIX, "report", "duration"), reportDuration);
+        instrumentation.register(MetricRegistry.name(OWN_METRICS_PREFIX, "report", "time-series"), reportedTimeSeries);
+        instrumentation.register(MetricRegistry.name(OWN_METRICS_PREFIX, "report", "errors"), reportErrors);
+    }
+
+    private static MetricFilter excludeOwnMetrics(final MetricFilter filter) {
+        return (name, metric) -> !isOwnMetric(name) && filter.matches(name, metric);
+    }
+
+    private static boolean isOwnMetric(String name) {
+        return name.startsWith(OWN_METRICS_PREFIX) && name.length() > OWN_METRICS_PREFIX.length()
+                && name.charAt(OWN_METRICS_PREFIX.length()) == '.';
     }
 
     @Override
     public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters, SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
+        report(gauges, counters, histograms, meters, timers, changedValues);
+    }
 
-        String now = new DateTime(clock.getTime(), 0).toStringRfc3339();
+    /**
+     * Reports the given metrics, leaving out the points unchanged since the reports of the given filter.
+     */
+    private void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters, SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers, ChangedValueFilter changedValues) {
 
+        final Timer.Context context = reportDuration.time();
         try {
-
-            List<TimeSeries> timeSeriesList = Lists.newArrayList();
-            for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
-                final TimeSeries timeSeries = reportGauge(entry.getKey(), entry.getValue(), now);
-                if (timeSeries != null) {
-                    timeSeriesList.add(timeSeries);
-                }
+            if (aggregator != null) {
+                counters = aggregator.counters(counters);
+                histograms = aggregator.histograms(histograms);
+                meters = aggregator.meters(meters);
+                timers = aggregator.timers(timers);
             }
-
-            for (Map.Entry<String, Counter> entry : counters.entrySet()) {
-                final TimeSeries timeSeries = reportCounter(entry.getKey(), entry.getValue(), now);
-                if (timeSeries != null) {
-                    timeSeriesList.add(timeSeries);
+            if (streamingJsonFactory != null) {
+                final List<StreamingTimeSeriesContent> contents = chunk(gauges, counters, histograms, meters, timers);
+                int size = 0;
+                for (StreamingTimeSeriesContent content : contents) {
+                    size += content.size();
                 }
+                reportedTimeSeries.update(size);
+                sender.stream(contents);
+            } else {
+                final List<TimeSeries> timeSeriesList = collect(gauges, counters, histograms, meters, timers, changedValues);
+                reportedTimeSeries.update(timeSeriesList.size());
+                sender.send(timeSeriesList);
             }
+        } catch (RuntimeException e) {
+            reportErrors.inc();
+            LOGGER.warn("Unable to report to Stackdriver", e);
+        } finally {
+            context.stop();
+        }
+    }
 
-            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
-                final List<TimeSeries> histogramTimeSeries = reportHistogram(entry.getKey(), entry.getValue(), now);
-                if (histogramTimeSeries != null) {
-                    timeSeriesList.addAll(histogramTimeSeries);
-                }
-            }
+    /**
+     * Builds the {@link TimeSeries} of a single report.
+     */
+    List<TimeSeries> collect(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters, SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
+        return collect(gauges, counters, histograms, meters, timers, changedValues);
+    }
 
-            for (Map.Entry<String, Meter> entry : meters.entrySet()) {
-                final List<TimeSeries> meterTimeSeries = reportMetered(entry.getKey(), entry.getValue(), now);
-                if (meterTimeSeries != null) {
-                    timeSeriesList.addAll(meterTimeSeries);
-                }
-            }
+    private List<TimeSeries> collect(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters, SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers, ChangedValueFilter changedValues) {
 
-            for (Map.Entry<String, Timer> entry : timers.entrySet()) {
-                final List<TimeSeries> timerTimeSeries = reportTimer(entry.getKey(), entry.getValue(), now);
-                if (timerTimeSeries != null) {
-                    timeSeriesList.addAll(timerTimeSeries);
-                }
+        final Tick tick = new Tick(new DateTime(clock.getTime(), 0).toStringRfc3339(), this.startTime, changedValues);
+        if (changedValues != null) {
+            synchronized (changedValues) {
+                changedValues.tick();
             }
+        }
+        if (collectors != null) {
+            return collectInParallel(gauges, counters, histograms, meters, timers, tick);
+        }
 
-            if (!timeSeriesList.isEmpty()) {
-                if (timeSeriesList.size() > 200) {
-                    final BatchRequest batch = monitoring.batch();
-                    for (List<TimeSeries> partition : Iterables.partition(timeSeriesList, 200)) {
-                        CreateTimeSeriesRequest timeSeriesRequest = new CreateTimeSeriesRequest();
-                        timeSeriesRequest.setTimeSeries(partition);
-                        Monitoring.Projects.TimeSeries.Create create = monitoring.projects().timeSeries().create(this.timeSeriesName, timeSeriesRequest);
-                        create.queue(batch, new CreateTimeSeriesJsonBatchCallback(partition));
-                    }
-                    batch.execute();
-                } else {
-                    CreateTimeSeriesRequest timeSeriesRequest = new CreateTimeSeriesRequest();
-                    timeSeriesRequest.setTimeSeries(timeSeriesList);
-                    final Empty empty = monitoring.projects().timeSeries().create(this.timeSeriesName, timeSeriesRequest).execute();
-                    if (!empty.isEmpty()) {
-                        LOGGER.warn(empty.toPrettyString());
-                    }
-                }
+        final List<TimeSeries> timeSeriesList = new ArrayList<>(gauges.size() + counters.size()
+                + seriesPerHistogram() * histograms.size()
+                + attributes.maxSize(MetricAttributeSelection.METERED) * meters.size()
+                + seriesPerTimer() * timers.size());
+        final TimeSeriesWriter out = TimeSeriesWriter.into(timeSeriesList);
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            reportGauge(entry.getKey(), entry.getValue(), tick, out);
+        }
+
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            reportCounter(entry.getKey(), entry.getValue(), tick, out);
+        }
 
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            reportHistogram(entry.getKey(), entry.getValue(), tick, out);
+        }
 
-            }
+        for (Map.Entry<String, Meter> entry : meters.entrySet()) {
+            reportMetered(entry.getKey(), entry.getValue(), tick, out);
+        }
 
-        } catch (IOException e) {
-            LOGGER.warn("Unable to report to Stackdriver", e);
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            reportTimer(entry.getKey(), entry.getValue(), tick, out);
         }
+
+        return timeSeriesList;
     }
 
-    private List<TimeSeries> reportTimer(String name, Timer timer, String endTime) {
-        final Snapshot snapshot = timer.getSnapshot();
-        final List<TimeSeries> timerTimeSeries = Lists.newArrayList(
-                timeSeries(name, snapshot.getMax(), endTime, "max", GAUGE),
-                timeSeries(name, snapshot.getMean(), endTime, "mean", GAUGE),
-                timeSeries(name, snapshot.getMin(), endTime, "min", GAUGE),
-                timeSeries(name, snapshot.getStdDev(), endTime, "stddev", GAUGE),
-                timeSeries(name, snapshot.getMedian(), endTime, "p50", GAUGE),
-                timeSeries(name, snapshot.get75thPercentile(), endTime, "p75", GAUGE),
-                timeSeries(name, snapshot.get95thPercentile(), endTime, "p95", GAUGE),
-                timeSeries(name, snapshot.get98thPercentile(), endTime, "p98", GAUGE),
-                timeSeries(name, snapshot.get99thPercentile(), endTime, "p99", GAUGE),
-                timeSeries(name, snapshot.get999thPercentile(), endTime, "p999", GAUGE)
-        );
-        timerTimeSeries.addAll(reportMetered(name, timer, endTime));
-        return timerTimeSeries;
+    /**
+     * Splits a single report into streamed request bodies.
+     */
+    List<StreamingTimeSeriesContent> chunk(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters, SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
+        final Tick tick = new Tick(new DateTime(clock.getTime(), 0).toStringRfc3339(), this.startTime, null);
+        return new StreamingTimeSeriesContent.Chunker(streamingJsonFactory, tick, batchSize)
+                .add(gauges, this::reportGauge, 1)
+                .add(counters, this::reportCounter, 1)
+                .add(histograms, this::reportHistogram, seriesPerHistogram())
+                .add(meters, this::reportMetered, attributes.maxSize(MetricAttributeSelection.METERED))
+                .add(timers, this::reportTimer, seriesPerTimer())
+                .contents();
     }
 
-    private List<TimeSeries> reportMetered(String name, Metered meter, String endTime) {
-        return Lists.newArrayList(
-                timeSeries(name, meter.getCount(), endTime, "count", CUMULATIVE),
-                timeSeries(name, meter.getOneMinuteRate(), endTime, "m1_rate", GAUGE),
-                timeSeries(name, meter.getFiveMinuteRate(), endTime, "m5_rate", GAUGE),
-                timeSeries(name, meter.getFifteenMinuteRate(), endTime, "m15_rate", GAUGE),
-                timeSeries(name, meter.getMeanRate(), endTime, "mean_rate", GAUGE)
-        );
+    private int seriesPerHistogram() {
+        // a distribution replaces all the snapshot attributes
+        return distributions != null ? 2 : attributes.maxSize(MetricAttributeSelection.HISTOGRAM);
     }
 
-    private List<TimeSeries> reportHistogram(String name, Histogram histogram, String endTime) {
-        final Snapshot snapshot = histogram.getSnapshot();
-        return Lists.newArrayList(
-                timeSeries(name, histogram.getCount(), endTime, "count", CUMULATIVE),
-                timeSeries(name, snapshot.getMax(), endTime, "max", GAUGE),
-                timeSeries(name, snapshot.getMean(), endTime, "mean", GAUGE),
-                timeSeries(name, snapshot.getMin(), endTime, "min", GAUGE),
-                timeSeries(name, snapshot.getStdDev(), endTime, "stddev", GAUGE),
-                timeSeries(name, snapshot.getMedian(), endTime, "p50", GAUGE),
-                timeSeries(name, snapshot.get75thPercentile(), endTime, "p75", GAUGE),
-                timeSeries(name, snapshot.get95thPercentile(), endTime, "p95", GAUGE),
-                timeSeries(name, snapshot.get98thPercentile(), endTime, "p98", GAUGE),
-                timeSeries(name, snapshot.get99thPercentile(), endTime, "p99", GAUGE),
-                timeSeries(name, snapshot.get999thPercentile(), endTime, "p999", GAUGE)
-        );
+    private int seriesPerTimer() {
+        return distributions != null ? 1 + attributes.maxSize(MetricAttributeSelection.METERED) : attributes.maxSize(MetricAttributeSelection.TIMER);
     }
 
-    private TimeSeries reportCounter(String name, Counter counter, String endTime) {
-        return timeSeries(name, counter.getCount(), endTime, "count", CUMULATIVE);
+    private List<TimeSeries> collectInParallel(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters, SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers, Tick tick) {
+        final List<ForkJoinTask<List<TimeSeries>>> tasks = new ArrayList<>();
+        submit(gauges, this::reportGauge, tick, tasks);
+        submit(counters, this::reportCounter, tick, tasks);
+        submit(histograms, this::reportHistogram, tick, tasks);
+        submit(meters, this::reportMetered, tick, tasks);
+        submit(timers, this::reportTimer, tick, tasks);
+
+        // joining in submission order keeps the registry order
+        final List<TimeSeries> timeSeriesList = new ArrayList<>();
+        for (ForkJoinTask<List<TimeSeries>> task : tasks) {
+            timeSeriesList.addAll(task.join());
+        }
+        return timeSeriesList;
     }
 
-    private TimeSeries reportGauge(String name, Gauge gauge, String endTime) {
-        final TypedValue value = typedValue(gauge.getValue());
-        if (value != null) {
-            return timeSeries(name, gauge.getValue(), endTime, "", GAUGE);
+    private <T> void submit(SortedMap<String, T> metrics, final MetricCollector<? super T> collector, final Tick tick, List<ForkJoinTask<List<TimeSeries>>> tasks) {
+        final List<Map.Entry<String, T>> entries = new ArrayList<>(metrics.entrySet());
+        for (final List<Map.Entry<String, T>> chunk : Lists.partition(entries, PARALLEL_CHUNK_SIZE)) {
+            tasks.add(collectors.submit(() -> {
+                final List<TimeSeries> timeSeriesList = new ArrayList<>(chunk.size());
+                final TimeSeriesWriter out = TimeSeriesWriter.into(timeSeriesList);
+                for (Map.Entry<String, T> entry : chunk) {
+                    collector.collect(entry.getKey(), entry.getValue(), tick, out);
+                }
+                return timeSeriesList;
+            }));
+        }
+    }
 
+    /**
+     * Starts reporting the metrics of each group at the period of the group, and the remaining metrics at the
+     * given period, all on the reporter's thread. Each group leaves out unchanged points on its own ticks.
+     */
+    @Override
+    public void start(long period, TimeUnit unit) {
+        sender.reportingPeriod(period, unit);
+        if (groupPeriods.isEmpty()) {
+            scheduler.schedule(this::report, period, unit);
+            return;
+        }
+        final List<MetricFilter> earlierGroups = new ArrayList<>();
+        for (Map.Entry<MetricFilter, Long> group : groupPeriods.entrySet()) {
+            final MetricFilter groupFilter = inGroup(group.getKey(), new ArrayList<>(earlierGroups));
+            final ChangedValueFilter groupValues = refreshTicks > 0 ? new ChangedValueFilter(refreshTicks) : null;
+            scheduler.schedule(() -> report(groupFilter, groupValues), group.getValue(), TimeUnit.MILLISECONDS);
+            earlierGroups.add(group.getKey());
         }
-        return null;
+        final MetricFilter remaining = inGroup(MetricFilter.ALL, earlierGroups);
+        scheduler.schedule(() -> report(remaining, changedValues), period, unit);
     }
 
-    private TypedValue typedValue(Object o) {
-        if (o instanceof Float) {
-            return new TypedValue().setDoubleValue(((Float) o).doubleValue());
-        } else if (o instanceof Double) {
-            return new TypedValue().setDoubleValue((Double) o);
-        } else if (o instanceof Byte) {
-            return new TypedValue().setInt64Value(((Byte) o).longValue());
-        } else if (o instanceof Short) {
-            return new TypedValue().setInt64Value(((Short) o).longValue());
-        } else if (o instanceof Integer) {
-            return new TypedValue().setInt64Value(((Integer) o).longValue());
-        } else if (o instanceof Long) {
-            return new TypedValue().setInt64Value((Long) o);
-        } else if (o instanceof BigInteger) {
-            return new TypedValue().setDoubleValue(((BigInteger) o).doubleValue());
-        } else if (o instanceof BigDecimal) {
-            return new TypedValue().setDoubleValue(((BigDecimal) o).doubleValue());
+    /**
+     * The reported metrics matching the given group and none of the earlier ones.
+     */
+    private MetricFilter inGroup(MetricFilter group, List<MetricFilter> earlierGroups) {
+        return (name, metric) -> {
+            if (!filter.matches(name, metric) || !group.matches(name, metric)) {
+                return false;
+            }
+            for (MetricFilter earlier : earlierGroups) {
+                if (earlier.matches(name, metric)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private void report(MetricFilter metrics, ChangedValueFilter changedValues) {
+        synchronized (this) {
+            report(registry.getGauges(metrics),
+                    registry.getCounters(metrics),
+                    registry.getHistograms(metrics),
+                    registry.getMeters(metrics),
+                    registry.getTimers(metrics),
+                    changedValues);
         }
-        return null;
     }
 
-    private TimeSeries timeSeries(String name, Object pointValue, String endTime, String subType, String metricKind) {
-        return new TimeSeries()
-                .setMetricKind(metricKind)
-                .setMetric(metric(prefix(name, subType)))
-                .setPoints(Lists.newArrayList(point(metricKind, endTime, typedValue(pointValue))));
+    @Override
+    public void stop() {
+        stop(false, STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
     }
 
-    private Point point(String metricKind, String endTime, TypedValue value) {
-        return new Point()
-                .setInterval(timeInterval(endTime, metricKind))
-                .setValue(value);
+    /**
+     * Stops reporting like {@link #stop()}, after one last report of all the metrics, so that the values of the
+     * last interval are not lost on shutdown. Queued sends and spooled requests are then sent until the timeout:
+     * the queued sends left are logged and dropped, the spooled requests left are kept for the next reporter
+     * opening the spool. The last report itself is bounded by the request timeouts.
+     *
+     * @param timeout the time to wait for pending requests once the last report is collected
+     * @param unit    the unit of {@code timeout}
+     */
+    public void stopAfterFinalReport(long timeout, TimeUnit unit) {
+        stop(true, timeout, unit);
     }
 
-    private TimeInterval timeInterval(String endTime, String metricKind) {
-        final TimeInterval timeInterval = new TimeInterval().setEndTime(endTime);
-        if (CUMULATIVE.equals(metricKind)) {
-            timeInterval.setStartTime(this.startTime);
+    private void stop(boolean finalReport, long timeout, TimeUnit unit) {
+        try {
+            super.stop();
+            if (finalReport) {
+                report();
+            }
+        } finally {
+            registry.removeListener(descriptors);
+            registry.removeListener(attributes);
+            instrumentation.removeMatching((name, metric) -> isOwnMetric(name));
+            if (aggregator != null) {
+                registry.removeListener(aggregator);
+            }
+            if (collectors != null) {
+                collectors.shutdown();
+            }
+            sender.stop(timeout, unit, finalReport);
         }
-        return timeInterval.setEndTime(endTime);
-    }
-
-    private Metric metric(String type) {
-        return new Metric().setType(type);
-    }
-
-    private String prefix(String... components) {
-        return name(CUSTOM_METRIC_PREFIX, components);
-    }
+    }
 
-    private String name(String name, String... names) {
-        final StringBuilder builder = new StringBuilder();
-        append(builder, name);
-        if (names != null) {
-            for (String s : names) {
-                append(builder, s);
+    private void reportTimer(String name, Timer timer, Tick tick, TimeSeriesWriter out) {
+        final MetricAttributeSelection.Selection selection = attributes.timer(name);
+        if (selection.snapshot()) {
+            if (distributions != null) {
+                addDistribution(out, name, distributions.distribution(timer.getSnapshot(), convertDuration(1)), tick);
+            } else {
+                addSnapshot(out, name, timer.getSnapshot(), selection, tick);
             }
         }
-        return builder.toString();
+        addMetered(out, name, timer, selection, tick);
+    }
+
+    private void reportMetered(String name, Metered meter, Tick tick, TimeSeriesWriter out) {
+        addMetered(out, name, meter, attributes.meter(name), tick);
     }
 
-    private void append(StringBuilder builder, String part) {
-        if (part != null && !part.isEmpty()) {
-            if (builder.length() > 0) {
-                builder.append('/');
+    private void reportHistogram(String name, Histogram histogram, Tick tick, TimeSeriesWriter out) {
+        final MetricAttributeSelection.Selection selection = attributes.histogram(name);
+        if (selection.contains(MetricAttribute.COUNT)) {
+            add(out, name, histogram.getCount(), tick, MetricAttribute.COUNT.getCode(), CUMULATIVE);
+        }
+        if (selection.snapshot()) {
+            if (distributions != null) {
+                addDistribution(out, name, distributions.distribution(histogram.getSnapshot(), 1), tick);
+            } else {
+                addSnapshot(out, name, histogram.getSnapshot(), selection, tick);
             }
-            builder.append(part);
         }
     }
 
-    private static class CreateTimeSeriesJsonBatchCallback extends JsonBatchCallback<Empty> {
+    private void addMetered(TimeSeriesWriter out, String name, Metered meter, MetricAttributeSelection.Selection selection, Tick tick) {
+        if (selection.contains(MetricAttribute.COUNT)) {
+            add(out, name, meter.getCount(), tick, MetricAttribute.COUNT.getCode(), CUMULATIVE);
+        }
+        if (selection.contains(MetricAttribute.M1_RATE)) {
+            add(out, name, meter.getOneMinuteRate(), tick, MetricAttribute.M1_RATE.getCode(), GAUGE);
+        }
+        if (selection.contains(MetricAttribute.M5_RATE)) {
+            add(out, name, meter.getFiveMinuteRate(), tick, MetricAttribute.M5_RATE.getCode(), GAUGE);
+        }
+        if (selection.contains(MetricAttribute.M15_RATE)) {
+            add(out, name, meter.getFifteenMinuteRate(), tick, MetricAttribute.M15_RATE.getCode(), GAUGE);
+        }
+        if (selection.contains(MetricAttribute.MEAN_RATE)) {
+            add(out, name, meter.getMeanRate(), tick, MetricAttribute.MEAN_RATE.getCode(), GAUGE);
+        }
+    }
+
+    private void addSnapshot(TimeSeriesWriter out, String name, Snapshot snapshot, MetricAttributeSelection.Selection selection, Tick tick) {
+        if (selection.contains(MetricAttribute.MAX)) {
+            add(out, name, snapshot.getMax(), tick, MetricAttribute.MAX.getCode(), GAUGE);
+        }
+        if (selection.contains(MetricAttribute.MEAN)) {
+            add(out, name, snapshot.getMean(), tick, MetricAttribute.MEAN.getCode(), GAUGE);
+        }
+        if (selection.contains(MetricAttribute.MIN)) {
+            add(out, name, snapshot.getMin(), tick, MetricAttribute.MIN.getCode(), GAUGE);
+        }
+        if (selection.contains(MetricAttribute.STDDEV)) {
+            add(out, name, snapshot.getStdDev(), tick, MetricAttribute.STDDEV.getCode(), GAUGE);
+        }
+        if (selection.contains(MetricAttribute.P50)) {
+            add(out, name, snapshot.getMedian(), tick, MetricAttribute.P50.getCode(), GAUGE);
+        }
+        if (selection.contains(MetricAttribute.P75)) {
+            add(out, name, snapshot.get75thPercentile(), tick, MetricAttribute.P75.getCode(), GAUGE);
+        }
+        if (selection.contains(MetricAttribute.P95)) {
+            add(out, name, snapshot.get95thPercentile(), tick, MetricAttribute.P95.getCode(), GAUGE);
+        }
+        if (selection.contains(MetricAttribute.P98)) {
+            add(out, name, snapshot.get98thPercentile(), tick, MetricAttribute.P98.getCode(), GAUGE);
+        }
+        if (selection.contains(MetricAttribute.P99)) {
+            add(out, name, snapshot.get99thPercentile(), tick, MetricAttribute.P99.getCode(), GAUGE);
+        }
+        if (selection.contains(MetricAttribute.P999)) {
+            add(out, name, snapshot.get999thPercentile(), tick, MetricAttribute.P999.getCode(), GAUGE);
+        }
+    }
+
+    private void reportCounter(String name, Counter counter, Tick tick, TimeSeriesWriter out) {
+        add(out, name, counter.getCount(), tick, "count", CUMULATIVE);
+    }
 
-        private static final Pattern pattern = Pattern.compile("timeSeries\\[(\\d+)]");
+    /**
+     * Reads the gauge once. {@link LongGauge}s and {@link DoubleGauge}s are read without boxing, other gauges
+     * are reported when their value is a number.
+     */
+    private void reportGauge(String name, Gauge gauge, Tick tick, TimeSeriesWriter out) {
+        if (gauge instanceof LongGauge) {
+            add(out, name, ((LongGauge) gauge).getLongValue(), tick, "", GAUGE);
+            return;
+        }
+        if (gauge instanceof DoubleGauge) {
+            add(out, name, ((DoubleGauge) gauge).getDoubleValue(), tick, "", GAUGE);
+            return;
+        }
+        final Object value = gauge.getValue();
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            add(out, name, ((Number) value).longValue(), tick, "", GAUGE);
+        } else if (value instanceof Double || value instanceof Float || value instanceof BigInteger || value instanceof BigDecimal) {
+            add(out, name, ((Number) value).doubleValue(), tick, "", GAUGE);
+        }
+    }
 
-        private final List<TimeSeries> batchItems;
+    private void add(TimeSeriesWriter out, String name, long value, Tick tick, String subType, String metricKind) {
+        final MetricDescriptorCache.Descriptor descriptor = descriptors.descriptor(name, subType);
+        if (unchanged(tick, descriptor, value)) {
+            return;
+        }
+        out.write(descriptor.metric(), resource, metricKind, null, tick.interval(metricKind), new TypedValue().setInt64Value(value));
+    }
 
-        private CreateTimeSeriesJsonBatchCallback(List<TimeSeries> batchItems) {
-            this.batchItems = batchItems;
+    private void add(TimeSeriesWriter out, String name, double value, Tick tick, String subType, String metricKind) {
+        final MetricDescriptorCache.Descriptor descriptor = descriptors.descriptor(name, subType);
+        if (unchanged(tick, descriptor, Double.doubleToRawLongBits(value))) {
+            return;
         }
+        out.write(descriptor.metric(), resource, metricKind, null, tick.interval(metricKind), new TypedValue().setDoubleValue(value));
+    }
 
-        @Override
-        public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) throws IOException {
-            LOGGER.warn("Error sending batch (size={}) to Stackdriver", batchItems.size());
-            if (e != null) {
-                LOGGER.warn(e.toPrettyString());
-                final Matcher matcher = pattern.matcher(e.getMessage());
-                if (matcher.find(1)) {
-                    try {
-                        int index = Integer.parseInt(matcher.group(1));
+    /**
+     * Whether the point is left out because its value did not change, checked before building it.
+     */
+    private boolean unchanged(Tick tick, MetricDescriptorCache.Descriptor descriptor, long bits) {
+        if (tick.changedValues == null) {
+            return false;
+        }
+        synchronized (tick.changedValues) {
+            return !tick.changedValues.changed(descriptor.hash(), bits);
+        }
+    }
+
+    private void addDistribution(TimeSeriesWriter out, String name, Distribution distribution, Tick tick) {
+        out.write(descriptors.descriptor(name, "distribution").metric(), resource, GAUGE, DISTRIBUTION, tick.interval(GAUGE),
+                new TypedValue().setDistributionValue(distribution));
+    }
 
-                        if (index > 0) {
-                            final TimeSeries timeSeriesBefore = batchItems.get(index-1);
-                            LOGGER.debug("TimeSeries on index {}: {}", index-1, timeSeriesBefore.toPrettyString());
-                        }
+    /**
+     * Builds the time series of a single metric.
+     */
+    interface MetricCollector<T> {
+        void collect(String name, T metric, Tick tick, TimeSeriesWriter out);
+    }
 
-                        final TimeSeries timeSeries = batchItems.get(index);
-                        LOGGER.debug("TimeSeries on index {}: {}", index, timeSeries.toPrettyString());
+    /**
+     * The {@link TimeInterval}s shared by all the points of a single report, and the filter of its unchanged points,
+     * if any.
+     */
+    static final class Tick {
 
-                        if (index < batchItems.size()) {
-                            final TimeSeries timeSeriesAfter = batchItems.get(index+1);
-                            LOGGER.debug("TimeSeries on index {}: {}", index+1, timeSeriesAfter.toPrettyString());
-                        }
+        private final TimeInterval gaugeInterval;
+        private final TimeInterval cumulativeInterval;
+        private final ChangedValueFilter changedValues;
 
-                    } catch(Throwable t) {
-                        LOGGER.debug("Could not find problematic TimeSeries");
-                    }
-                } else {
-                    LOGGER.debug("Could not find problematic TimeSeries");
-                }
-            }
+        private Tick(String endTime, String startTime, ChangedValueFilter changedValues) {
+            this.gaugeInterval = new TimeInterval().setEndTime(endTime);
+            this.cumulativeInterval = new TimeInterval().setStartTime(startTime).setEndTime(endTime);
+            this.changedValues = changedValues;
         }
 
-        @Override
-        public void onSuccess(Empty empty, HttpHeaders responseHeaders) throws IOException {
-            if (!empty.isEmpty()) {
-                LOGGER.warn(empty.toPrettyString());
-            } else {
-                LOGGER.debug("Batch (size={}) sent to Stackdriver", batchItems.size());
-            }
+        private TimeInterval interval(String metricKind) {
+            return CUMULATIVE.equals(metricKind) ? cumulativeInterval : gaugeInterval;
         }
     }
 
@@ -1,9 +1,38 @@
 package io.github.fabito.dropwizard.metrics;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.googleapis.util.Utils;
+import com.google.api.services.monitoring.v3.Monitoring;
+import com.google.api.services.monitoring.v3.MonitoringScopes;
+import com.google.common.base.MoreObjects;
+import io.dropwizard.metrics.BaseReporterFactory;
+import io.dropwizard.metrics.ReporterFactory;
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
 /**
- * A base {@link ReporterFactory} for configuring metric reporters.
+ * A {@link ReporterFactory} for {@link StackdriverMonitoringReporter} instances.
  * <p/>
- * Configures options common to all {@link ScheduledReporter}s.
+ * Time series are sent with the application default credentials.
  * <p/>
  * <b>Configuration Parameters:</b>
  * <table>
@@ -13,6 +42,109 @@ package io.github.fabito.dropwizard.metrics;
  *         <td>Description</td>
  *     </tr>
  *     <tr>
+ *         <td>projectId</td>
+ *         <td></td>
+ *         <td>(Required) The Google Cloud Platform project id.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>prefix</td>
+ *         <td>(none)</td>
+ *         <td>The prefix for metric names.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>batchSize</td>
+ *         <td>200</td>
+ *         <td>The maximum number of time series per request.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>senderThreads</td>
+ *         <td>0</td>
+ *         <td>The number of threads sending requests. With 0, requests are sent by the reporting thread. Reports are sent one after the other, the threads send the requests of one report in parallel.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>maxInFlight</td>
+ *         <td>8</td>
+ *         <td>The maximum number of queued sends when sender threads are used. Newer sends are dropped.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>sendTimeout</td>
+ *         <td>30 seconds</td>
+ *         <td>The connect and read timeout of each request.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>stopTimeout</td>
+ *         <td>10 seconds</td>
+ *         <td>With {@link StackdriverMonitoringBundle}, the time to wait for pending requests after the final report.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>reportChangesOnly</td>
+ *         <td>false</td>
+ *         <td>Only report points whose value changed since they were last reported.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>refreshTicks</td>
+ *         <td>10</td>
+ *         <td>With reportChangesOnly, the number of reports between two full reports.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>histogramAttributes / meterAttributes / timerAttributes</td>
+ *         <td>(all)</td>
+ *         <td>The attributes reported for each metric type, e.g. {@code [count, m1_rate, p50, p99]}.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>attributesByName</td>
+ *         <td>(none)</td>
+ *         <td>The attributes reported for the metrics whose name matches a regular expression, instead of those of
+ *         their type. The first matching expression applies.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>disabledAttributes</td>
+ *         <td>(none)</td>
+ *         <td>The attributes never reported.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>abbreviateNamesTo</td>
+ *         <td>0</td>
+ *         <td>Abbreviate the leading segments of dotted names longer than this length, as in {@code i.g.f.EchoResource.echo}.
+ *         With 0, names are not abbreviated.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>labelTemplates</td>
+ *         <td>(none)</td>
+ *         <td>Dotted name templates turning segments into metric labels, e.g. {@code http.{method}.{status}}.
+ *         Trailing tags, as in {@code requests{route=/api/ping}}, are always turned into labels.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>aggregateDroppingLabels</td>
+ *         <td>(none)</td>
+ *         <td>Labels to aggregate away: counters, histograms, meters and timers only differing by these labels are
+ *         rolled up before being reported.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>resourceType</td>
+ *         <td>(none)</td>
+ *         <td>The monitored resource built from the environment when the reporter starts: {@code auto},
+ *         {@code k8s_pod}, {@code gke_container}, {@code gce_instance} or {@code global}. Without it, time series
+ *         are reported for the {@code global} resource.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>jitter</td>
+ *         <td>0 seconds</td>
+ *         <td>The maximum random offset of each report, picked once per instance, so that instances started
+ *         together do not report at the same time.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>alignToWallClock</td>
+ *         <td>false</td>
+ *         <td>Report at wall-clock multiples of the frequency, plus the jitter offset.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>frequencyByName</td>
+ *         <td>(none)</td>
+ *         <td>The frequency of the metrics whose name matches a regular expression, instead of the reporter
+ *         frequency. The first matching expression applies.</td>
+ *     </tr>
+ *     <tr>
  *         <td>durationUnit</td>
  *         <td>milliseconds</td>
  *         <td>The unit to report durations as. Overrides per-metric duration units.</td>
@@ -22,7 +154,191 @@ package io.github.fabito.dropwizard.metrics;
  *         <td>seconds</td>
  *         <td>The unit to report rates as. Overrides per-metric rate units.</td>
  *     </tr>
+ *     <tr>
+ *         <td>includes / excludes / useRegexFilters</td>
+ *         <td>(all) / (none) / false</td>
+ *         <td>The metrics to report, see {@link BaseReporterFactory}.</td>
+ *     </tr>
  * </table>
  */
-public class StackdriverReporterFactory {
+@JsonTypeName("stackdriver")
+public class StackdriverReporterFactory extends BaseReporterFactory {
+
+    @JsonProperty
+    @NotNull
+    private String projectId;
+
+    @JsonProperty
+    private String prefix;
+
+    @JsonProperty
+    @Min(1)
+    @Max(200)
+    private int batchSize = TimeSeriesSender.MAX_TIME_SERIES_PER_REQUEST;
+
+    @JsonProperty
+    @Min(0)
+    private int senderThreads = 0;
+
+    @JsonProperty
+    @Min(1)
+    private int maxInFlight = 8;
+
+    @JsonProperty
+    @NotNull
+    private Duration sendTimeout = Duration.seconds(30);
+
+    @JsonProperty
+    @NotNull
+    private Duration stopTimeout = Duration.seconds(10);
+
+    @JsonProperty
+    private boolean reportChangesOnly = false;
+
+    @JsonProperty
+    @Min(1)
+    private int refreshTicks = 10;
+
+    @JsonProperty
+    @Min(0)
+    private int abbreviateNamesTo = 0;
+
+    @JsonProperty
+    @NotNull
+    private List<String> labelTemplates = new ArrayList<>();
+
+    @JsonProperty
+    @NotNull
+    private Set<String> aggregateDroppingLabels = new LinkedHashSet<>();
+
+    @JsonProperty
+    private String resourceType;
+
+    @JsonProperty
+    @NotNull
+    private Duration jitter = Duration.seconds(0);
+
+    @JsonProperty
+    private boolean alignToWallClock = false;
+
+    @JsonProperty
+    @NotNull
+    private Map<String, Duration> frequencyByName = new LinkedHashMap<>();
+
+    @JsonProperty
+    private EnumSet<MetricAttribute> histogramAttributes;
+
+    @JsonProperty
+    private EnumSet<MetricAttribute> meterAttributes;
+
+    @JsonProperty
+    private EnumSet<MetricAttribute> timerAttributes;
+
+    @JsonProperty
+    @NotNull
+    private Map<String, EnumSet<MetricAttribute>> attributesByName = new LinkedHashMap<>();
+
+    @JsonProperty
+    @NotNull
+    private EnumSet<MetricAttribute> disabledAttributes = EnumSet.noneOf(MetricAttribute.class);
+
+    @Override
+    public StackdriverMonitoringReporter build(MetricRegistry registry) {
+        final StackdriverMonitoringReporter.Builder builder = StackdriverMonitoringReporter.forRegistry(registry)
+                .prefixedWith(prefix)
+                .convertDurationsTo(getDurationUnit())
+                .convertRatesTo(getRateUnit())
+                .filter(getFilter())
+                .batchSize(batchSize)
+                .disabledMetricAttributes(disabledAttributes);
+        if (histogramAttributes != null) {
+            builder.reportAttributes(Histogram.class, histogramAttributes);
+        }
+        if (meterAttributes != null) {
+            builder.reportAttributes(Meter.class, meterAttributes);
+        }
+        if (timerAttributes != null) {
+            builder.reportAttributes(Timer.class, timerAttributes);
+        }
+        for (Map.Entry<String, EnumSet<MetricAttribute>> entry : attributesByName.entrySet()) {
+            builder.reportAttributes(entry.getKey(), entry.getValue());
+        }
+        if (abbreviateNamesTo > 0) {
+            builder.abbreviateNamesWith(new TargetLengthBasedClassNameAbbreviator(abbreviateNamesTo));
+        }
+        for (String template : labelTemplates) {
+            builder.labelTemplate(template);
+        }
+        if (!aggregateDroppingLabels.isEmpty()) {
+            builder.aggregateDroppingLabels(aggregateDroppingLabels);
+        }
+        if (resourceType != null) {
+            builder.detectMonitoredResource("auto".equals(resourceType) ? null : resourceType);
+        }
+        builder.jitter(jitter.getQuantity(), jitter.getUnit());
+        if (alignToWallClock) {
+            builder.alignToWallClock();
+        }
+        for (Map.Entry<String, Duration> entry : frequencyByName.entrySet()) {
+            final Pattern pattern = Pattern.compile(entry.getKey());
+            builder.reportEvery(entry.getValue().getQuantity(), entry.getValue().getUnit(), (name, metric) -> pattern.matcher(name).matches());
+        }
+        if (senderThreads > 0) {
+            builder.sendAsynchronously(senderThreads, maxInFlight);
+        }
+        if (reportChangesOnly) {
+            builder.reportChangesOnly(refreshTicks);
+        }
+        try {
+            return builder.build(projectId, monitoring());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to build the Monitoring client", e);
+        }
+    }
+
+    public Duration getStopTimeout() {
+        return stopTimeout;
+    }
+
+    Monitoring monitoring() throws IOException {
+        final GoogleCredential applicationDefault = GoogleCredential.getApplicationDefault();
+        final GoogleCredential credential = applicationDefault.createScopedRequired()
+                ? applicationDefault.createScoped(MonitoringScopes.all())
+                : applicationDefault;
+        final int timeout = (int) sendTimeout.toMilliseconds();
+        return new Monitoring.Builder(Utils.getDefaultTransport(), Utils.getDefaultJsonFactory(), request -> {
+                    credential.initialize(request);
+                    request.setConnectTimeout(timeout);
+                    request.setReadTimeout(timeout);
+                })
+                .setApplicationName("dropwizard-stackdriver")
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("projectId", projectId)
+                .add("prefix", prefix)
+                .add("batchSize", batchSize)
+                .add("senderThreads", senderThreads)
+                .add("maxInFlight", maxInFlight)
+                .add("sendTimeout", sendTimeout)
+                .add("stopTimeout", stopTimeout)
+                .add("reportChangesOnly", reportChangesOnly)
+                .add("refreshTicks", refreshTicks)
+                .add("abbreviateNamesTo", abbreviateNamesTo)
+                .add("labelTemplates", labelTemplates)
+                .add("aggregateDroppingLabels", aggregateDroppingLabels)
+                .add("resourceType", resourceType)
+                .add("jitter", jitter)
+                .add("alignToWallClock", alignToWallClock)
+                .add("frequencyByName", frequencyByName)
+                .add("histogramAttributes", histogramAttributes)
+                .add("meterAttributes", meterAttributes)
+                .add("timerAttributes", timerAttributes)
+                .add("attributesByName", attributesByName)
+                .add("disabledAttributes", disabledAttributes)
+                .toString();
+    }
 }
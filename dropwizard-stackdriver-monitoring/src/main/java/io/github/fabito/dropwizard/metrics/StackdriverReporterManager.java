@@ -0,0 +1,38 @@
+package io.github.fabito.dropwizard.metrics;
+
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+
+/**
+ * Starts a {@link StackdriverMonitoringReporter} with the application, and stops it after a final report so that
+ * the last interval is not lost when the application is shut down.
+ *
+ * @see StackdriverMonitoringReporter#stopAfterFinalReport(long, java.util.concurrent.TimeUnit)
+ */
+public class StackdriverReporterManager implements Managed {
+
+    private final StackdriverMonitoringReporter reporter;
+    private final Duration period;
+    private final Duration stopTimeout;
+
+    /**
+     * @param reporter    the reporter
+     * @param period      the reporting period
+     * @param stopTimeout the time to wait for pending requests after the final report
+     */
+    public StackdriverReporterManager(StackdriverMonitoringReporter reporter, Duration period, Duration stopTimeout) {
+        this.reporter = reporter;
+        this.period = period;
+        this.stopTimeout = stopTimeout;
+    }
+
+    @Override
+    public void start() throws Exception {
+        reporter.start(period.getQuantity(), period.getUnit());
+    }
+
+    @Override
+    public void stop() throws Exception {
+        reporter.stopAfterFinalReport(stopTimeout.getQuantity(), stopTimeout.getUnit());
+    }
+}
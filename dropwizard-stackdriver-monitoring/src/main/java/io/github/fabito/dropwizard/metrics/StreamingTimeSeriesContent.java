@@ -0,0 +1,202 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.google.api.client.http.AbstractHttpContent;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonGenerator;
+import com.google.api.services.monitoring.v3.model.CreateTimeSeriesRequest;
+import com.google.api.services.monitoring.v3.model.Metric;
+import com.google.api.services.monitoring.v3.model.MonitoredResource;
+import com.google.api.services.monitoring.v3.model.TimeInterval;
+import com.google.api.services.monitoring.v3.model.TypedValue;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * A {@link CreateTimeSeriesRequest} body written straight from the registry.
+ * <p/>
+ * Each content covers a slice of the registry maps, at most {@value TimeSeriesSender#MAX_TIME_SERIES_PER_REQUEST}
+ * time series, or the configured batch size. Metric values are read while the body is written, and time series are serialized without building
+ * any {@code TimeSeries} model objects. The body can only be written once, so its length is reported as unknown
+ * and retries are not supported.
+ */
+class StreamingTimeSeriesContent extends AbstractHttpContent {
+
+    private final JsonFactory jsonFactory;
+    private final StackdriverMonitoringReporter.Tick tick;
+    private final List<Segment<?>> segments = new ArrayList<>();
+    private int size;
+    private long bytesWritten;
+
+    private StreamingTimeSeriesContent(JsonFactory jsonFactory, StackdriverMonitoringReporter.Tick tick) {
+        super(Json.MEDIA_TYPE);
+        this.jsonFactory = jsonFactory;
+        this.tick = tick;
+    }
+
+    /**
+     * @return the maximum number of time series written by this content
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes written by {@link #writeTo(OutputStream)}
+     */
+    long bytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public long getLength() throws IOException {
+        return -1;
+    }
+
+    @Override
+    public boolean retrySupported() {
+        return false;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        final CountingOutputStream counting = new CountingOutputStream(out);
+        final JsonGenerator generator = jsonFactory.createJsonGenerator(counting, StandardCharsets.UTF_8);
+        final JsonTimeSeriesWriter writer = new JsonTimeSeriesWriter(generator);
+        generator.writeStartObject();
+        generator.writeFieldName("timeSeries");
+        generator.writeStartArray();
+        try {
+            for (Segment<?> segment : segments) {
+                segment.writeTo(writer, tick);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.flush();
+        bytesWritten = counting.getCount();
+    }
+
+    /**
+     * Splits the registry maps of one report into {@link StreamingTimeSeriesContent}s.
+     */
+    static class Chunker {
+
+        private final JsonFactory jsonFactory;
+        private final StackdriverMonitoringReporter.Tick tick;
+        private final int batchSize;
+        private final List<StreamingTimeSeriesContent> contents = new ArrayList<>();
+        private StreamingTimeSeriesContent current;
+
+        Chunker(JsonFactory jsonFactory, StackdriverMonitoringReporter.Tick tick, int batchSize) {
+            this.jsonFactory = jsonFactory;
+            this.tick = tick;
+            this.batchSize = batchSize;
+            this.current = new StreamingTimeSeriesContent(jsonFactory, tick);
+        }
+
+        /**
+         * Adds the given metrics.
+         *
+         * @param metrics          the metrics
+         * @param collector        writes the time series of each metric
+         * @param seriesPerMetric  the maximum number of time series written per metric
+         */
+        <T> Chunker add(SortedMap<String, T> metrics, StackdriverMonitoringReporter.MetricCollector<? super T> collector, int seriesPerMetric) {
+            String from = null;
+            for (String name : metrics.keySet()) {
+                if (from == null) {
+                    from = name;
+                }
+                if (current.size > 0 && current.size + seriesPerMetric > batchSize) {
+                    if (!from.equals(name)) {
+                        current.segments.add(new Segment<>(metrics.subMap(from, name), collector));
+                    }
+                    contents.add(current);
+                    current = new StreamingTimeSeriesContent(jsonFactory, tick);
+                    from = name;
+                }
+                current.size += seriesPerMetric;
+            }
+            if (from != null) {
+                current.segments.add(new Segment<>(metrics.tailMap(from), collector));
+            }
+            return this;
+        }
+
+        List<StreamingTimeSeriesContent> contents() {
+            if (current.size > 0) {
+                contents.add(current);
+                current = new StreamingTimeSeriesContent(jsonFactory, tick);
+            }
+            return contents;
+        }
+    }
+
+    private static class Segment<T> {
+
+        private final SortedMap<String, T> metrics;
+        private final StackdriverMonitoringReporter.MetricCollector<? super T> collector;
+
+        private Segment(SortedMap<String, T> metrics, StackdriverMonitoringReporter.MetricCollector<? super T> collector) {
+            this.metrics = metrics;
+            this.collector = collector;
+        }
+
+        private void writeTo(TimeSeriesWriter writer, StackdriverMonitoringReporter.Tick tick) {
+            for (Map.Entry<String, T> entry : metrics.entrySet()) {
+                collector.collect(entry.getKey(), entry.getValue(), tick, writer);
+            }
+        }
+    }
+
+    private static class JsonTimeSeriesWriter implements TimeSeriesWriter {
+
+        private final JsonGenerator generator;
+
+        private JsonTimeSeriesWriter(JsonGenerator generator) {
+            this.generator = generator;
+        }
+
+        @Override
+        public void write(Metric metric, MonitoredResource resource, String metricKind, String valueType, TimeInterval interval, TypedValue value) {
+            try {
+                generator.writeStartObject();
+                generator.writeFieldName("metric");
+                generator.serialize(metric);
+                if (resource != null) {
+                    generator.writeFieldName("resource");
+                    generator.serialize(resource);
+                }
+                generator.writeFieldName("metricKind");
+                generator.writeString(metricKind);
+                if (valueType != null) {
+                    generator.writeFieldName("valueType");
+                    generator.writeString(valueType);
+                }
+                generator.writeFieldName("points");
+                generator.writeStartArray();
+                generator.writeStartObject();
+                generator.writeFieldName("interval");
+                generator.serialize(interval);
+                generator.writeFieldName("value");
+                generator.serialize(value);
+                generator.writeEndObject();
+                generator.writeEndArray();
+                generator.writeEndObject();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
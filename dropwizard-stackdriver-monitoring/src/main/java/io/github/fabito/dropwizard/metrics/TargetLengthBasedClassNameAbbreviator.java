@@ -18,7 +18,6 @@ public class TargetLengthBasedClassNameAbbreviator implements Abbreviator {
 
     @Override
     public String abbreviate(String fqClassName) {
-        StringBuilder buf = new StringBuilder(targetLength);
         if (fqClassName == null) {
             throw new IllegalArgumentException("Class name may not be null");
         }
@@ -44,6 +43,7 @@ public class TargetLengthBasedClassNameAbbreviator implements Abbreviator {
         // printArray("dotArray: ", dotArray);
         computeLengthArray(fqClassName, dotIndexesArray, lengthArray, dotCount);
         // printArray("lengthArray: ", lengthArray);
+        StringBuilder buf = new StringBuilder(targetLength);
         for (int i = 0; i <= dotCount; i++) {
             if (i == 0) {
                 buf.append(fqClassName.substring(0, lengthArray[i] - 1));
@@ -0,0 +1,503 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.api.services.monitoring.v3.model.TimeSeries;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sends the {@link TimeSeries} collected by a {@link StackdriverMonitoringReporter} to the Monitoring API, through
+ * a {@link TimeSeriesTransport}.
+ * <p/>
+ * When created with at least one sender thread, sends are handed over to a background thread so a slow API call
+ * never delays the next collection tick. Once {@code maxInFlight} sends are queued, newer ones are dropped.
+ * Stackdriver rejects points older than the latest point of their time series, so ticks are sent one after the
+ * other, in order; further sender threads send the batch calls of one tick in parallel. With zero sender threads,
+ * sends run on the calling thread.
+ * <p/>
+ * Requests are grouped into batch calls of at most {@value AdaptiveBatching#MAX_REQUESTS_PER_BATCH} requests. When given an
+ * {@link AdaptiveBatching}, the number of time series per request and of parallel batch calls follow it, instead of
+ * the number of sender threads.
+ * <p/>
+ * When given a {@link TimeSeriesSpool}, requests failing with an I/O error, a {@code 429} or a {@code 5xx} response
+ * are spooled and replayed, a few at a time, before the next sends. Stackdriver rejects points older than the latest
+ * point of their time series, so newer requests are only sent once the spool is empty; until then they are spooled
+ * behind the older ones. Streamed requests cannot be spooled, their bodies can only be written once.
+ * <p/>
+ * The latency of each send, the requests per send, the bytes sent and the failed requests are registered under
+ * {@code stackdriver-reporter.sender}, the spool metrics under {@code stackdriver-reporter.spool}.
+ */
+class TimeSeriesSender {
+
+    static final int MAX_TIME_SERIES_PER_REQUEST = 200;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimeSeriesSender.class);
+    private static final Pattern TIME_SERIES_INDEX = Pattern.compile("timeSeries\\[(\\d+)]");
+    private static final int MAX_REPLAYS_PER_SEND = 10;
+    private static final long MIN_REPLAY_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long MAX_REPLAY_BACKOFF_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final TimeSeriesTransport transport;
+    private final ThreadPoolExecutor executor;
+    private final int batchSize;
+    private final AdaptiveBatching batching;
+    private final int maxConcurrency;
+    private final ExecutorService batchExecutor;
+    private final TimeSeriesSpool spool;
+    private final AtomicBoolean replaying = new AtomicBoolean();
+    private final Timer sendLatency;
+    private final Counter dropped;
+    private final Meter replayed;
+    private final Counter rejected;
+    private final Histogram requestsPerSend;
+    private final Counter bytes;
+    private final Counter failures;
+    private volatile long nextReplayNanos = System.nanoTime();
+    private volatile long replayBackoffNanos = MIN_REPLAY_BACKOFF_NANOS;
+
+    TimeSeriesSender(TimeSeriesTransport transport, int threads, int maxInFlight, int batchSize, AdaptiveBatching batching, TimeSeriesSpool spool, MetricRegistry metrics) {
+        this.transport = transport;
+        this.batchSize = batchSize;
+        this.batching = batching;
+        this.spool = spool;
+        this.sendLatency = new Timer();
+        this.dropped = new Counter();
+        this.replayed = new Meter();
+        this.rejected = new Counter();
+        this.requestsPerSend = new Histogram(new ExponentiallyDecayingReservoir());
+        this.bytes = new Counter();
+        this.failures = new Counter();
+        if (threads > 0) {
+            // a single thread keeps at most one tick in flight
+            this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(maxInFlight),
+                    new ThreadFactoryBuilder().setNameFormat("stackdriver-sender-%d").setDaemon(true).build());
+        } else {
+            this.executor = null;
+        }
+        if (metrics != null) {
+            registerMetrics(metrics);
+        }
+        this.maxConcurrency = batching != null ? batching.maxConcurrency() : Math.max(threads, 1);
+        if (maxConcurrency > 1) {
+            this.batchExecutor = Executors.newFixedThreadPool(maxConcurrency,
+                    new ThreadFactoryBuilder().setNameFormat("stackdriver-batch-%d").setDaemon(true).build());
+        } else {
+            this.batchExecutor = null;
+        }
+        if (spool != null && metrics != null) {
+            registerSpoolMetrics(metrics);
+        }
+    }
+
+    private void registerMetrics(MetricRegistry metrics) {
+        if (executor != null) {
+            metrics.register(MetricRegistry.name(StackdriverMonitoringReporter.OWN_METRICS_PREFIX, "sender", "queue-depth"), new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return executor.getQueue().size();
+                }
+            });
+            metrics.register(MetricRegistry.name(StackdriverMonitoringReporter.OWN_METRICS_PREFIX, "sender", "dropped"), dropped);
+        }
+        metrics.register(MetricRegistry.name(StackdriverMonitoringReporter.OWN_METRICS_PREFIX, "sender", "latency"), sendLatency);
+        metrics.register(MetricRegistry.name(StackdriverMonitoringReporter.OWN_METRICS_PREFIX, "sender", "requests"), requestsPerSend);
+        metrics.register(MetricRegistry.name(StackdriverMonitoringReporter.OWN_METRICS_PREFIX, "sender", "bytes"), bytes);
+        metrics.register(MetricRegistry.name(StackdriverMonitoringReporter.OWN_METRICS_PREFIX, "sender", "failures"), failures);
+    }
+
+    private void registerSpoolMetrics(MetricRegistry metrics) {
+        metrics.register(MetricRegistry.name(StackdriverMonitoringReporter.OWN_METRICS_PREFIX, "spool", "size"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return spool.size();
+            }
+        });
+        metrics.register(MetricRegistry.name(StackdriverMonitoringReporter.OWN_METRICS_PREFIX, "spool", "bytes"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return spool.bytes();
+            }
+        });
+        metrics.register(MetricRegistry.name(StackdriverMonitoringReporter.OWN_METRICS_PREFIX, "spool", "evicted"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return spool.evicted();
+            }
+        });
+        metrics.register(MetricRegistry.name(StackdriverMonitoringReporter.OWN_METRICS_PREFIX, "spool", "replayed"), replayed);
+        metrics.register(MetricRegistry.name(StackdriverMonitoringReporter.OWN_METRICS_PREFIX, "spool", "rejected"), rejected);
+    }
+
+    /**
+     * Sets the reporting period used to adapt the number of parallel batch calls.
+     */
+    void reportingPeriod(long period, TimeUnit unit) {
+        if (batching != null) {
+            batching.reportingPeriod(period, unit);
+        }
+    }
+
+    /**
+     * Sends the given {@link TimeSeries}, splitting them into requests of at most the batch size.
+     *
+     * @param timeSeriesList the time series collected during one tick
+     */
+    void send(final List<TimeSeries> timeSeriesList) {
+        if (timeSeriesList.isEmpty()) {
+            return;
+        }
+        dispatch(timeSeriesList.size(), new Runnable() {
+            @Override
+            public void run() {
+                sendNow(timeSeriesList);
+            }
+        });
+    }
+
+    /**
+     * Sends each of the given streaming bodies as its own request. Only the {@link RestTimeSeriesTransport} has
+     * JSON request bodies to stream.
+     *
+     * @param contents the request bodies of one tick
+     */
+    void stream(final List<StreamingTimeSeriesContent> contents) {
+        if (!(transport instanceof RestTimeSeriesTransport)) {
+            throw new IllegalStateException("Streamed requests need the REST transport");
+        }
+        requestsPerSend.update(contents.size());
+        for (final StreamingTimeSeriesContent content : contents) {
+            dispatch(content.size(), new Runnable() {
+                @Override
+                public void run() {
+                    streamNow(content);
+                }
+            });
+        }
+    }
+
+    private void dispatch(int size, Runnable send) {
+        if (executor == null) {
+            send.run();
+            return;
+        }
+        try {
+            executor.execute(new Send(size, send));
+        } catch (RejectedExecutionException e) {
+            dropped.inc(size);
+            LOGGER.warn("Too many sends in flight, dropping {} time series", size);
+        }
+    }
+
+    /**
+     * Waits up to the given timeout for queued sends to complete, then releases the sender threads and the spool.
+     * When draining, spooled requests are replayed as well until the timeout; those left are kept in the spool for
+     * the next sender opening it.
+     */
+    void stop(long timeout, TimeUnit unit, boolean drain) {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(timeout, unit)) {
+                    discard(executor.shutdownNow());
+                }
+            } catch (InterruptedException e) {
+                discard(executor.shutdownNow());
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (drain && spool != null && !Thread.currentThread().isInterrupted()) {
+            drainSpool(deadline);
+        }
+        if (batchExecutor != null) {
+            batchExecutor.shutdownNow();
+        }
+        if (spool != null) {
+            try {
+                spool.close();
+            } catch (IOException e) {
+                LOGGER.warn("Unable to close the spool", e);
+            }
+        }
+    }
+
+    private void discard(List<Runnable> pending) {
+        int size = 0;
+        for (Runnable send : pending) {
+            size += ((Send) send).size;
+        }
+        dropped.inc(size);
+        LOGGER.warn("Sender did not terminate in time, {} pending sends discarded ({} time series)", pending.size(), size);
+    }
+
+    /**
+     * Replays the spooled requests one after the other, regardless of the replay backoff, until the spool is
+     * empty, a replay fails or the deadline passes.
+     */
+    private void drainSpool(long deadlineNanos) {
+        if (!replaying.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            while (spool.size() > 0 && System.nanoTime() - deadlineNanos < 0 && replay(1)) {
+                // replayed
+            }
+        } finally {
+            replaying.set(false);
+        }
+        if (spool.size() > 0) {
+            LOGGER.warn("{} spooled requests left unsent, kept in the spool", spool.size());
+        }
+    }
+
+    private void sendNow(List<TimeSeries> timeSeriesList) {
+        final int partitionSize = batching != null ? batching.partitionSize() : batchSize;
+        final List<List<TimeSeries>> partitions = Lists.partition(timeSeriesList, partitionSize);
+        requestsPerSend.update(partitions.size());
+        if (!replay()) {
+            LOGGER.debug("{} spooled requests left, spooling {} newer requests behind them", spool.size(), partitions.size());
+            for (List<TimeSeries> request : partitions) {
+                spool(request);
+            }
+            return;
+        }
+        final long start = System.nanoTime();
+        final Timer.Context context = sendLatency.time();
+        try {
+            sendBatches(partitions, new SendCallback());
+        } finally {
+            context.stop();
+            if (batching != null) {
+                batching.onReport(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Spreads the partitions over as many batch calls as the current concurrency allows, each one carrying at most
+     * {@value AdaptiveBatching#MAX_REQUESTS_PER_BATCH} requests, and sends them.
+     */
+    private void sendBatches(List<List<TimeSeries>> partitions, SendCallback callback) {
+        final int concurrency = batchExecutor == null ? 1 : batching != null ? batching.concurrency() : maxConcurrency;
+        final int batchCount = Math.max(
+                (partitions.size() + AdaptiveBatching.MAX_REQUESTS_PER_BATCH - 1) / AdaptiveBatching.MAX_REQUESTS_PER_BATCH,
+                Math.min(concurrency, partitions.size()));
+        final List<List<List<TimeSeries>>> batches = Lists.partition(partitions, (partitions.size() + batchCount - 1) / batchCount);
+        if (concurrency == 1 || batches.size() == 1) {
+            for (List<List<TimeSeries>> batch : batches) {
+                sendBatch(batch, callback);
+            }
+            return;
+        }
+
+        for (List<List<List<TimeSeries>>> wave : Lists.partition(batches, concurrency)) {
+            final List<Future<?>> futures = new ArrayList<>(wave.size());
+            for (final List<List<TimeSeries>> batch : wave) {
+                futures.add(batchExecutor.submit(() -> sendBatch(batch, callback)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    LOGGER.warn("Unable to report to Stackdriver", e.getCause());
+                }
+            }
+        }
+    }
+
+    private void sendBatch(List<List<TimeSeries>> requests, SendCallback callback) {
+        try {
+            bytes.inc(transport.create(requests, callback));
+        } catch (IOException e) {
+            LOGGER.warn("Unable to report to Stackdriver", e);
+            failures.inc(requests.size());
+            onResponse(0, e.getMessage());
+            for (List<TimeSeries> request : requests) {
+                spool(request);
+            }
+        }
+    }
+
+    private void streamNow(StreamingTimeSeriesContent content) {
+        final Timer.Context context = sendLatency.time();
+        try {
+            bytes.inc(((RestTimeSeriesTransport) transport).stream(content));
+        } catch (IOException e) {
+            LOGGER.warn("Unable to report to Stackdriver", e);
+            failures.inc();
+        } finally {
+            context.stop();
+        }
+    }
+
+    private void onResponse(int statusCode, String message) {
+        if (batching != null) {
+            batching.onResponse(statusCode, message);
+        }
+    }
+
+    private void spool(List<TimeSeries> request) {
+        if (spool == null) {
+            return;
+        }
+        try {
+            if (!spool.append(transport.encode(request))) {
+                LOGGER.warn("Batch (size={}) does not fit in the spool, dropping it", request.size());
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to spool batch (size={})", request.size(), e);
+        }
+    }
+
+    /**
+     * Replays up to {@value #MAX_REPLAYS_PER_SEND} spooled requests. After a failed replay, the next attempt is
+     * delayed with an exponential backoff.
+     *
+     * @return whether the spool is empty, so that newer requests can be sent
+     */
+    private boolean replay() {
+        if (spool == null) {
+            return true;
+        }
+        if (spool.size() > 0 && System.nanoTime() - nextReplayNanos >= 0 && replaying.compareAndSet(false, true)) {
+            try {
+                replay(MAX_REPLAYS_PER_SEND);
+            } finally {
+                replaying.set(false);
+            }
+        }
+        return spool.size() == 0;
+    }
+
+    /**
+     * Replays up to {@code max} spooled requests.
+     *
+     * @return {@code false} if a replay failed and should be retried later
+     */
+    private boolean replay(int max) {
+        for (int i = 0; i < max; i++) {
+            final byte[] record = spool.peek();
+            if (record == null) {
+                return true;
+            }
+            int statusCode;
+            try {
+                statusCode = transport.createEncoded(record);
+                bytes.inc(record.length);
+            } catch (IOException e) {
+                LOGGER.debug("Unable to replay spooled batch", e);
+                statusCode = 0;
+            }
+            if (statusCode >= 200 && statusCode < 300) {
+                replayed.mark();
+                replayBackoffNanos = MIN_REPLAY_BACKOFF_NANOS;
+            } else if (statusCode == 0 || retryable(statusCode)) {
+                LOGGER.debug("Unable to replay spooled batch (status={}), retrying in {}ms", statusCode, TimeUnit.NANOSECONDS.toMillis(replayBackoffNanos));
+                nextReplayNanos = System.nanoTime() + replayBackoffNanos;
+                replayBackoffNanos = Math.min(replayBackoffNanos * 2, MAX_REPLAY_BACKOFF_NANOS);
+                return false;
+            } else {
+                LOGGER.warn("Spooled batch rejected by Stackdriver (status={}), dropping it", statusCode);
+                rejected.inc();
+            }
+            spool.remove();
+        }
+        return true;
+    }
+
+    private static boolean retryable(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * A queued send, remembering its number of time series in case it is discarded.
+     */
+    private static final class Send implements Runnable {
+
+        private final int size;
+        private final Runnable send;
+
+        private Send(int size, Runnable send) {
+            this.size = size;
+            this.send = send;
+        }
+
+        @Override
+        public void run() {
+            send.run();
+        }
+    }
+
+    /**
+     * Logs failed requests of one send, spools the retryable ones and feeds the {@link AdaptiveBatching}.
+     */
+    private class SendCallback implements TimeSeriesTransport.Callback {
+
+        @Override
+        public void onSuccess(List<TimeSeries> batchItems) {
+            onResponse(200, null);
+            LOGGER.debug("Batch (size={}) sent to Stackdriver", batchItems.size());
+        }
+
+        @Override
+        public void onFailure(List<TimeSeries> batchItems, int statusCode, String message) {
+            failures.inc();
+            onResponse(statusCode, message);
+            LOGGER.warn("Error sending batch (size={}) to Stackdriver: {} {}", batchItems.size(), statusCode, message);
+            if (statusCode == 0 || retryable(statusCode)) {
+                spool(batchItems);
+            }
+            final Matcher matcher = TIME_SERIES_INDEX.matcher(String.valueOf(message));
+            if (matcher.find(1)) {
+                try {
+                    int index = Integer.parseInt(matcher.group(1));
+
+                    if (index > 0) {
+                        final TimeSeries timeSeriesBefore = batchItems.get(index-1);
+                        LOGGER.debug("TimeSeries on index {}: {}", index-1, timeSeriesBefore.toPrettyString());
+                    }
+
+                    final TimeSeries timeSeries = batchItems.get(index);
+                    LOGGER.debug("TimeSeries on index {}: {}", index, timeSeries.toPrettyString());
+
+                    if (index < batchItems.size()) {
+                        final TimeSeries timeSeriesAfter = batchItems.get(index+1);
+                        LOGGER.debug("TimeSeries on index {}: {}", index+1, timeSeriesAfter.toPrettyString());
+                    }
+
+                } catch(Throwable t) {
+                    LOGGER.debug("Could not find problematic TimeSeries");
+                }
+            } else {
+                LOGGER.debug("Could not find problematic TimeSeries");
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package io.github.fabito.dropwizard.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A bounded, persistent FIFO of request bodies that could not be sent, backed by a memory-mapped segment file.
+ * <p/>
+ * Records are stored as {@code [length][bytes]} in a ring laid over the data area of the file. When a new record
+ * does not fit, the oldest records are evicted. The ring positions are kept in a small header, so spooled records
+ * survive a restart of the application. The header also keeps the {@link TimeSeriesTransport.Encoding} of the
+ * records: a segment written with another encoding, or whose header is corrupt, is discarded when opened.
+ */
+class TimeSeriesSpool implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimeSeriesSpool.class);
+    private static final int MAGIC = 0x53445350;
+    private static final int HEADER_SIZE = 20;
+    private static final int LENGTH_SIZE = 4;
+    private static final int WRAP = -1;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final TimeSeriesTransport.Encoding encoding;
+    private int head;
+    private int tail;
+    private int count;
+    private long evicted;
+
+    /**
+     * Opens, or creates, the spool segment at the given location.
+     *
+     * @param location the segment file
+     * @param maxBytes the size of the segment file
+     * @param encoding the encoding of the records
+     */
+    TimeSeriesSpool(File location, int maxBytes, TimeSeriesTransport.Encoding encoding) throws IOException {
+        if (maxBytes <= HEADER_SIZE + LENGTH_SIZE) {
+            throw new IllegalArgumentException("maxBytes is too small");
+        }
+        this.file = new RandomAccessFile(location, "rw");
+        this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, maxBytes);
+        this.capacity = maxBytes;
+        this.encoding = encoding;
+        if (buffer.getInt(0) != MAGIC) {
+            reset();
+        } else if (buffer.getInt(16) != encoding.ordinal()) {
+            LOGGER.warn("Discarding the requests spooled in {} by another transport", location);
+            reset();
+        } else {
+            this.head = buffer.getInt(4);
+            this.tail = buffer.getInt(8);
+            this.count = buffer.getInt(12);
+            if (!isValid()) {
+                LOGGER.warn("Discarding the requests spooled in {}, its header is corrupt", location);
+                reset();
+            }
+        }
+    }
+
+    /**
+     * Appends a record, evicting the oldest ones until it fits.
+     *
+     * @return {@code false} if the record is larger than the whole spool
+     */
+    synchronized boolean append(byte[] record) {
+        final int needed = LENGTH_SIZE + record.length;
+        if (needed > capacity - HEADER_SIZE) {
+            return false;
+        }
+        while (true) {
+            if (count == 0) {
+                reset();
+            }
+            if (count == 0 || tail > head) {
+                if (needed <= capacity - tail) {
+                    break;
+                }
+                if (needed <= head - HEADER_SIZE) {
+                    if (capacity - tail >= LENGTH_SIZE) {
+                        buffer.putInt(tail, WRAP);
+                    }
+                    tail = HEADER_SIZE;
+                    break;
+                }
+            } else if (needed <= head - tail) {
+                break;
+            }
+            removeOldest();
+            evicted++;
+        }
+        buffer.putInt(tail, record.length);
+        at(tail + LENGTH_SIZE).put(record);
+        tail += needed;
+        count++;
+        writeHeader();
+        return true;
+    }
+
+    /**
+     * @return the oldest record, or {@code null} if the spool is empty
+     */
+    synchronized byte[] peek() {
+        if (count == 0) {
+            return null;
+        }
+        skipWrap();
+        final byte[] record = new byte[buffer.getInt(head)];
+        at(head + LENGTH_SIZE).get(record);
+        return record;
+    }
+
+    /**
+     * Removes the oldest record.
+     */
+    synchronized void remove() {
+        if (count > 0) {
+            removeOldest();
+            writeHeader();
+        }
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return the number of bytes used by spooled records
+     */
+    synchronized long bytes() {
+        if (count == 0) {
+            return 0;
+        }
+        return tail > head ? tail - head : capacity - head + tail - HEADER_SIZE;
+    }
+
+    /**
+     * @return the number of records evicted to make room for newer ones
+     */
+    synchronized long evicted() {
+        return evicted;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        file.close();
+    }
+
+    private void removeOldest() {
+        skipWrap();
+        head += LENGTH_SIZE + buffer.getInt(head);
+        count--;
+        if (count == 0) {
+            reset();
+        }
+    }
+
+    private void skipWrap() {
+        if (capacity - head < LENGTH_SIZE || buffer.getInt(head) == WRAP) {
+            head = HEADER_SIZE;
+        }
+    }
+
+    /**
+     * A view of the segment from the given position, so bulk reads and writes leave the shared buffer untouched.
+     */
+    private ByteBuffer at(int position) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        return view;
+    }
+
+    /**
+     * Checks the ring positions read from the header, and the length of the oldest record.
+     */
+    private boolean isValid() {
+        if (head < HEADER_SIZE || head > capacity || tail < HEADER_SIZE || tail > capacity || count < 0) {
+            return false;
+        }
+        if (count == 0) {
+            return true;
+        }
+        skipWrap();
+        final int length = buffer.getInt(head);
+        final int end = tail > head ? tail : capacity;
+        return length >= 0 && length <= end - head - LENGTH_SIZE;
+    }
+
+    private void reset() {
+        head = HEADER_SIZE;
+        tail = HEADER_SIZE;
+        count = 0;
+        writeHeader();
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, head);
+        buffer.putInt(8, tail);
+        buffer.putInt(12, count);
+        buffer.putInt(16, encoding.ordinal());
+    }
+}
@@ -0,0 +1,67 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.google.api.services.monitoring.v3.model.TimeSeries;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The protocol used by a {@link TimeSeriesSender} to create time series.
+ * <p/>
+ * Outcomes are reported as HTTP status codes, whatever the protocol, so that throttling and retry decisions
+ * stay in one place.
+ *
+ * @see RestTimeSeriesTransport
+ * @see GrpcTimeSeriesTransport
+ */
+interface TimeSeriesTransport {
+
+    /**
+     * Sends the given requests, each one of at most {@value TimeSeriesSender#MAX_TIME_SERIES_PER_REQUEST} time
+     * series, in as few calls as the protocol allows. The outcome of each request is given to the callback.
+     *
+     * @return the size of the request bodies sent, in bytes
+     * @throws IOException if none of the requests could be sent
+     */
+    long create(List<List<TimeSeries>> requests, Callback callback) throws IOException;
+
+    /**
+     * Encodes a request so it can be spooled and sent later with {@link #createEncoded(byte[])}.
+     */
+    byte[] encode(List<TimeSeries> request) throws IOException;
+
+    /**
+     * @return the encoding of the requests returned by {@link #encode(List)}
+     */
+    Encoding encoding();
+
+    /**
+     * Sends a request encoded by {@link #encode(List)}.
+     *
+     * @return the status code of the response
+     * @throws IOException if the request could not be sent
+     */
+    int createEncoded(byte[] request) throws IOException;
+
+    /**
+     * Receives the outcome of each request sent by {@link #create(List, Callback)}.
+     */
+    interface Callback {
+
+        void onSuccess(List<TimeSeries> request);
+
+        /**
+         * @param statusCode the status code of the response, or {@code 0} if the call was abandoned before it
+         */
+        void onFailure(List<TimeSeries> request, int statusCode, String message);
+    }
+
+    /**
+     * The encodings of spooled requests. A spool keeps the encoding of its requests, so that those spooled by
+     * another transport are discarded rather than replayed. Stored by ordinal, new encodings go last.
+     */
+    enum Encoding {
+        JSON,
+        PROTOBUF
+    }
+}
@@ -0,0 +1,43 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.google.api.services.monitoring.v3.model.Metric;
+import com.google.api.services.monitoring.v3.model.MonitoredResource;
+import com.google.api.services.monitoring.v3.model.Point;
+import com.google.api.services.monitoring.v3.model.TimeInterval;
+import com.google.api.services.monitoring.v3.model.TimeSeries;
+import com.google.api.services.monitoring.v3.model.TypedValue;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Receives the single point time series built by a {@link StackdriverMonitoringReporter}.
+ */
+interface TimeSeriesWriter {
+
+    /**
+     * Writes a time series holding a single point.
+     *
+     * @param metric     the metric, shared and not to be modified
+     * @param resource   the monitored resource, shared and not to be modified, or {@code null} for the default
+     * @param metricKind the metric kind
+     * @param valueType  the value type, or {@code null} to let Stackdriver infer it
+     * @param interval   the point interval, shared and not to be modified
+     * @param value      the point value
+     */
+    void write(Metric metric, MonitoredResource resource, String metricKind, String valueType, TimeInterval interval, TypedValue value);
+
+    /**
+     * Returns a {@link TimeSeriesWriter} adding {@link TimeSeries} model objects to the given list.
+     */
+    static TimeSeriesWriter into(final List<TimeSeries> timeSeriesList) {
+        return (metric, resource, metricKind, valueType, interval, value) -> timeSeriesList.add(new TimeSeries()
+                .setMetricKind(metricKind)
+                .setValueType(valueType)
+                .setMetric(metric)
+                .setResource(resource)
+                .setPoints(Collections.singletonList(new Point()
+                        .setInterval(interval)
+                        .setValue(value))));
+    }
+}
@@ -0,0 +1,68 @@
+package io.github.fabito.dropwizard.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class AdaptiveBatchingTest {
+
+    private final AdaptiveBatching batching = new AdaptiveBatching(4, 200);
+
+    @Test
+    public void addsParallelCallsWhileReportsTakeMoreThanHalfThePeriod() throws Exception {
+        batching.reportingPeriod(10, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 5; i++) {
+            batching.onReport(TimeUnit.SECONDS.toNanos(6));
+        }
+        assertThat(batching.concurrency(), is(4));
+
+        batching.onReport(TimeUnit.SECONDS.toNanos(3));
+        assertThat(batching.concurrency(), is(4));
+        batching.onReport(TimeUnit.SECONDS.toNanos(1));
+        assertThat(batching.concurrency(), is(3));
+    }
+
+    @Test
+    public void onlyRemovesParallelCallsUntilThePeriodIsSet() throws Exception {
+        batching.onReport(TimeUnit.SECONDS.toNanos(60));
+
+        assertThat(batching.concurrency(), is(1));
+    }
+
+    @Test
+    public void halvesParallelCallsWhenThrottled() throws Exception {
+        batching.reportingPeriod(10, TimeUnit.SECONDS);
+        for (int i = 0; i < 4; i++) {
+            batching.onReport(TimeUnit.SECONDS.toNanos(6));
+        }
+
+        batching.onResponse(200, null);
+        batching.onResponse(429, "Rate exceeded");
+        batching.onReport(TimeUnit.SECONDS.toNanos(6));
+        assertThat(batching.concurrency(), is(2));
+
+        batching.onResponse(0, null);
+        batching.onReport(TimeUnit.SECONDS.toNanos(6));
+        assertThat(batching.concurrency(), is(1));
+    }
+
+    @Test
+    public void halvesRequestsWhenTheirPayloadIsTooLargeThenGrowsThemBack() throws Exception {
+        batching.reportingPeriod(10, TimeUnit.SECONDS);
+        batching.onReport(TimeUnit.SECONDS.toNanos(6));
+        assertThat(batching.concurrency(), is(2));
+
+        batching.onResponse(400, "Request payload size exceeds the limit: 1048576 bytes.");
+        batching.onReport(TimeUnit.SECONDS.toNanos(1));
+        assertThat(batching.partitionSize(), is(100));
+        assertThat(batching.concurrency(), is(2));
+
+        batching.onReport(TimeUnit.SECONDS.toNanos(1));
+        assertThat(batching.partitionSize(), is(110));
+        assertThat(batching.concurrency(), is(1));
+    }
+}
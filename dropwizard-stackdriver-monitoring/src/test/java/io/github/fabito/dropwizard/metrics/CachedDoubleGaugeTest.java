@@ -0,0 +1,58 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Clock;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CachedDoubleGaugeTest {
+
+    private final Clock ticks = mock(Clock.class);
+    private final AtomicLong loads = new AtomicLong();
+
+    @Test
+    public void reloadsValuesAfterAFailedLoad() throws Exception {
+        final DoubleGauge gauge = new CachedDoubleGauge(() -> {
+            if (loads.incrementAndGet() == 2) {
+                throw new IllegalStateException("unavailable");
+            }
+            return loads.get() * 1.5;
+        }, 10, TimeUnit.SECONDS, ticks);
+        assertThat(loads.get(), is(1L));
+
+        when(ticks.getTick()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        try {
+            gauge.getDoubleValue();
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(gauge.getDoubleValue(), is(4.5));
+        }
+        when(ticks.getTick()).thenReturn(TimeUnit.SECONDS.toNanos(19));
+        assertThat(gauge.getDoubleValue(), is(4.5));
+        assertThat(loads.get(), is(3L));
+    }
+
+    @Test
+    public void servesThePreviousValueWhileAnotherCallerReloads() throws Exception {
+        final DoubleGauge[] gauge = new DoubleGauge[1];
+        final double[] readWhileLoading = new double[1];
+        gauge[0] = new CachedDoubleGauge(() -> {
+            if (loads.incrementAndGet() == 2) {
+                readWhileLoading[0] = gauge[0].getDoubleValue();
+            }
+            return loads.get() * 1.5;
+        }, 10, TimeUnit.SECONDS, ticks);
+
+        when(ticks.getTick()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        assertThat(gauge[0].getDoubleValue(), is(3.0));
+        assertThat(readWhileLoading[0], is(1.5));
+        assertThat(loads.get(), is(2L));
+    }
+}
@@ -0,0 +1,51 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Clock;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CachedLongGaugeTest {
+
+    private final Clock ticks = mock(Clock.class);
+    private final AtomicLong loads = new AtomicLong();
+
+    @Test
+    public void cachesValuesForTheirTimeToLive() throws Exception {
+        final LongGauge gauge = new CachedLongGauge(loads::incrementAndGet, 10, TimeUnit.SECONDS, ticks);
+
+        assertThat(gauge.getLongValue(), is(1L));
+        when(ticks.getTick()).thenReturn(TimeUnit.SECONDS.toNanos(9));
+        assertThat(gauge.getLongValue(), is(1L));
+        when(ticks.getTick()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        assertThat(gauge.getLongValue(), is(2L));
+        assertThat(gauge.getValue(), is(2L));
+    }
+
+    @Test
+    public void startsTheTimeToLiveWhenTheValueIsLoaded() throws Exception {
+        final AtomicLong now = new AtomicLong();
+        final Clock slowLoads = new Clock() {
+            @Override
+            public long getTick() {
+                return now.get();
+            }
+        };
+        final LongGauge gauge = new CachedLongGauge(() -> {
+            // loading takes 3 seconds
+            now.addAndGet(TimeUnit.SECONDS.toNanos(3));
+            return loads.incrementAndGet();
+        }, 10, TimeUnit.SECONDS, slowLoads);
+
+        now.set(TimeUnit.SECONDS.toNanos(12));
+        assertThat(gauge.getLongValue(), is(1L));
+        now.set(TimeUnit.SECONDS.toNanos(13));
+        assertThat(gauge.getLongValue(), is(2L));
+    }
+}
@@ -0,0 +1,55 @@
+package io.github.fabito.dropwizard.metrics;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ChangedValueFilterTest {
+
+    private final ChangedValueFilter filter = new ChangedValueFilter(3);
+
+    @Test
+    public void skipsValuesUnchangedSinceThePreviousTick() throws Exception {
+        filter.tick();
+        assertThat(filter.changed(42L, 1L), is(true));
+        assertThat(filter.changed(0L, 1L), is(true));
+
+        filter.tick();
+        assertThat(filter.changed(42L, 1L), is(false));
+        assertThat(filter.changed(0L, 1L), is(false));
+        assertThat(filter.changed(42L, 2L), is(true));
+        assertThat(filter.size(), is(2));
+    }
+
+    @Test
+    public void reportsEveryValueAgainEveryRefresh() throws Exception {
+        for (int tick = 0; tick < 3; tick++) {
+            filter.tick();
+            assertThat(filter.changed(42L, 1L), is(tick == 0));
+        }
+
+        filter.tick();
+        assertThat(filter.size(), is(0));
+        assertThat(filter.changed(42L, 1L), is(true));
+    }
+
+    @Test
+    public void keepsValuesWhenGrowing() throws Exception {
+        filter.tick();
+        for (long hash = 1; hash <= 5000; hash++) {
+            assertThat(filter.changed(hash << 32, hash), is(true));
+        }
+
+        filter.tick();
+        for (long hash = 1; hash <= 5000; hash++) {
+            assertThat(filter.changed(hash << 32, hash), is(false));
+        }
+        assertThat(filter.size(), is(5000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveRefreshTicks() throws Exception {
+        new ChangedValueFilter(0);
+    }
+}
@@ -0,0 +1,127 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.google.api.services.monitoring.v3.model.Metric;
+import com.google.api.services.monitoring.v3.model.Point;
+import com.google.api.services.monitoring.v3.model.TimeInterval;
+import com.google.api.services.monitoring.v3.model.TimeSeries;
+import com.google.api.services.monitoring.v3.model.TypedValue;
+import com.google.monitoring.v3.CreateTimeSeriesRequest;
+import com.google.monitoring.v3.MetricServiceGrpc;
+import com.google.protobuf.Empty;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class GrpcTimeSeriesTransportTest {
+
+    private final List<String> outcomes = new CopyOnWriteArrayList<>();
+    private final TimeSeriesTransport.Callback callback = new TimeSeriesTransport.Callback() {
+        @Override
+        public void onSuccess(List<TimeSeries> request) {
+            outcomes.add(type(request) + " 200");
+        }
+
+        @Override
+        public void onFailure(List<TimeSeries> request, int statusCode, String message) {
+            outcomes.add(type(request) + " " + statusCode);
+        }
+    };
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private Server server;
+    private ManagedChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        // answers the requests of the "fast" metric only
+        server = InProcessServerBuilder.forName("grpc-transport")
+                .addService(new MetricServiceGrpc.MetricServiceImplBase() {
+                    @Override
+                    public void createTimeSeries(CreateTimeSeriesRequest request, StreamObserver<Empty> responseObserver) {
+                        final String type = request.getTimeSeries(0).getMetric().getType();
+                        received.add(type);
+                        if (type.equals("fast")) {
+                            responseObserver.onNext(Empty.getDefaultInstance());
+                            responseObserver.onCompleted();
+                        }
+                    }
+                })
+                .directExecutor()
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName("grpc-transport").directExecutor().build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void failsCallsAfterTheDeadline() throws Exception {
+        final GrpcTimeSeriesTransport transport = new GrpcTimeSeriesTransport(channel, "projects/my-gcp-project-id", 50, TimeUnit.MILLISECONDS);
+
+        final long start = System.nanoTime();
+        transport.create(Collections.singletonList(request("slow")), callback);
+
+        assertThat(outcomes, contains("slow 504"));
+        assertThat(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10), is(true));
+    }
+
+    @Test
+    public void reportsOnlyTheUnfinishedRequestsAsFailedWhenInterrupted() throws Exception {
+        final GrpcTimeSeriesTransport transport = new GrpcTimeSeriesTransport(channel, "projects/my-gcp-project-id", 1, TimeUnit.MINUTES);
+        final List<List<TimeSeries>> requests = new ArrayList<>();
+        requests.add(request("fast"));
+        requests.add(request("slow"));
+        final AtomicBoolean interrupted = new AtomicBoolean();
+
+        final Thread sender = new Thread(() -> {
+            try {
+                transport.create(requests, callback);
+            } catch (Exception e) {
+                outcomes.add(e.toString());
+            }
+            interrupted.set(Thread.currentThread().isInterrupted());
+        });
+        sender.start();
+        // the first request completed, the sender waits for the second one
+        while (outcomes.isEmpty() || received.size() < 2) {
+            Thread.sleep(1);
+        }
+        sender.interrupt();
+        sender.join(10000);
+
+        assertThat(outcomes, contains("fast 200", "slow 0"));
+        assertThat(interrupted.get(), is(true));
+    }
+
+    private static List<TimeSeries> request(String type) {
+        return Collections.singletonList(new TimeSeries()
+                .setMetric(new Metric().setType(type))
+                .setMetricKind("GAUGE")
+                .setPoints(Collections.singletonList(new Point()
+                        .setInterval(new TimeInterval().setEndTime("1970-01-01T00:00:00.000Z"))
+                        .setValue(new TypedValue().setInt64Value(1L)))));
+    }
+
+    private static String type(List<TimeSeries> request) {
+        return request.get(0).getMetric().getType();
+    }
+}
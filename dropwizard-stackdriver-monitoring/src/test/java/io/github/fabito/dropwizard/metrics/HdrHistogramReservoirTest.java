@@ -0,0 +1,51 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Snapshot;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class HdrHistogramReservoirTest {
+
+    private final Clock ticks = mock(Clock.class);
+    private final HdrHistogramReservoir reservoir = new HdrHistogramReservoir(2, 1, TimeUnit.MINUTES, ticks);
+
+    @Test
+    public void sharesSnapshotsBetweenReaders() throws Exception {
+        reservoir.update(1);
+        reservoir.update(2);
+        assertThat(reservoir.getSnapshot().size(), is(0));
+
+        when(ticks.getTick()).thenReturn(TimeUnit.SECONDS.toNanos(61));
+        final Snapshot reporterSnapshot = reservoir.getSnapshot();
+        reservoir.update(3);
+        final Snapshot servletSnapshot = reservoir.getSnapshot();
+        assertSame(reporterSnapshot, servletSnapshot);
+        assertThat(reporterSnapshot.getValues(), is(new long[]{1, 2}));
+
+        when(ticks.getTick()).thenReturn(TimeUnit.SECONDS.toNanos(121));
+        assertThat(reservoir.getSnapshot().getValues(), is(new long[]{3}));
+        assertThat(reporterSnapshot.getValues(), is(new long[]{1, 2}));
+        assertThat(reservoir.getSnapshot().getValues(), is(new long[]{3}));
+    }
+
+    @Test
+    public void alignsRolloversToTheFirstInterval() throws Exception {
+        reservoir.update(-5);
+        when(ticks.getTick()).thenReturn(TimeUnit.SECONDS.toNanos(150));
+        assertThat(reservoir.getSnapshot().getValues(), is(new long[]{0}));
+
+        reservoir.update(7);
+        when(ticks.getTick()).thenReturn(TimeUnit.SECONDS.toNanos(179));
+        assertThat(reservoir.getSnapshot().getValues(), is(new long[]{0}));
+        when(ticks.getTick()).thenReturn(TimeUnit.SECONDS.toNanos(180));
+        assertThat(reservoir.getSnapshot().getValues(), is(new long[]{7}));
+    }
+}
@@ -0,0 +1,40 @@
+package io.github.fabito.dropwizard.metrics;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MemoizingAbbreviatorTest {
+
+    private final MemoizingAbbreviator abbreviator = new MemoizingAbbreviator(new TargetLengthBasedClassNameAbbreviator(12));
+
+    @Test
+    public void leavesNamesCollidingWithAClaimedAbbreviationUnabbreviated() throws Exception {
+        assertThat(abbreviator.claim("io.github.fabito.Foo.x"), is("i.g.f.Foo.x"));
+        assertThat(abbreviator.claim("io.google.fast.Foo.x"), is("io.google.fast.Foo.x"));
+        assertThat(abbreviator.claim("io.github.fabito.Foo.x"), is("i.g.f.Foo.x"));
+    }
+
+    @Test
+    public void suffixesNamesThatAreTheAbbreviationOfAnotherName() throws Exception {
+        abbreviator.claim("io.github.fabito.Foo.x");
+
+        final String suffixed = "i.g.f.Foo.x_" + Integer.toHexString("i.g.f.Foo.x".hashCode());
+        assertThat(abbreviator.claim("i.g.f.Foo.x"), is(suffixed));
+        assertThat(abbreviator.claim("i.g.f.Foo.x"), is(suffixed));
+    }
+
+    @Test
+    public void keepsAnAbbreviationUntilItsLastClaimIsReleased() throws Exception {
+        abbreviator.claim("io.github.fabito.Foo.x");
+        abbreviator.claim("io.github.fabito.Foo.x");
+
+        abbreviator.release("io.github.fabito.Foo.x");
+        assertThat(abbreviator.claim("io.google.fast.Foo.x"), is("io.google.fast.Foo.x"));
+        abbreviator.release("io.google.fast.Foo.x");
+
+        abbreviator.release("io.github.fabito.Foo.x");
+        assertThat(abbreviator.claim("io.google.fast.Foo.x"), is("i.g.f.Foo.x"));
+    }
+}
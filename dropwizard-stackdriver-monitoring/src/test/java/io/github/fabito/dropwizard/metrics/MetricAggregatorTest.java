@@ -0,0 +1,74 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.SortedMap;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class MetricAggregatorTest {
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final MetricNameParser parser = new MetricNameParser(Collections.emptyList());
+
+    @Test
+    public void renamesRollUpsNamedLikeMetricsAndEvictsThemWithTheirGroup() throws Exception {
+        final MetricDescriptorCache descriptors = new MetricDescriptorCache("custom.googleapis.com/dw", parser, null);
+        final MetricAggregator aggregator = aggregator(10);
+        aggregator.addListener(descriptors);
+        metrics.addListener(descriptors);
+        metrics.counter("requests{route=/ping,tenant=a}").inc(1);
+        metrics.counter("requests{route=/ping,tenant=b}").inc(2);
+        metrics.counter("requests{route=/ping}").inc(4);
+
+        final SortedMap<String, Counter> counters = aggregator.counters(metrics.getCounters());
+
+        assertThat(counters.keySet(), contains("requests.rollup{route=/ping}", "requests{route=/ping}"));
+        assertThat(counters.get("requests.rollup{route=/ping}").getCount(), is(3L));
+        assertThat(counters.get("requests{route=/ping}").getCount(), is(4L));
+
+        descriptors.descriptor("requests.rollup{route=/ping}", "count");
+        assertThat(descriptors.size(), is(1));
+        metrics.remove("requests{route=/ping,tenant=a}");
+        assertThat(descriptors.size(), is(1));
+        metrics.remove("requests{route=/ping,tenant=b}");
+        assertThat(descriptors.size(), is(0));
+    }
+
+    @Test
+    public void rollsUpMetricsBeyondTheMaximumNumberOfGroupsWithoutLabels() throws Exception {
+        final MetricAggregator aggregator = aggregator(1);
+        metrics.counter("requests{route=/ping,tenant=a}").inc(1);
+        metrics.counter("requests{route=/pong,tenant=a}").inc(2);
+        metrics.counter("requests{route=/pong,tenant=b}").inc(4);
+
+        final SortedMap<String, Counter> counters = aggregator.counters(metrics.getCounters());
+
+        assertThat(counters.keySet(), contains("requests", "requests{route=/ping}"));
+        assertThat(counters.get("requests").getCount(), is(6L));
+        assertThat(counters.get("requests{route=/ping}").getCount(), is(1L));
+    }
+
+    @Test
+    public void reportsMetricsWithoutDroppedLabelsAsIs() throws Exception {
+        final MetricAggregator aggregator = aggregator(10);
+        final Counter counter = metrics.counter("requests{route=/ping}");
+
+        final SortedMap<String, Counter> counters = aggregator.counters(metrics.getCounters());
+
+        assertThat(counters.keySet(), contains("requests{route=/ping}"));
+        assertThat(counters.get("requests{route=/ping}"), is(sameInstance(counter)));
+    }
+
+    private MetricAggregator aggregator(int maxGroups) {
+        final MetricAggregator aggregator = new MetricAggregator(parser, Collections.singleton("tenant"), maxGroups);
+        metrics.addListener(aggregator);
+        return aggregator;
+    }
+}
@@ -0,0 +1,71 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class MetricAttributeSelectionTest {
+
+    private final MetricAttributeSelection selection = new MetricAttributeSelection(
+            ImmutableMap.<Class<? extends Metric>, Set<MetricAttribute>>of(
+                    Histogram.class, EnumSet.of(MetricAttribute.COUNT, MetricAttribute.P99, MetricAttribute.M1_RATE),
+                    Timer.class, EnumSet.of(MetricAttribute.COUNT, MetricAttribute.M1_RATE)),
+            ImmutableMap.of(
+                    "jetty\\..*", EnumSet.of(MetricAttribute.P50, MetricAttribute.P99),
+                    "jvm\\..*", EnumSet.of(MetricAttribute.MAX)),
+            EnumSet.of(MetricAttribute.P99));
+
+    @Test
+    public void selectsTheSupportedAttributesOfEachTypeMinusTheDisabledOnes() throws Exception {
+        final MetricAttributeSelection.Selection histogram = selection.histogram("requests");
+        assertThat(histogram.contains(MetricAttribute.COUNT), is(true));
+        assertThat(histogram.contains(MetricAttribute.P99), is(false));
+        assertThat(histogram.contains(MetricAttribute.M1_RATE), is(false));
+        assertThat(histogram.snapshot(), is(false));
+
+        assertThat(selection.meter("logins").size(), is(MetricAttributeSelection.METERED.size()));
+        assertThat(selection.timer("queries").size(), is(2));
+    }
+
+    @Test
+    public void selectsTheAttributesOfTheFirstMatchingName() throws Exception {
+        final MetricAttributeSelection.Selection jetty = selection.timer("jetty.requests");
+        assertThat(jetty.size(), is(1));
+        assertThat(jetty.contains(MetricAttribute.P50), is(true));
+        assertThat(jetty.snapshot(), is(true));
+        assertThat(selection.meter("jvm.gc").size(), is(0));
+
+        assertThat(selection.maxSize(MetricAttributeSelection.TIMER), is(2));
+        assertThat(selection.maxSize(MetricAttributeSelection.HISTOGRAM), is(1));
+    }
+
+    @Test
+    public void forgetsTheSelectionOfRemovedMetrics() throws Exception {
+        final MetricAttributeSelection.Selection jetty = selection.timer("jetty.requests");
+        assertThat(selection.timer("jetty.requests"), is(sameInstance(jetty)));
+
+        selection.onTimerRemoved("jetty.requests");
+
+        assertThat(selection.timer("jetty.requests"), is(not(sameInstance(jetty))));
+    }
+
+    @Test
+    public void selectsEveryAttributeByDefault() throws Exception {
+        final MetricAttributeSelection all = MetricAttributeSelection.all();
+
+        assertThat(all.timer("queries").size(), is(MetricAttribute.values().length));
+        assertThat(all.histogram("requests").size(), is(MetricAttributeSelection.HISTOGRAM.size()));
+        assertThat(all.maxSize(MetricAttributeSelection.METERED), is(5));
+    }
+}
@@ -0,0 +1,70 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+public class MetricDescriptorCacheTest {
+
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    @Test
+    public void cachesDescriptorsUntilTheirMetricIsRemoved() throws Exception {
+        final MetricDescriptorCache descriptors = new MetricDescriptorCache("custom.googleapis.com/dw",
+                new MetricNameParser(Collections.emptyList()), null);
+        metrics.addListener(descriptors);
+        metrics.counter("requests{status=200}");
+
+        final MetricDescriptorCache.Descriptor count = descriptors.descriptor("requests{status=200}", "count");
+        assertThat(count.metric().getType(), is("custom.googleapis.com/dw/requests/count"));
+        assertThat(count.metric().getLabels(), is(ImmutableMap.of("status", "200")));
+        assertSame(count, descriptors.descriptor("requests{status=200}", "count"));
+        assertThat(descriptors.size(), is(1));
+
+        metrics.remove("requests{status=200}");
+        assertThat(descriptors.size(), is(0));
+
+        metrics.register("requests{status=200}", (Gauge<Long>) () -> 1L);
+        final MetricDescriptorCache.Descriptor gauge = descriptors.descriptor("requests{status=200}", "");
+        assertThat(gauge.metric().getType(), is("custom.googleapis.com/dw/requests"));
+        assertThat(gauge.hash(), is(not(count.hash())));
+        assertThat(descriptors.size(), is(1));
+
+        metrics.remove("requests{status=200}");
+        assertThat(descriptors.size(), is(0));
+    }
+
+    @Test
+    public void keepsAbbreviationsClaimedWhileTheirMetricIsRegistered() throws Exception {
+        final MetricDescriptorCache descriptors = new MetricDescriptorCache("custom.googleapis.com/dw",
+                new MetricNameParser(Collections.emptyList()), new MemoizingAbbreviator(new TargetLengthBasedClassNameAbbreviator(12)));
+        metrics.addListener(descriptors);
+        metrics.counter("io.github.fabito.Foo.x");
+        assertThat(type(descriptors, "io.github.fabito.Foo.x"), is("custom.googleapis.com/dw/i.g.f.Foo.x/count"));
+        // many more names than any cache of abbreviations would hold
+        for (int i = 0; i < 20000; i++) {
+            metrics.counter("name" + i);
+            descriptors.descriptor("name" + i, "count");
+        }
+
+        metrics.counter("io.google.fast.Foo.x");
+        assertThat(type(descriptors, "io.google.fast.Foo.x"), is("custom.googleapis.com/dw/io.google.fast.Foo.x/count"));
+
+        metrics.remove("io.github.fabito.Foo.x");
+        metrics.remove("io.google.fast.Foo.x");
+        metrics.counter("io.gitlab.fast.Foo.x");
+        assertThat(type(descriptors, "io.gitlab.fast.Foo.x"), is("custom.googleapis.com/dw/i.g.f.Foo.x/count"));
+    }
+
+    private static String type(MetricDescriptorCache descriptors, String name) {
+        return descriptors.descriptor(name, "count").metric().getType();
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class MetricNameParserTest {
+
+    private final MetricNameParser parser = new MetricNameParser(Arrays.asList("http.{method}.{status}", "http.{method}"));
+
+    @Test
+    public void readsLabelsFromTags() throws Exception {
+        final MetricNameParser.ParsedName parsed = parser.parse("requests{route=/api/ping, status=200}");
+
+        assertThat(parsed.base(), is("requests"));
+        assertThat(parsed.labels(), is(ImmutableMap.of("route", "/api/ping", "status", "200")));
+    }
+
+    @Test
+    public void replacesInvalidCharactersOfTagKeys() throws Exception {
+        final MetricNameParser.ParsedName parsed = parser.parse("requests{http.status=200, 2xx=true}");
+
+        assertThat(parsed.labels(), is(ImmutableMap.of("http_status", "200", "l2xx", "true")));
+    }
+
+    @Test
+    public void sanitizesNamesWithInvalidTags() throws Exception {
+        final MetricNameParser.ParsedName parsed = parser.parse("cache{size}");
+
+        assertThat(parsed.base(), is("cache_size_"));
+        assertThat(parsed.labels(), is(ImmutableMap.of()));
+        assertThat(parser.parse("cache{size}"), is(sameInstance(parsed)));
+    }
+
+    @Test
+    public void readsLabelsFromTheFirstMatchingTemplate() throws Exception {
+        final MetricNameParser.ParsedName parsed = parser.parse("http.GET.200.requests");
+        final MetricNameParser.ParsedName shorter = parser.parse("http.GET");
+
+        assertThat(parsed.base(), is("http.requests"));
+        assertThat(parsed.labels(), is(ImmutableMap.of("method", "GET", "status", "200")));
+        assertThat(shorter.base(), is("http"));
+        assertThat(shorter.labels(), is(ImmutableMap.of("method", "GET")));
+    }
+
+    @Test
+    public void sharesLabelSets() throws Exception {
+        assertThat(parser.parse("http.GET.200.requests").labels(), is(sameInstance(parser.parse("http.GET.200.latency").labels())));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidTemplateLabels() throws Exception {
+        new MetricNameParser(Collections.singletonList("http.{http-method}"));
+    }
+}
@@ -0,0 +1,45 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.google.api.services.monitoring.v3.model.MonitoredResource;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MonitoredResourceDetectorTest {
+
+    private final Map<String, String> metadata = ImmutableMap.of("instance/id", "1234",
+            "instance/zone", "projects/42/zones/europe-west1-b",
+            "instance/attributes/cluster-name", "my-cluster");
+    private final Map<String, String> environment = ImmutableMap.of("KUBERNETES_SERVICE_HOST", "10.0.0.1",
+            "NAMESPACE", "default",
+            "HOSTNAME", "ping-pong-1234");
+
+    @Test
+    public void detectsKubernetesPods() throws Exception {
+        final MonitoredResource pod = new MonitoredResourceDetector(metadata::get, environment::get).detect("my-gcp-project-id", null);
+
+        assertThat(pod.getType(), is("k8s_pod"));
+        assertThat(pod.getLabels(), is(ImmutableMap.of("project_id", "my-gcp-project-id", "location", "europe-west1-b",
+                "cluster_name", "my-cluster", "namespace_name", "default", "pod_name", "ping-pong-1234")));
+    }
+
+    @Test
+    public void detectsComputeEngineInstances() throws Exception {
+        final MonitoredResource instance = new MonitoredResourceDetector(metadata::get, name -> null).detect("my-gcp-project-id", null);
+
+        assertThat(instance.getType(), is("gce_instance"));
+        assertThat(instance.getLabels(), is(ImmutableMap.of("project_id", "my-gcp-project-id", "instance_id", "1234", "zone", "europe-west1-b")));
+    }
+
+    @Test
+    public void fallsBackToGlobalOutsideGoogleCloud() throws Exception {
+        final MonitoredResource global = new MonitoredResourceDetector(path -> null, name -> null).detect("my-gcp-project-id", null);
+
+        assertThat(global.getType(), is("global"));
+        assertThat(global.getLabels(), is(ImmutableMap.of("project_id", "my-gcp-project-id")));
+    }
+}
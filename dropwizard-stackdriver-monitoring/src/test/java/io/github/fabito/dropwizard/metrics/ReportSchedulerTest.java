@@ -0,0 +1,74 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.Clock;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReportSchedulerTest {
+
+    private final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+    private final Clock clock = mock(Clock.class);
+
+    @Test
+    public void schedulesAlignedReportsWithJitter() throws Exception {
+        final ReportScheduler aligned = new ReportScheduler(executor, clock, 10000, true, 0.5);
+        assertThat(aligned.firstDelayMillis(60000, 125000), is(60000L));
+        assertThat(aligned.firstDelayMillis(60000, 61000), is(4000L));
+        assertThat(aligned.firstDelayMillis(60000, 65000), is(60000L));
+        assertThat(aligned.firstDelayMillis(1000, 125000), is(499L));
+
+        final ReportScheduler jittered = new ReportScheduler(executor, clock, 10000, false, 0.5);
+        assertThat(jittered.firstDelayMillis(60000, 125000), is(65000L));
+    }
+
+    @Test
+    public void reportsOnceForEachBoundaryWhenWokenUpEarly() throws Exception {
+        final ReportScheduler scheduler = new ReportScheduler(executor, clock, 10000, true, 0.5);
+        final AtomicInteger reports = new AtomicInteger();
+        when(clock.getTime()).thenReturn(61000L);
+        scheduler.schedule(reports::incrementAndGet, 1, TimeUnit.MINUTES);
+
+        final ArgumentCaptor<Runnable> next = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).schedule(next.capture(), eq(4000L), eq(TimeUnit.MILLISECONDS));
+        // woken up 5ms before the boundary at 65000
+        when(clock.getTime()).thenReturn(64995L);
+        next.getValue().run();
+
+        assertThat(reports.get(), is(1));
+        verify(executor).schedule(next.getValue(), 60005L, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void keepsSchedulingAfterAFailedReport() throws Exception {
+        final ReportScheduler scheduler = new ReportScheduler(executor, clock, 10000, true, 0.5);
+        when(clock.getTime()).thenReturn(65000L);
+        scheduler.schedule(() -> {
+            throw new IllegalStateException("unavailable");
+        }, 1, TimeUnit.MINUTES);
+
+        final ArgumentCaptor<Runnable> next = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).schedule(next.capture(), eq(60000L), eq(TimeUnit.MILLISECONDS));
+        when(clock.getTime()).thenReturn(125000L);
+        next.getValue().run();
+
+        verify(executor, times(2)).schedule(next.getValue(), 60000L, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPeriodsUnderOneMillisecond() throws Exception {
+        new ReportScheduler(executor, clock, 10000, true, 0.5).schedule(() -> {
+        }, 100, TimeUnit.MICROSECONDS);
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.Configuration;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+import io.dropwizard.metrics.MetricsFactory;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StackdriverMonitoringBundleTest {
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private final StackdriverReporterFactory factory = mock(StackdriverReporterFactory.class);
+    private final StackdriverMonitoringReporter reporter = mock(StackdriverMonitoringReporter.class);
+    private final Configuration configuration = new Configuration();
+    private final Environment environment = mock(Environment.class);
+    private final LifecycleEnvironment lifecycle = mock(LifecycleEnvironment.class);
+    private final StackdriverMonitoringBundle<Configuration> bundle = new StackdriverMonitoringBundle<Configuration>() {
+        @Override
+        public StackdriverReporterFactory getStackdriverReporterFactory(Configuration configuration) {
+            return factory;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        when(environment.metrics()).thenReturn(registry);
+        when(environment.lifecycle()).thenReturn(lifecycle);
+        when(factory.build(registry)).thenReturn(reporter);
+        when(factory.getStopTimeout()).thenReturn(Duration.seconds(5));
+    }
+
+    @Test
+    public void managesTheReporterWithTheApplication() throws Exception {
+        when(factory.getFrequency()).thenReturn(Optional.of(Duration.seconds(10)));
+
+        bundle.run(configuration, environment);
+
+        assertThat(bundle.getReporter(), is(sameInstance(reporter)));
+        final Managed manager = managed();
+        assertThat(manager, is(instanceOf(StackdriverReporterManager.class)));
+        manager.start();
+        verify(reporter).start(10, TimeUnit.SECONDS);
+        manager.stop();
+        verify(reporter).stopAfterFinalReport(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void reportsAtTheMetricsFrequencyByDefault() throws Exception {
+        when(factory.getFrequency()).thenReturn(Optional.empty());
+        final MetricsFactory metrics = new MetricsFactory();
+        metrics.setFrequency(Duration.seconds(30));
+        configuration.setMetricsFactory(metrics);
+
+        bundle.run(configuration, environment);
+
+        managed().start();
+        verify(reporter).start(30, TimeUnit.SECONDS);
+    }
+
+    private Managed managed() {
+        final ArgumentCaptor<Managed> managed = ArgumentCaptor.forClass(Managed.class);
+        verify(lifecycle).manage(managed.capture());
+        return managed.getValue();
+    }
+}
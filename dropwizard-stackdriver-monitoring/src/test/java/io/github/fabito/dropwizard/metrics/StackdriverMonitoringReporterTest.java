@@ -1,34 +1,79 @@
 package io.github.fabito.dropwizard.metrics;
 
 import com.codahale.metrics.*;
+import com.google.api.client.googleapis.util.Utils;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.DateTime;
 import com.google.api.services.monitoring.v3.Monitoring;
+import com.google.api.services.monitoring.v3.model.BucketOptions;
 import com.google.api.services.monitoring.v3.model.CreateTimeSeriesRequest;
-import com.google.api.services.monitoring.v3.model.Empty;
+import com.google.api.services.monitoring.v3.model.Distribution;
+import com.google.api.services.monitoring.v3.model.Explicit;
+import com.google.api.services.monitoring.v3.model.MonitoredResource;
 import com.google.api.services.monitoring.v3.model.Point;
 import com.google.api.services.monitoring.v3.model.TimeSeries;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.monitoring.v3.MetricServiceGrpc;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.exceptions.base.MockitoException;
 
 import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedMap;
+import java.util.SortedSet;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static io.github.fabito.dropwizard.metrics.StackdriverMonitoringReporter.CUMULATIVE;
 import static io.github.fabito.dropwizard.metrics.StackdriverMonitoringReporter.GAUGE;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.endsWith;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.collection.IsCollectionWithSize.hasSize;
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -61,9 +106,13 @@ public class StackdriverMonitoringReporterTest {
         when(projectsMock.timeSeries()).thenReturn(timeSeriesMock);
         Monitoring.Projects.TimeSeries.Create create = mock(Monitoring.Projects.TimeSeries.Create.class);
         when(timeSeriesMock.create(anyString(), argumentCaptor.capture())).thenReturn(create);
-        when(create.execute()).thenReturn(new Empty());
+        when(create.buildHttpRequest()).thenAnswer(invocation -> new RecordingTransport().monitoring().projects().timeSeries()
+                .create("projects/my-gcp-project-id", argumentCaptor.getValue()).buildHttpRequest());
     }
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Rule
     public ExpectedException exception = ExpectedException.none();
 
@@ -134,6 +183,42 @@ public class StackdriverMonitoringReporterTest {
         assertTimeSeries(1, "gauge", GAUGE, T0, 1.1 );
     }
 
+    @Test
+    public void readsGaugesOnce() throws Exception {
+        final Gauge gauge = gauge(1L);
+        reporter.report(map("gauge", gauge),
+                this.map(),
+                this.map(),
+                this.map(),
+                this.map());
+
+        verify(gauge, times(1)).getValue();
+        assertTimeSeries(1, "gauge", GAUGE, T0, 1L);
+    }
+
+    @Test
+    public void reportsPrimitiveGaugeValues() throws Exception {
+        final LongGauge gauge = mock(LongGauge.class);
+        when(gauge.getLongValue()).thenReturn(2L);
+        reporter.report(map("gauge", (Gauge) gauge),
+                this.map(),
+                this.map(),
+                this.map(),
+                this.map());
+
+        verify(gauge, never()).getValue();
+        assertTimeSeries(1, "gauge", GAUGE, T0, 2L);
+
+        final DoubleGauge doubleGauge = () -> 2.5;
+        reporter.report(map("gauge", (Gauge) doubleGauge),
+                this.map(),
+                this.map(),
+                this.map(),
+                this.map());
+
+        assertTimeSeries(1, "gauge", GAUGE, T0, 2.5);
+    }
+
     @Test
     public void reportsCounters() throws Exception {
         final Counter counter = mock(Counter.class);
@@ -270,6 +355,540 @@ public class StackdriverMonitoringReporterTest {
 
     }
 
+    @Test
+    public void reportsSelectedAttributesOnly() throws Exception {
+        final StackdriverMonitoringReporter selectingReporter = StackdriverMonitoringReporter
+                .forRegistry(registry)
+                .withClock(clock)
+                .reportAttributes(Timer.class, EnumSet.of(MetricAttribute.COUNT, MetricAttribute.M1_RATE, MetricAttribute.P99))
+                .reportAttributes("requests\\..*", EnumSet.of(MetricAttribute.COUNT, MetricAttribute.M1_RATE))
+                .disabledMetricAttributes(EnumSet.of(MetricAttribute.M1_RATE))
+                .build("my-gcp-project-id", monitoringMock);
+        final Timer timer = mock(Timer.class);
+        when(timer.getCount()).thenReturn(1L);
+
+        selectingReporter.report(this.map(),
+                this.map(),
+                this.map(),
+                this.map(),
+                map("requests.get", timer));
+
+        assertTimeSeries(1, "requests.get/count", CUMULATIVE, T0, 1L);
+        verify(timer, never()).getSnapshot();
+        verify(timer, never()).getOneMinuteRate();
+    }
+
+    @Test
+    public void reportsLabelsAndMonitoredResource() throws Exception {
+        final MonitoredResource resource = new MonitoredResource().setType("gce_instance")
+                .setLabels(ImmutableMap.of("project_id", "my-gcp-project-id", "instance_id", "1", "zone", "us-central1-a"));
+        final StackdriverMonitoringReporter labelingReporter = StackdriverMonitoringReporter
+                .forRegistry(registry)
+                .withClock(clock)
+                .labelTemplate("http.{method}.{status}")
+                .withMonitoredResource(resource)
+                .build("my-gcp-project-id", monitoringMock);
+        final Counter counter = mock(Counter.class);
+        when(counter.getCount()).thenReturn(1L);
+        final SortedMap<String, Counter> counters = new TreeMap<>();
+        counters.put("http.GET.200.requests", counter);
+        counters.put("requests{route=/api/ping, status=200}", counter);
+
+        labelingReporter.report(this.map(), counters, this.map(), this.map(), this.map());
+
+        final List<TimeSeries> timeSeries = argumentCaptor.getValue().getTimeSeries();
+        assertThat(timeSeries, hasSize(2));
+        assertThat(timeSeries.get(0).getMetric().getType(), is(StackdriverMonitoringReporter.CUSTOM_METRIC_PREFIX + "/http.requests/count"));
+        assertThat(timeSeries.get(0).getMetric().getLabels(), is(ImmutableMap.of("method", "GET", "status", "200")));
+        assertThat(timeSeries.get(1).getMetric().getType(), is(StackdriverMonitoringReporter.CUSTOM_METRIC_PREFIX + "/requests/count"));
+        assertThat(timeSeries.get(1).getMetric().getLabels(), is(ImmutableMap.of("route", "/api/ping", "status", "200")));
+        assertThat(timeSeries.get(0).getResource(), is(resource));
+    }
+
+    @Test
+    public void reportsNamesWithInvalidTagsWithoutLabels() throws Exception {
+        final Counter counter = mock(Counter.class);
+        when(counter.getCount()).thenReturn(1L);
+        final SortedMap<String, Counter> counters = new TreeMap<>();
+        counters.put("cache{size}", counter);
+        counters.put("requests{http.status=200, 2xx=true}", counter);
+
+        reporter.report(this.map(), counters, this.map(), this.map(), this.map());
+        reporter.report(this.map(), counters, this.map(), this.map(), this.map());
+
+        final List<TimeSeries> timeSeries = argumentCaptor.getValue().getTimeSeries();
+        assertThat(timeSeries, hasSize(2));
+        assertThat(timeSeries.get(0).getMetric().getType(), is(StackdriverMonitoringReporter.CUSTOM_METRIC_PREFIX + "/cache_size_/count"));
+        assertNull(timeSeries.get(0).getMetric().getLabels());
+        assertThat(timeSeries.get(1).getMetric().getType(), is(StackdriverMonitoringReporter.CUSTOM_METRIC_PREFIX + "/requests/count"));
+        assertThat(timeSeries.get(1).getMetric().getLabels(), is(ImmutableMap.of("http_status", "200", "l2xx", "true")));
+    }
+
+    @Test
+    public void abbreviatesMetricNames() throws Exception {
+        final StackdriverMonitoringReporter abbreviatingReporter = StackdriverMonitoringReporter
+                .forRegistry(registry)
+                .withClock(clock)
+                .abbreviateNamesWith(new TargetLengthBasedClassNameAbbreviator(30))
+                .build("my-gcp-project-id", monitoringMock);
+        final Counter counter = mock(Counter.class);
+        when(counter.getCount()).thenReturn(1L);
+
+        abbreviatingReporter.report(this.map(),
+                this.map("io.github.fabito.dropwizard.samples.resources.EchoResource.echo{status=200}", counter),
+                this.map(),
+                this.map(),
+                this.map());
+
+        final TimeSeries timeSeries = argumentCaptor.getValue().getTimeSeries().get(0);
+        assertThat(timeSeries.getMetric().getType(), is(StackdriverMonitoringReporter.CUSTOM_METRIC_PREFIX + "/i.g.f.d.s.r.EchoResource.echo/count"));
+        assertThat(timeSeries.getMetric().getLabels(), is(ImmutableMap.of("status", "200")));
+    }
+
+    @Test
+    public void leavesCollidingAbbreviationsUnabbreviated() throws Exception {
+        final StackdriverMonitoringReporter abbreviatingReporter = StackdriverMonitoringReporter
+                .forRegistry(registry)
+                .withClock(clock)
+                .abbreviateNamesWith(new TargetLengthBasedClassNameAbbreviator(12))
+                .build("my-gcp-project-id", monitoringMock);
+        final Counter counter = mock(Counter.class);
+        when(counter.getCount()).thenReturn(1L);
+        final SortedMap<String, Counter> counters = new TreeMap<>();
+        counters.put("io.github.fabito.Foo.x", counter);
+        counters.put("io.google.fast.Foo.x", counter);
+
+        abbreviatingReporter.report(this.map(), counters, this.map(), this.map(), this.map());
+        abbreviatingReporter.report(this.map(), counters, this.map(), this.map(), this.map());
+
+        final List<TimeSeries> timeSeries = argumentCaptor.getValue().getTimeSeries();
+        assertThat(timeSeries.get(0).getMetric().getType(), is(StackdriverMonitoringReporter.CUSTOM_METRIC_PREFIX + "/i.g.f.Foo.x/count"));
+        assertThat(timeSeries.get(1).getMetric().getType(), is(StackdriverMonitoringReporter.CUSTOM_METRIC_PREFIX + "/io.google.fast.Foo.x/count"));
+    }
+
+    @Test
+    public void aggregatesAwayDroppedLabels() throws Exception {
+        final StackdriverMonitoringReporter aggregatingReporter = StackdriverMonitoringReporter
+                .forRegistry(registry)
+                .withClock(clock)
+                .aggregateDroppingLabels(Collections.singleton("tenant"))
+                .reportAttributes(Timer.class, EnumSet.of(MetricAttribute.COUNT, MetricAttribute.MAX, MetricAttribute.P50))
+                .build("my-gcp-project-id", monitoringMock);
+        final SortedMap<String, Timer> timers = new TreeMap<>();
+        for (int tenant = 0; tenant < 3; tenant++) {
+            final Timer timer = new Timer();
+            for (int i = 1; i <= 10; i++) {
+                timer.update(tenant * 10 + i, TimeUnit.NANOSECONDS);
+            }
+            timers.put("requests{route=/ping,tenant=" + tenant + "}", timer);
+        }
+        timers.put("requests{route=/pong}", new Timer());
+
+        aggregatingReporter.report(this.map(), this.map(), this.map(), this.map(), timers);
+
+        final List<TimeSeries> timeSeries = argumentCaptor.getValue().getTimeSeries();
+        assertThat(timeSeries, hasSize(6));
+        assertThat(timeSeries.get(0).getMetric().getLabels(), is(ImmutableMap.of("route", "/ping")));
+        assertTimeSeries(6, "requests/count", CUMULATIVE, T0, 30L);
+        assertThat(timeSeries.get(0).getMetric().getType(), endsWith("requests/max"));
+        assertThat(timeSeries.get(0).getPoints().get(0).getValue().getInt64Value(), is(30L));
+        assertThat(timeSeries.get(1).getMetric().getType(), endsWith("requests/p50"));
+        assertThat(timeSeries.get(1).getPoints().get(0).getValue().getDoubleValue(), closeTo(15.5, 1.0));
+        assertThat(timeSeries.get(3).getMetric().getLabels(), is(ImmutableMap.of("route", "/pong")));
+    }
+
+    @Test
+    public void reportsAsynchronously() throws Exception {
+        final StackdriverMonitoringReporter asyncReporter = StackdriverMonitoringReporter
+                .forRegistry(registry)
+                .withClock(clock)
+                .sendAsynchronously(1, 1)
+                .build("my-gcp-project-id", monitoringMock);
+
+        asyncReporter.report(map("gauge", gauge(1)),
+                this.map(),
+                this.map(),
+                this.map(),
+                this.map());
+        asyncReporter.stop();
+
+        assertTimeSeries(1, "gauge", GAUGE, T0, 1 );
+    }
+
+    @Test
+    public void reportsGroupsAtTheirOwnPeriod() throws Exception {
+        final RecordingTransport transport = new RecordingTransport();
+        final MetricRegistry metrics = new MetricRegistry();
+        metrics.counter("jvm.threads").inc();
+        metrics.counter("requests").inc();
+        final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        when(executor.awaitTermination(anyLong(), any(TimeUnit.class))).thenReturn(true);
+        final StackdriverMonitoringReporter groupedReporter = StackdriverMonitoringReporter
+                .forRegistry(metrics)
+                .withClock(clock)
+                .scheduleWith(new ReportScheduler(executor, clock, 0, false, 0.0))
+                .reportEvery(10, TimeUnit.SECONDS, (name, metric) -> name.equals("requests"))
+                .reportChangesOnly(2)
+                .build("my-gcp-project-id", transport.monitoring());
+
+        groupedReporter.start(1, TimeUnit.MINUTES);
+        final ArgumentCaptor<Runnable> group = ArgumentCaptor.forClass(Runnable.class);
+        final ArgumentCaptor<Runnable> remaining = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).scheduleAtFixedRate(group.capture(), eq(10000L), eq(10000L), eq(TimeUnit.MILLISECONDS));
+        verify(executor).scheduleAtFixedRate(remaining.capture(), eq(60000L), eq(60000L), eq(TimeUnit.MILLISECONDS));
+
+        group.getValue().run();
+        remaining.getValue().run();
+        group.getValue().run();
+        groupedReporter.stop();
+
+        // the report of the remaining metrics does not count as a report of the group: requests is still unchanged
+        assertThat(transport.requests(), hasSize(2));
+        assertThat(transport.requests().get(0).getTimeSeries().get(0).getMetric().getType(), endsWith("/requests/count"));
+        assertThat(transport.requests().get(1).getTimeSeries().get(0).getMetric().getType(), endsWith("/jvm.threads/count"));
+    }
+
+    @Test
+    public void reportsChangedValuesOnly() throws Exception {
+        final StackdriverMonitoringReporter deltaReporter = StackdriverMonitoringReporter
+                .forRegistry(registry)
+                .withClock(clock)
+                .reportChangesOnly(3)
+                .build("my-gcp-project-id", monitoringMock);
+        final Counter counter = mock(Counter.class);
+        when(counter.getCount()).thenReturn(100L, 100L, 101L, 101L);
+
+        for (int i = 0; i < 4; i++) {
+            deltaReporter.report(this.map(),
+                    this.map("counter", counter),
+                    this.map(),
+                    this.map(),
+                    this.map());
+        }
+
+        final List<CreateTimeSeriesRequest> requests = argumentCaptor.getAllValues();
+        assertThat(requests, hasSize(3));
+        assertThat(requests.get(0).getTimeSeries().get(0).getPoints().get(0).getValue().getInt64Value(), is(100L));
+        assertThat(requests.get(1).getTimeSeries().get(0).getPoints().get(0).getValue().getInt64Value(), is(101L));
+        assertThat(requests.get(2).getTimeSeries().get(0).getPoints().get(0).getValue().getInt64Value(), is(101L));
+    }
+
+    @Test
+    public void reportsHistogramsAsDistributions() throws Exception {
+        final StackdriverMonitoringReporter distributionReporter = StackdriverMonitoringReporter
+                .forRegistry(registry)
+                .withClock(clock)
+                .reportDistributions(new BucketOptions().setExplicitBuckets(new Explicit().setBounds(Arrays.asList(2.0, 10.0, 100.0))))
+                .build("my-gcp-project-id", monitoringMock);
+        final Histogram histogram = mock(Histogram.class);
+        when(histogram.getCount()).thenReturn(4L);
+        final Snapshot snapshot = mock(Snapshot.class);
+        when(snapshot.getValues()).thenReturn(new long[]{1, 2, 5, 50});
+        when(histogram.getSnapshot()).thenReturn(snapshot);
+
+        distributionReporter.report(this.map(),
+                this.map(),
+                this.map("histogram", histogram),
+                this.map(),
+                this.map());
+
+        assertTimeSeries(2, "histogram/count", CUMULATIVE, T0, 4L );
+        final Distribution distribution = assertTimeSeries(2, "histogram/distribution", GAUGE, T0).getValue().getDistributionValue();
+        assertThat(distribution.getCount(), is(4L));
+        assertThat(distribution.getMean(), is(14.5));
+        assertThat(distribution.getBucketCounts(), is(Arrays.asList(1L, 2L, 1L, 0L)));
+    }
+
+    @Test
+    public void reportsHdrHistogramIntervals() throws Exception {
+        final StackdriverMonitoringReporter distributionReporter = StackdriverMonitoringReporter
+                .forRegistry(registry)
+                .withClock(clock)
+                .reportDistributions(new BucketOptions().setExplicitBuckets(new Explicit().setBounds(Arrays.asList(2.0, 10.0, 100.0))))
+                .build("my-gcp-project-id", monitoringMock);
+        final Clock ticks = mock(Clock.class);
+        final Histogram histogram = new Histogram(new HdrHistogramReservoir(2, 1, TimeUnit.MINUTES, ticks));
+        for (long value : new long[]{1, 2, 5, 50, 50}) {
+            histogram.update(value);
+        }
+
+        when(ticks.getTick()).thenReturn(TimeUnit.SECONDS.toNanos(60));
+        distributionReporter.report(this.map(), this.map(), this.map("histogram", histogram), this.map(), this.map());
+
+        Distribution distribution = assertTimeSeries(2, "histogram/distribution", GAUGE, T0).getValue().getDistributionValue();
+        assertThat(distribution.getCount(), is(5L));
+        assertThat(distribution.getMean(), closeTo(21.6, 0.5));
+        assertThat(distribution.getBucketCounts(), is(Arrays.asList(1L, 2L, 2L, 0L)));
+
+        histogram.update(500);
+        when(ticks.getTick()).thenReturn(TimeUnit.SECONDS.toNanos(125));
+        distributionReporter.report(this.map(), this.map(), this.map("histogram", histogram), this.map(), this.map());
+
+        distribution = assertTimeSeries(2, "histogram/distribution", GAUGE, T0).getValue().getDistributionValue();
+        assertThat(distribution.getCount(), is(1L));
+        assertThat(distribution.getBucketCounts(), is(Arrays.asList(0L, 0L, 0L, 1L)));
+        assertTimeSeries(2, "histogram/count", CUMULATIVE, T0, 6L);
+    }
+
+    @Test
+    public void collectsInParallelInRegistryOrder() throws Exception {
+        final StackdriverMonitoringReporter parallelReporter = StackdriverMonitoringReporter
+                .forRegistry(registry)
+                .withClock(clock)
+                .collectInParallel(4)
+                .build("my-gcp-project-id", monitoringMock);
+        final SortedMap<String, Counter> counters = this.map();
+        final SortedMap<String, Meter> meters = this.map();
+        for (int i = 0; i < 1000; i++) {
+            counters.put("counter" + i, mock(Counter.class));
+            meters.put("meter" + i, mock(Meter.class));
+        }
+
+        final List<TimeSeries> expected = reporter.collect(this.map(), counters, this.map(), meters, this.map());
+        final List<TimeSeries> actual = parallelReporter.collect(this.map(), counters, this.map(), meters, this.map());
+        parallelReporter.stop();
+
+        assertThat(actual, hasSize(6000));
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(actual.get(i).getMetric().getType(), is(expected.get(i).getMetric().getType()));
+        }
+    }
+
+    @Test
+    public void streamsRequestBodies() throws Exception {
+        final RecordingTransport transport = new RecordingTransport();
+        final StackdriverMonitoringReporter streamingReporter = StackdriverMonitoringReporter
+                .forRegistry(registry)
+                .withClock(clock)
+                .streamRequests()
+                .build("my-gcp-project-id", transport.monitoring());
+        final SortedMap<String, Counter> counters = this.map();
+        for (int i = 0; i < 500; i++) {
+            final Counter counter = mock(Counter.class);
+            when(counter.getCount()).thenReturn((long) i);
+            counters.put(String.format("counter%03d", i), counter);
+        }
+
+        streamingReporter.report(this.map(), counters, this.map(), this.map(), this.map());
+
+        final List<TimeSeries> expected = reporter.collect(this.map(), counters, this.map(), this.map(), this.map());
+        final List<TimeSeries> actual = new ArrayList<>();
+        for (CreateTimeSeriesRequest request : transport.requests()) {
+            assertThat(request.getTimeSeries().size(), lessThanOrEqualTo(200));
+            actual.addAll(request.getTimeSeries());
+        }
+        assertThat(transport.requests(), hasSize(3));
+        assertThat(actual, hasSize(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(actual.get(i).getMetric().getType(), is(expected.get(i).getMetric().getType()));
+            assertThat(actual.get(i).getPoints().get(0).getValue().getInt64Value(), is((long) i));
+            assertThat(actual.get(i).getPoints().get(0).getInterval(), is(expected.get(i).getPoints().get(0).getInterval()));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsSpoolingStreamedRequests() throws Exception {
+        StackdriverMonitoringReporter
+                .forRegistry(registry)
+                .streamRequests()
+                .spoolFailedRequests(temporaryFolder.newFile(), 64 * 1024)
+                .build("my-gcp-project-id", new RecordingTransport().monitoring());
+    }
+
+    @Test
+    public void spoolsFailedRequestsAndReplaysThem() throws Exception {
+        final RecordingTransport transport = new RecordingTransport((number, request) -> number == 1 ? 503 : 200);
+        final File location = temporaryFolder.newFile();
+        final StackdriverMonitoringReporter spoolingReporter = StackdriverMonitoringReporter
+                .forRegistry(registry)
+                .withClock(clock)
+                .spoolFailedRequests(location, 64 * 1024)
+                .build("my-gcp-project-id", transport.monitoring());
+
+        spoolingReporter.report(this.map("gauge", gauge(1)), this.map(), this.map(), this.map(), this.map());
+        spoolingReporter.report(this.map("gauge", gauge(2)), this.map(), this.map(), this.map(), this.map());
+        spoolingReporter.stop();
+
+        assertThat(transport.requests(), hasSize(3));
+        final CreateTimeSeriesRequest failed = transport.requests().get(0);
+        final CreateTimeSeriesRequest replayed = transport.requests().get(1);
+        assertThat(failed.getTimeSeries().get(0).getPoints().get(0).getValue().getInt64Value(), is(1L));
+        assertThat(replayed, is(failed));
+        try (TimeSeriesSpool spool = new TimeSeriesSpool(location, 64 * 1024, TimeSeriesTransport.Encoding.JSON)) {
+            assertThat(spool.size(), is(0));
+        }
+    }
+
+    @Test
+    public void replaysSpooledRequestsBeforeNewerOnes() throws Exception {
+        final AtomicLong now = new AtomicLong();
+        final RecordingTransport transport = new RecordingTransport(inOrderOnly(1));
+        final MetricRegistry metrics = new MetricRegistry();
+        final StackdriverMonitoringReporter spoolingReporter = StackdriverMonitoringReporter
+                .forRegistry(registry)
+                .withClock(clock(now))
+                .spoolFailedRequests(temporaryFolder.newFile(), 64 * 1024)
+                .instrumentation(metrics)
+                .build("my-gcp-project-id", transport.monitoring());
+
+        for (int value = 1; value <= 3; value++) {
+            now.set(value * 1000L);
+            spoolingReporter.report(this.map("gauge", gauge(value)), this.map(), this.map(), this.map(), this.map());
+        }
+
+        final List<Long> values = new ArrayList<>();
+        for (CreateTimeSeriesRequest request : transport.requests()) {
+            values.add(request.getTimeSeries().get(0).getPoints().get(0).getValue().getInt64Value());
+        }
+        assertThat(values, is(Arrays.asList(1L, 1L, 2L, 3L)));
+        assertThat(metrics.getCounters().get("stackdriver-reporter.sender.failures").getCount(), is(1L));
+        assertThat(metrics.getCounters().get("stackdriver-reporter.spool.rejected").getCount(), is(0L));
+        assertThat(metrics.getMeters().get("stackdriver-reporter.spool.replayed").getCount(), is(1L));
+        spoolingReporter.stop();
+    }
+
+    @Test
+    public void sendsReportsInOrderWithSeveralSenderThreads() throws Exception {
+        final AtomicLong now = new AtomicLong();
+        // the first request is slow, the next reports must not overtake it
+        final RecordingTransport transport = new RecordingTransport(inOrderOnly(), 200);
+        final StackdriverMonitoringReporter asyncReporter = StackdriverMonitoringReporter
+                .forRegistry(registry)
+                .withClock(clock(now))
+                .sendAsynchronously(2, 8)
+                .build("my-gcp-project-id", transport.monitoring());
+
+        for (int value = 1; value <= 3; value++) {
+            now.set(value * 1000L);
+            asyncReporter.report(this.map("gauge", gauge(value)), this.map(), this.map(), this.map(), this.map());
+        }
+        asyncReporter.stop();
+
+        final List<Long> values = new ArrayList<>();
+        for (CreateTimeSeriesRequest request : transport.requests()) {
+            values.add(request.getTimeSeries().get(0).getPoints().get(0).getValue().getInt64Value());
+        }
+        // each point was accepted on its first attempt
+        assertThat(values, is(Arrays.asList(1L, 2L, 3L)));
+    }
+
+    @Test
+    public void registersOwnMetricsWithoutReportingThem() throws Exception {
+        final RecordingTransport transport = new RecordingTransport((number, request) -> number == 1 ? 503 : 200);
+        final MetricRegistry metrics = new MetricRegistry();
+        metrics.counter("requests").inc();
+        final StackdriverMonitoringReporter instrumentedReporter = StackdriverMonitoringReporter
+                .forRegistry(metrics)
+                .withClock(clock)
+                .build("my-gcp-project-id", transport.monitoring());
+
+        instrumentedReporter.report();
+        instrumentedReporter.report();
+
+        assertThat(transport.requests(), hasSize(2));
+        for (CreateTimeSeriesRequest request : transport.requests()) {
+            assertThat(request.getTimeSeries(), hasSize(1));
+        }
+        assertThat(metrics.getTimers().get("stackdriver-reporter.report.duration").getCount(), is(2L));
+        assertThat(metrics.getHistograms().get("stackdriver-reporter.report.time-series").getSnapshot().getMax(), is(1L));
+        assertThat(metrics.getHistograms().get("stackdriver-reporter.sender.requests").getCount(), is(2L));
+        assertThat(metrics.getCounters().get("stackdriver-reporter.sender.failures").getCount(), is(1L));
+        assertThat(metrics.getCounters().get("stackdriver-reporter.sender.bytes").getCount(),
+                is(transport.bytes()));
+
+        instrumentedReporter.stop();
+        assertThat(metrics.getNames(), is((SortedSet<String>) ImmutableSortedSet.of("requests")));
+    }
+
+    @Test
+    public void reportsOnceMoreAndDrainsTheSpoolOnStop() throws Exception {
+        // the first report and its first replay fail, the replay is then delayed by a backoff and the next reports
+        // are spooled behind it
+        final RecordingTransport transport = new RecordingTransport((number, request) -> number <= 2 ? 503 : 200);
+        final File location = temporaryFolder.newFile();
+        final MetricRegistry metrics = new MetricRegistry();
+        final Counter counter = metrics.counter("requests");
+        final StackdriverMonitoringReporter flushingReporter = StackdriverMonitoringReporter
+                .forRegistry(metrics)
+                .withClock(clock)
+                .sendAsynchronously(1, 8)
+                .spoolFailedRequests(location, 64 * 1024)
+                .build("my-gcp-project-id", transport.monitoring());
+
+        counter.inc();
+        flushingReporter.report();
+        counter.inc();
+        flushingReporter.report();
+        counter.inc();
+        flushingReporter.stopAfterFinalReport(10, TimeUnit.SECONDS);
+
+        final List<Long> values = new ArrayList<>();
+        for (CreateTimeSeriesRequest request : transport.requests()) {
+            values.add(request.getTimeSeries().get(0).getPoints().get(0).getValue().getInt64Value());
+        }
+        assertThat(values, is(Arrays.asList(1L, 1L, 1L, 2L, 3L)));
+        try (TimeSeriesSpool spool = new TimeSeriesSpool(location, 64 * 1024, TimeSeriesTransport.Encoding.JSON)) {
+            assertThat(spool.size(), is(0));
+        }
+    }
+
+    @Test
+    public void reportsOverGrpc() throws Exception {
+        final List<com.google.monitoring.v3.CreateTimeSeriesRequest> requests = new ArrayList<>();
+        final Server server = InProcessServerBuilder.forName("metric-service")
+                .addService(new MetricServiceGrpc.MetricServiceImplBase() {
+                    @Override
+                    public void createTimeSeries(com.google.monitoring.v3.CreateTimeSeriesRequest request, StreamObserver<com.google.protobuf.Empty> responseObserver) {
+                        requests.add(request);
+                        if (requests.size() == 1) {
+                            responseObserver.onError(Status.RESOURCE_EXHAUSTED.asRuntimeException());
+                            return;
+                        }
+                        responseObserver.onNext(com.google.protobuf.Empty.getDefaultInstance());
+                        responseObserver.onCompleted();
+                    }
+                })
+                .directExecutor()
+                .build()
+                .start();
+        final ManagedChannel channel = InProcessChannelBuilder.forName("metric-service").directExecutor().build();
+        final StackdriverMonitoringReporter grpcReporter = StackdriverMonitoringReporter
+                .forRegistry(registry)
+                .withClock(clock)
+                .reportDistributions(new BucketOptions().setExplicitBuckets(new Explicit().setBounds(Arrays.asList(2.0, 10.0, 100.0))))
+                .spoolFailedRequests(temporaryFolder.newFile(), 64 * 1024)
+                .build("my-gcp-project-id", channel);
+        final Histogram histogram = mock(Histogram.class);
+        when(histogram.getCount()).thenReturn(4L);
+        final Snapshot snapshot = mock(Snapshot.class);
+        when(snapshot.getValues()).thenReturn(new long[]{1, 2, 5, 50});
+        when(histogram.getSnapshot()).thenReturn(snapshot);
+
+        try {
+            grpcReporter.report(this.map("gauge", gauge(1)), this.map(), this.map("histogram", histogram), this.map(), this.map());
+            grpcReporter.report(this.map("gauge", gauge(2)), this.map(), this.map(), this.map(), this.map());
+            grpcReporter.stop();
+        } finally {
+            channel.shutdownNow();
+            server.shutdownNow();
+        }
+
+        assertThat(requests, hasSize(3));
+        assertThat(requests.get(1), is(requests.get(0)));
+        final com.google.monitoring.v3.CreateTimeSeriesRequest request = requests.get(0);
+        assertThat(request.getName(), is("projects/my-gcp-project-id"));
+        assertThat(request.getTimeSeriesCount(), is(3));
+        final com.google.monitoring.v3.TimeSeries gauge = request.getTimeSeries(0);
+        assertThat(gauge.getMetric().getType(), is(StackdriverMonitoringReporter.CUSTOM_METRIC_PREFIX + "/gauge"));
+        assertThat(gauge.getMetricKind(), is(com.google.api.MetricDescriptor.MetricKind.GAUGE));
+        assertThat(gauge.getPoints(0).getValue().getInt64Value(), is(1L));
+        assertThat(gauge.getPoints(0).getInterval().getEndTime().getSeconds(), is(0L));
+        final com.google.monitoring.v3.TimeSeries distribution = request.getTimeSeries(2);
+        assertThat(distribution.getValueType(), is(com.google.api.MetricDescriptor.ValueType.DISTRIBUTION));
+        assertThat(distribution.getPoints(0).getValue().getDistributionValue().getBucketCountsList(), is(Arrays.asList(1L, 2L, 1L, 0L)));
+        assertThat(distribution.getPoints(0).getValue().getDistributionValue().getBucketOptions().getExplicitBuckets().getBoundsList(), is(Arrays.asList(2.0, 10.0, 100.0)));
+    }
+
     private Point assertTimeSeries(int size, String metricType, String metricKind, String pointIntervalEndTime) {
         final CreateTimeSeriesRequest createTimeSeriesRequest = argumentCaptor.getValue();
         final List<TimeSeries> timeSeriesList = createTimeSeriesRequest.getTimeSeries();
@@ -335,4 +954,126 @@ public class StackdriverMonitoringReporterTest {
         return gauge;
     }
 
-}
\ No newline at end of file
+    /**
+     * Records the requests sent through its {@link Monitoring} client, and answers each one with the status code
+     * given by the responder.
+     */
+    private static final class RecordingTransport extends MockHttpTransport {
+
+        private final Responder responder;
+        private final long firstRequestLatencyMillis;
+        private final List<CreateTimeSeriesRequest> requests = new CopyOnWriteArrayList<>();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicInteger received = new AtomicInteger();
+
+        private RecordingTransport() {
+            this((number, request) -> 200);
+        }
+
+        private RecordingTransport(Responder responder) {
+            this(responder, 0);
+        }
+
+        private RecordingTransport(Responder responder, long firstRequestLatencyMillis) {
+            this.responder = responder;
+            this.firstRequestLatencyMillis = firstRequestLatencyMillis;
+        }
+
+        @Override
+        public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+            return new MockLowLevelHttpRequest(url) {
+                @Override
+                public LowLevelHttpResponse execute() throws IOException {
+                    if (received.incrementAndGet() == 1 && firstRequestLatencyMillis > 0) {
+                        try {
+                            Thread.sleep(firstRequestLatencyMillis);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    final String body = getContentAsString();
+                    final CreateTimeSeriesRequest request = Utils.getDefaultJsonFactory().fromString(body, CreateTimeSeriesRequest.class);
+                    final int status;
+                    synchronized (RecordingTransport.this) {
+                        requests.add(request);
+                        bytes.addAndGet(body.length());
+                        status = responder.status(requests.size(), request);
+                    }
+                    final MockLowLevelHttpResponse response = new MockLowLevelHttpResponse().setContentType(Json.MEDIA_TYPE);
+                    return status == 200
+                            ? response.setContent("{}")
+                            : response.setStatusCode(status).setContent("{\"error\":{\"code\":" + status + "}}");
+                }
+            };
+        }
+
+        private Monitoring monitoring() {
+            return new Monitoring.Builder(this, Utils.getDefaultJsonFactory(), null)
+                    .setApplicationName("test")
+                    .build();
+        }
+
+        /**
+         * The requests received so far, in order.
+         */
+        private List<CreateTimeSeriesRequest> requests() {
+            return requests;
+        }
+
+        /**
+         * The size of the request bodies received so far.
+         */
+        private long bytes() {
+            return bytes.get();
+        }
+    }
+
+    /**
+     * A clock at the given time, in milliseconds.
+     */
+    private static Clock clock(AtomicLong now) {
+        return new Clock() {
+            @Override
+            public long getTick() {
+                return TimeUnit.MILLISECONDS.toNanos(now.get());
+            }
+
+            @Override
+            public long getTime() {
+                return now.get();
+            }
+        };
+    }
+
+    /**
+     * Answers like Stackdriver, with a {@code 400}, to points not newer than the latest point of their time series.
+     * The requests of the given numbers fail with a {@code 503} instead.
+     */
+    private static Responder inOrderOnly(Integer... failing) {
+        final Map<String, DateTime> latest = new HashMap<>();
+        return (number, request) -> {
+            if (Arrays.asList(failing).contains(number)) {
+                return 503;
+            }
+            for (TimeSeries series : request.getTimeSeries()) {
+                final DateTime end = DateTime.parseRfc3339(series.getPoints().get(0).getInterval().getEndTime());
+                final DateTime previous = latest.get(series.getMetric().getType());
+                if (previous != null && previous.getValue() >= end.getValue()) {
+                    return 400;
+                }
+            }
+            for (TimeSeries series : request.getTimeSeries()) {
+                latest.put(series.getMetric().getType(), DateTime.parseRfc3339(series.getPoints().get(0).getInterval().getEndTime()));
+            }
+            return 200;
+        };
+    }
+
+    /**
+     * Picks the status code of each request received by a {@link RecordingTransport}.
+     */
+    private interface Responder {
+        int status(int number, CreateTimeSeriesRequest request);
+    }
+
+}
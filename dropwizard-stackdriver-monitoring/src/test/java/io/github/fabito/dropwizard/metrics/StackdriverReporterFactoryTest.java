@@ -0,0 +1,60 @@
+package io.github.fabito.dropwizard.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.api.services.monitoring.v3.Monitoring;
+import io.dropwizard.configuration.ResourceConfigurationSourceProvider;
+import io.dropwizard.configuration.YamlConfigurationFactory;
+import io.dropwizard.jackson.DiscoverableSubtypeResolver;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.metrics.ReporterFactory;
+import io.dropwizard.validation.BaseValidator;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+
+public class StackdriverReporterFactoryTest {
+
+    @Test
+    public void isDiscoverable() throws Exception {
+        assertThat(new DiscoverableSubtypeResolver().getDiscoveredSubtypes(), hasItem(StackdriverReporterFactory.class));
+    }
+
+    @Test
+    public void buildsReporterFromYaml() throws Exception {
+        final ReporterFactory factory = new YamlConfigurationFactory<>(ReporterFactory.class, BaseValidator.newValidator(), Jackson.newObjectMapper(), "dw")
+                .build(new ResourceConfigurationSourceProvider(), "yaml/stackdriver.yml");
+        assertThat(factory, instanceOf(StackdriverReporterFactory.class));
+        final JsonNode properties = Jackson.newObjectMapper().valueToTree(factory);
+        assertThat(properties.get("projectId").asText(), is("my-gcp-project-id"));
+        assertThat(properties.get("prefix").asText(), is("web1"));
+        assertThat(properties.get("batchSize").asInt(), is(100));
+        assertThat(properties.get("senderThreads").asInt(), is(2));
+        assertThat(properties.get("sendTimeout").asText(), is("5 seconds"));
+        assertThat(properties.get("reportChangesOnly").asBoolean(), is(true));
+        assertThat(properties.get("abbreviateNamesTo").asInt(), is(30));
+        assertThat(properties.get("labelTemplates").get(0).asText(), is("http.{method}.{status}"));
+        assertThat(properties.get("aggregateDroppingLabels").get(0).asText(), is("tenant"));
+        assertThat(properties.get("resourceType").asText(), is("global"));
+        assertThat(properties.get("jitter").asText(), is("15 seconds"));
+        assertThat(properties.get("alignToWallClock").asBoolean(), is(true));
+        assertThat(properties.get("frequencyByName").get("jvm\\..*").asText(), is("5 minutes"));
+        assertThat(properties.get("timerAttributes").toString(), is("[\"P50\",\"P99\",\"COUNT\",\"M1_RATE\"]"));
+        assertThat(properties.get("attributesByName").get("jvm\\..*").toString(), is("[\"COUNT\"]"));
+        assertThat(properties.get("disabledAttributes").toString(), is("[\"M15_RATE\"]"));
+        assertThat(properties.get("excludes").get(0).asText(), is("jvm.threads.deadlocks"));
+
+        final StackdriverReporterFactory stackdriverReporterFactory = spy((StackdriverReporterFactory) factory);
+        doReturn(mock(Monitoring.class)).when(stackdriverReporterFactory).monitoring();
+        final ScheduledReporter reporter = stackdriverReporterFactory.build(new MetricRegistry());
+        reporter.stop();
+        assertThat(reporter, instanceOf(StackdriverMonitoringReporter.class));
+    }
+}
@@ -0,0 +1,32 @@
+package io.github.fabito.dropwizard.metrics;
+
+import io.dropwizard.util.Duration;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class StackdriverReporterManagerTest {
+
+    private final StackdriverMonitoringReporter reporter = mock(StackdriverMonitoringReporter.class);
+    private final StackdriverReporterManager manager = new StackdriverReporterManager(reporter, Duration.minutes(1), Duration.seconds(5));
+
+    @Test
+    public void startsTheReporterAtItsPeriod() throws Exception {
+        manager.start();
+
+        verify(reporter).start(1, TimeUnit.MINUTES);
+        verifyNoMoreInteractions(reporter);
+    }
+
+    @Test
+    public void stopsTheReporterAfterAFinalReport() throws Exception {
+        manager.stop();
+
+        verify(reporter).stopAfterFinalReport(5, TimeUnit.SECONDS);
+        verifyNoMoreInteractions(reporter);
+    }
+}
@@ -0,0 +1,114 @@
+package io.github.fabito.dropwizard.metrics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static io.github.fabito.dropwizard.metrics.TimeSeriesTransport.Encoding.JSON;
+import static io.github.fabito.dropwizard.metrics.TimeSeriesTransport.Encoding.PROTOBUF;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TimeSeriesSpoolTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void evictsOldestRecordsAndSurvivesReopening() throws Exception {
+        final File location = temporaryFolder.newFile();
+        try (TimeSeriesSpool spool = new TimeSeriesSpool(location, 1024, JSON)) {
+            for (int i = 0; i < 20; i++) {
+                final byte[] record = new byte[100];
+                Arrays.fill(record, (byte) i);
+                assertTrue(spool.append(record));
+            }
+            assertFalse(spool.append(new byte[1024]));
+            assertThat(spool.size(), is(9));
+            assertThat(spool.evicted(), is(11L));
+            spool.remove();
+        }
+        try (TimeSeriesSpool spool = new TimeSeriesSpool(location, 1024, JSON)) {
+            assertThat(spool.size(), is(8));
+            for (int i = 12; i < 20; i++) {
+                assertThat(spool.peek()[0], is((byte) i));
+                spool.remove();
+            }
+            assertNull(spool.peek());
+        }
+    }
+
+    @Test
+    public void discardsSegmentsOfAnotherEncoding() throws Exception {
+        final File location = spooled(3);
+
+        try (TimeSeriesSpool spool = new TimeSeriesSpool(location, 1024, PROTOBUF)) {
+            assertThat(spool.size(), is(0));
+            assertTrue(spool.append(new byte[] {42}));
+        }
+        try (TimeSeriesSpool spool = new TimeSeriesSpool(location, 1024, JSON)) {
+            assertThat(spool.size(), is(0));
+        }
+    }
+
+    @Test
+    public void discardsSegmentsWithRingPositionsOutOfBounds() throws Exception {
+        final File location = spooled(3);
+        try (RandomAccessFile file = new RandomAccessFile(location, "rw")) {
+            // the tail
+            file.seek(8);
+            file.writeInt(4096);
+        }
+
+        assertEmptyAndUsable(location);
+    }
+
+    @Test
+    public void discardsSegmentsWithANegativeCount() throws Exception {
+        final File location = spooled(3);
+        try (RandomAccessFile file = new RandomAccessFile(location, "rw")) {
+            file.seek(12);
+            file.writeInt(-1);
+        }
+
+        assertEmptyAndUsable(location);
+    }
+
+    @Test
+    public void discardsSegmentsWithARecordLongerThanTheRing() throws Exception {
+        final File location = spooled(3);
+        try (RandomAccessFile file = new RandomAccessFile(location, "rw")) {
+            // the length of the oldest record, right after the header
+            file.seek(20);
+            file.writeInt(1000);
+        }
+
+        assertEmptyAndUsable(location);
+    }
+
+    private File spooled(int records) throws Exception {
+        final File location = temporaryFolder.newFile();
+        try (TimeSeriesSpool spool = new TimeSeriesSpool(location, 1024, JSON)) {
+            for (int i = 0; i < records; i++) {
+                spool.append(new byte[100]);
+            }
+        }
+        return location;
+    }
+
+    private static void assertEmptyAndUsable(File location) throws Exception {
+        try (TimeSeriesSpool spool = new TimeSeriesSpool(location, 1024, JSON)) {
+            assertThat(spool.size(), is(0));
+            assertNull(spool.peek());
+            assertTrue(spool.append(new byte[] {42}));
+            assertThat(spool.peek(), is(new byte[] {42}));
+        }
+    }
+}
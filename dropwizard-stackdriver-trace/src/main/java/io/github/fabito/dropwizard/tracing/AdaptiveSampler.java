@@ -0,0 +1,63 @@
+package io.github.fabito.dropwizard.tracing;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records traces with a probability adjusted every second so that, on average, about a given number of traces per
+ * second are recorded on this instance whatever its traffic. Unlike a rate limit, the recorded traces are spread
+ * over the second instead of being the first ones of each second.
+ * <p/>
+ * The probability drops as soon as the traffic grows and rises back progressively, so that a single burst does not
+ * stop tracing for long. Until it has adjusted, e.g. in the first second, no more than twice the given traces per
+ * second are recorded.
+ */
+class AdaptiveSampler implements Sampler {
+
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double SMOOTHING = 0.5;
+
+    private final double tracesPerSecond;
+    private final Ticker ticker;
+    private final RateLimitingSampler ceiling;
+    private final LongAdder requests = new LongAdder();
+    private final AtomicLong windowStart;
+    private volatile double probability = 1.0;
+
+    AdaptiveSampler(double tracesPerSecond) {
+        this(tracesPerSecond, Ticker.systemTicker());
+    }
+
+    AdaptiveSampler(double tracesPerSecond, Ticker ticker) {
+        if (!(tracesPerSecond > 0.0)) {
+            throw new IllegalArgumentException("tracesPerSecond must be positive");
+        }
+        this.tracesPerSecond = tracesPerSecond;
+        this.ticker = ticker;
+        this.ceiling = new RateLimitingSampler(2 * tracesPerSecond, ticker);
+        this.windowStart = new AtomicLong(ticker.read());
+    }
+
+    @Override
+    public boolean sample() {
+        final long now = ticker.read();
+        final long start = windowStart.get();
+        if (now - start >= WINDOW_NANOS && windowStart.compareAndSet(start, now)) {
+            adjust(requests.sumThenReset(), now - start);
+        }
+        requests.increment();
+        final double p = probability;
+        return (p >= 1.0 || ThreadLocalRandom.current().nextDouble() < p) && ceiling.sample();
+    }
+
+    private void adjust(long count, long elapsedNanos) {
+        final double rate = count * (double) WINDOW_NANOS / elapsedNanos;
+        final double target = rate <= tracesPerSecond ? 1.0 : tracesPerSecond / rate;
+        final double current = probability;
+        probability = target < current ? target : current + SMOOTHING * (target - current);
+    }
+}
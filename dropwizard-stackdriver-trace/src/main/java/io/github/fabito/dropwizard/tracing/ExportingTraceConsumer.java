@@ -0,0 +1,283 @@
+package io.github.fabito.dropwizard.tracing;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import com.google.cloud.trace.v1.consumer.FlushableTraceConsumer;
+import com.google.cloud.trace.v1.consumer.TraceConsumer;
+import com.google.cloud.trace.v1.util.Sizer;
+import com.google.cloud.trace.v1.util.TraceBuffer;
+import com.google.devtools.cloudtrace.v1.Trace;
+import com.google.devtools.cloudtrace.v1.Traces;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Buffers the spans recorded by the tracer and exports them to the given consumer, in batches of up to
+ * {@code flushBytes} bytes, as soon as that many bytes or {@code flushSpans} span updates are buffered, or when
+ * {@link #flush()} is called. Replaces {@link com.google.cloud.trace.v1.consumer.ScheduledBufferingTraceConsumer},
+ * whose buffer grows without bounds when the export falls behind and which does not tell how it fares.
+ * <p/>
+ * Up to {@code maxConcurrentExports} batches are exported at once on the given executor, the next batch being
+ * taken off the buffer as soon as an export completes, so that exports keep up with bursts. The updates of a span
+ * may then be exported out of order, which the API merges all the same.
+ * <p/>
+ * The buffer holds up to {@code capacity} bytes, beyond which spans are handled according to the
+ * {@link OverflowPolicy}. Span updates larger than the whole buffer are always dropped. Sizes are the estimates of
+ * the given {@link Sizer}.
+ * <p/>
+ * Publishes, under the given name:
+ * <ul>
+ * <li>{@code buffered-bytes} and {@code buffer-fill}, the bytes buffered and their ratio to the capacity;</li>
+ * <li>{@code flushes}, the flushes, by size or by schedule, starting at least one export;</li>
+ * <li>{@code exports}, the latency of each export;</li>
+ * <li>{@code exported-bytes} and {@code exported-spans}, the serialized size and spans of the exported batches;</li>
+ * <li>{@code dropped-spans}, the span updates dropped by the overflow policy or by a failed export;</li>
+ * <li>{@code failures}, the failed exports.</li>
+ * </ul>
+ */
+class ExportingTraceConsumer implements FlushableTraceConsumer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExportingTraceConsumer.class);
+
+    private final TraceConsumer delegate;
+    private final Sizer<Trace> sizer;
+    private final int flushBytes;
+    private final int flushSpans;
+    private final long capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutNanos;
+    private final Executor executor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<Buffered> buffer = new ArrayDeque<>();
+    private final int maxConcurrentExports;
+    private final Semaphore exportPermits;
+    private volatile long bufferedBytes;
+    private volatile long bufferedSpans;
+    private volatile boolean flushRequested;
+    private final Counter flushes;
+    private final Timer exports;
+    private final Counter exportedBytes;
+    private final Counter exportedSpans;
+    private final Counter droppedSpans;
+    private final Counter failures;
+
+    ExportingTraceConsumer(TraceConsumer delegate, Sizer<Trace> sizer, int flushBytes, int flushSpans, long capacity,
+                           OverflowPolicy overflowPolicy, long blockTimeout, TimeUnit blockTimeoutUnit,
+                           int maxConcurrentExports, Executor executor, MetricRegistry metrics, String name) {
+        this.delegate = delegate;
+        this.sizer = sizer;
+        this.flushBytes = flushBytes;
+        this.flushSpans = flushSpans;
+        this.maxConcurrentExports = maxConcurrentExports;
+        this.exportPermits = new Semaphore(maxConcurrentExports);
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutNanos = blockTimeoutUnit.toNanos(blockTimeout);
+        this.executor = executor;
+        this.flushes = metrics.counter(MetricRegistry.name(name, "export", "flushes"));
+        this.exports = metrics.timer(MetricRegistry.name(name, "export", "exports"));
+        this.exportedBytes = metrics.counter(MetricRegistry.name(name, "export", "exported-bytes"));
+        this.exportedSpans = metrics.counter(MetricRegistry.name(name, "export", "exported-spans"));
+        this.droppedSpans = metrics.counter(MetricRegistry.name(name, "export", "dropped-spans"));
+        this.failures = metrics.counter(MetricRegistry.name(name, "export", "failures"));
+        metrics.register(MetricRegistry.name(name, "export", "buffered-bytes"), (Gauge<Long>) () -> bufferedBytes);
+        metrics.register(MetricRegistry.name(name, "export", "buffer-fill"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(bufferedBytes, capacity);
+            }
+        });
+    }
+
+    @Override
+    public void receive(Traces traces) {
+        for (Trace trace : traces.getTracesList()) {
+            offer(trace);
+        }
+        if (bufferedBytes >= flushBytes || bufferedSpans >= flushSpans) {
+            dispatch();
+        }
+    }
+
+    /**
+     * Exports every buffered span, without waiting for the exports to complete.
+     */
+    @Override
+    public void flush() {
+        flushRequested = true;
+        dispatch();
+    }
+
+    /**
+     * Exports every buffered span and waits for the exports to complete, for up to the given time, e.g. before the
+     * executor is shut down. Exports are still limited to {@code maxConcurrentExports} at once, so a large buffer
+     * may take several rounds.
+     *
+     * @return whether the buffer was emptied and every export completed in time
+     */
+    boolean flushAndAwait(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            flush();
+            if (!exportPermits.tryAcquire(maxConcurrentExports, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+            exportPermits.release(maxConcurrentExports);
+            if (bufferedSpans == 0) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Starts exports while there are spans to flush and exports left to start.
+     */
+    private void dispatch() {
+        boolean dispatched = false;
+        while ((flushRequested || bufferedBytes >= flushBytes || bufferedSpans >= flushSpans) && exportPermits.tryAcquire()) {
+            final Traces batch = poll();
+            if (batch == null) {
+                flushRequested = false;
+                exportPermits.release();
+                break;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        export(batch);
+                    } finally {
+                        exportPermits.release();
+                    }
+                    dispatch();
+                });
+                dispatched = true;
+            } catch (RejectedExecutionException e) {
+                exportPermits.release();
+                droppedSpans.inc(spans(batch));
+                LOGGER.debug("Trace export stopped, dropping spans", e);
+                break;
+            }
+        }
+        if (dispatched) {
+            flushes.inc();
+        }
+    }
+
+    private boolean offer(Trace trace) {
+        final int size = sizer.size(trace);
+        if (size > capacity) {
+            drop(trace);
+            return false;
+        }
+        lock.lock();
+        try {
+            long nanos = blockTimeoutNanos;
+            while (bufferedBytes + size > capacity) {
+                if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                    drop(trace);
+                    return false;
+                }
+                if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                    final Buffered oldest = buffer.poll();
+                    bufferedBytes -= oldest.size;
+                    bufferedSpans -= oldest.trace.getSpansCount();
+                    drop(oldest.trace);
+                } else {
+                    if (nanos <= 0) {
+                        drop(trace);
+                        return false;
+                    }
+                    nanos = notFull.awaitNanos(nanos);
+                }
+            }
+            buffer.add(new Buffered(trace, size));
+            bufferedBytes += size;
+            bufferedSpans += trace.getSpansCount();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drop(trace);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a batch of up to {@code flushBytes} bytes, or of one span update when it is larger, off the buffer.
+     */
+    private Traces poll() {
+        final TraceBuffer batch = new TraceBuffer();
+        lock.lock();
+        try {
+            long batchBytes = 0;
+            long batchSpans = 0;
+            while (!buffer.isEmpty() && (batchBytes == 0 || batchBytes + buffer.peek().size <= flushBytes)) {
+                final Buffered buffered = buffer.poll();
+                batchBytes += buffered.size;
+                batchSpans += buffered.trace.getSpansCount();
+                batch.put(buffered.trace);
+            }
+            if (batch.isEmpty()) {
+                return null;
+            }
+            bufferedBytes -= batchBytes;
+            bufferedSpans -= batchSpans;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return batch.getTraces();
+    }
+
+    private void export(Traces traces) {
+        final int spans = spans(traces);
+        final Timer.Context context = exports.time();
+        try {
+            delegate.receive(traces);
+            exportedSpans.inc(spans);
+            exportedBytes.inc(traces.getSerializedSize());
+        } catch (RuntimeException e) {
+            failures.inc();
+            droppedSpans.inc(spans);
+            LOGGER.warn("Could not export {} spans", spans, e);
+        } finally {
+            context.stop();
+        }
+    }
+
+    private void drop(Trace trace) {
+        droppedSpans.inc(trace.getSpansCount());
+    }
+
+    private static int spans(Traces traces) {
+        int spans = 0;
+        for (Trace trace : traces.getTracesList()) {
+            spans += trace.getSpansCount();
+        }
+        return spans;
+    }
+
+    private static final class Buffered {
+
+        private final Trace trace;
+        private final int size;
+
+        private Buffered(Trace trace, int size) {
+            this.trace = trace;
+            this.size = size;
+        }
+    }
+}
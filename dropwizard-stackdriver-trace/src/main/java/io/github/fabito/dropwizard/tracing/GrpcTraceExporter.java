@@ -0,0 +1,57 @@
+package io.github.fabito.dropwizard.tracing;
+
+import com.google.auth.Credentials;
+import com.google.cloud.trace.v1.consumer.TraceConsumer;
+import com.google.devtools.cloudtrace.v1.PatchTracesRequest;
+import com.google.devtools.cloudtrace.v1.TraceServiceGrpc;
+import com.google.devtools.cloudtrace.v1.Traces;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.auth.MoreCallCredentials;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports traces with the Stackdriver Trace gRPC API, like {@link com.google.cloud.trace.grpc.v1.GrpcTraceConsumer},
+ * but with a deadline on each call so that a stuck export does not hold one of the concurrent exports forever.
+ * <p/>
+ * Thread safe: concurrent exports share one channel, multiplexed over the same connection.
+ */
+class GrpcTraceExporter implements TraceConsumer {
+
+    private final ManagedChannel channel;
+    private final TraceServiceGrpc.TraceServiceBlockingStub stub;
+    private final long timeoutNanos;
+
+    GrpcTraceExporter(String host, Credentials credentials, long timeout, TimeUnit unit) {
+        this.channel = ManagedChannelBuilder.forTarget(host).build();
+        this.stub = TraceServiceGrpc.newBlockingStub(channel)
+                .withCallCredentials(MoreCallCredentials.from(credentials));
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    @Override
+    public void receive(Traces traces) {
+        if (traces.getTracesCount() == 0) {
+            return;
+        }
+        stub.withDeadlineAfter(timeoutNanos, TimeUnit.NANOSECONDS).patchTraces(PatchTracesRequest.newBuilder()
+                .setProjectId(traces.getTraces(0).getProjectId())
+                .setTraces(traces)
+                .build());
+    }
+
+    /**
+     * Closes the channel, letting the exports in flight complete for up to the given time before cancelling them.
+     *
+     * @return whether the channel closed in time
+     */
+    boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        channel.shutdown();
+        if (channel.awaitTermination(timeout, unit)) {
+            return true;
+        }
+        channel.shutdownNow();
+        return false;
+    }
+}
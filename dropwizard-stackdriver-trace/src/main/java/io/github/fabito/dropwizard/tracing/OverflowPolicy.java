@@ -0,0 +1,22 @@
+package io.github.fabito.dropwizard.tracing;
+
+/**
+ * What happens to the spans recorded while the trace export buffer is full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * The new spans are dropped.
+     */
+    DROP_NEWEST,
+
+    /**
+     * The oldest buffered spans are dropped to make room for the new ones.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The thread recording the spans waits for room, up to a timeout, after which the new spans are dropped.
+     */
+    BLOCK
+}
@@ -0,0 +1,23 @@
+package io.github.fabito.dropwizard.tracing;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Records each trace with a fixed probability.
+ */
+class ProbabilitySampler implements Sampler {
+
+    private final double probability;
+
+    ProbabilitySampler(double probability) {
+        if (probability < 0.0 || probability > 1.0) {
+            throw new IllegalArgumentException(probability + " is not in [0..1]");
+        }
+        this.probability = probability;
+    }
+
+    @Override
+    public boolean sample() {
+        return ThreadLocalRandom.current().nextDouble() < probability;
+    }
+}
@@ -0,0 +1,51 @@
+package io.github.fabito.dropwizard.tracing;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records at most a given number of traces per second on this instance, allowing bursts of up to one second worth
+ * of traces after a quiet period.
+ * <p/>
+ * Lock free: a single compare-and-set of the time the next trace is due, rather than the lock of a
+ * {@link com.google.common.util.concurrent.RateLimiter}.
+ */
+class RateLimitingSampler implements Sampler {
+
+    private final Ticker ticker;
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong due;
+
+    RateLimitingSampler(double tracesPerSecond) {
+        this(tracesPerSecond, Ticker.systemTicker());
+    }
+
+    RateLimitingSampler(double tracesPerSecond, Ticker ticker) {
+        if (!(tracesPerSecond > 0.0)) {
+            throw new IllegalArgumentException("tracesPerSecond must be positive");
+        }
+        this.ticker = ticker;
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / tracesPerSecond));
+        this.burstNanos = Math.max(intervalNanos, TimeUnit.SECONDS.toNanos(1));
+        this.due = new AtomicLong(ticker.read() - burstNanos);
+    }
+
+    @Override
+    public boolean sample() {
+        final long now = ticker.read();
+        while (true) {
+            final long current = due.get();
+            // the schedule never lags more than the burst behind now, so idle periods do not pile up traces
+            final long next = (current - now > -burstNanos ? current : now - burstNanos) + intervalNanos;
+            if (next - now > 0) {
+                return false;
+            }
+            if (due.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package io.github.fabito.dropwizard.tracing;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * Wraps the tracing filter to let the {@link SamplingTraceOptionsFactory} know which request it samples.
+ */
+class RouteFilter implements Filter {
+
+    private final Filter delegate;
+    private final SamplingTraceOptionsFactory traceOptionsFactory;
+
+    RouteFilter(Filter delegate, SamplingTraceOptionsFactory traceOptionsFactory) {
+        this.delegate = delegate;
+        this.traceOptionsFactory = traceOptionsFactory;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        delegate.init(filterConfig);
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest)) {
+            delegate.doFilter(request, response, chain);
+            return;
+        }
+        traceOptionsFactory.enter(((HttpServletRequest) request).getRequestURI());
+        try {
+            delegate.doFilter(request, response, chain);
+        } finally {
+            traceOptionsFactory.exit();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        delegate.destroy();
+    }
+}
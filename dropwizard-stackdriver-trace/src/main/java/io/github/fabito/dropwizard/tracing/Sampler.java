@@ -0,0 +1,14 @@
+package io.github.fabito.dropwizard.tracing;
+
+/**
+ * Decides whether a new trace is recorded. Called once per request starting a trace, before any span is created, so
+ * it must be cheap and thread safe.
+ */
+interface Sampler {
+
+    Sampler ALWAYS = () -> true;
+
+    Sampler NEVER = () -> false;
+
+    boolean sample();
+}
@@ -0,0 +1,104 @@
+package io.github.fabito.dropwizard.tracing;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Configures how the requests starting a new trace are sampled. Requests carrying the trace context of a caller
+ * follow the decision of the caller.
+ *
+ * <b>Configuration Parameters:</b>
+ * <table>
+ *     <tr>
+ *         <td>Name</td>
+ *         <td>Default</td>
+ *         <td>Description</td>
+ *     </tr>
+ *     <tr>
+ *         <td>type</td>
+ *         <td>rate-limited</td>
+ *         <td>(Optional) One of:
+ *         <ul>
+ *             <li>{@code always}: every request is traced;</li>
+ *             <li>{@code never}: no request is traced;</li>
+ *             <li>{@code probability}: each request is traced with the given probability;</li>
+ *             <li>{@code rate-limited}: at most tracesPerSecond requests are traced per second on each instance;</li>
+ *             <li>{@code adaptive}: about tracesPerSecond requests, spread over each second, are traced on each
+ *             instance, adjusting the probability of tracing a request to the traffic.</li>
+ *         </ul></td>
+ *     </tr>
+ *     <tr>
+ *         <td>probability</td>
+ *         <td>0.01</td>
+ *         <td>(Optional) The probability of tracing a request, for the probability sampler.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>tracesPerSecond</td>
+ *         <td>1</td>
+ *         <td>(Optional) The traces per second of each instance, for the rate limited and adaptive samplers.</td>
+ *     </tr>
+ * </table>
+ */
+public class SamplerConfiguration {
+
+    public enum Type {
+        ALWAYS, NEVER, PROBABILITY, RATE_LIMITED, ADAPTIVE
+    }
+
+    @JsonProperty
+    @NotNull
+    private Type type = Type.RATE_LIMITED;
+
+    @JsonProperty
+    @DecimalMin("0")
+    @DecimalMax("1")
+    private double probability = 0.01;
+
+    @JsonProperty
+    @DecimalMin(value = "0", inclusive = false)
+    private double tracesPerSecond = 1;
+
+    /**
+     * Whether most requests are traced, as the tail sampler needs.
+     */
+    boolean tracesMostRequests() {
+        return type == Type.ALWAYS || type == Type.PROBABILITY && probability >= 0.5;
+    }
+
+    /**
+     * Whether no request is traced, e.g. to leave health checks out.
+     */
+    boolean tracesNoRequest() {
+        return type == Type.NEVER || type == Type.PROBABILITY && probability <= 0.0;
+    }
+
+    Sampler build() {
+        switch (type) {
+            case ALWAYS:
+                return Sampler.ALWAYS;
+            case NEVER:
+                return Sampler.NEVER;
+            case PROBABILITY:
+                return probability >= 1.0 ? Sampler.ALWAYS : probability <= 0.0 ? Sampler.NEVER : new ProbabilitySampler(probability);
+            case RATE_LIMITED:
+                return new RateLimitingSampler(tracesPerSecond);
+            case ADAPTIVE:
+                return new AdaptiveSampler(tracesPerSecond);
+            default:
+                throw new IllegalArgumentException("Unsupported sampler " + type);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("type", type)
+                .add("probability", probability)
+                .add("tracesPerSecond", tracesPerSecond)
+                .toString();
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.fabito.dropwizard.tracing;
+
+import com.google.cloud.trace.core.TraceOptions;
+import com.google.cloud.trace.core.TraceOptionsFactory;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether the traces started by this instance are recorded, when their {@link
+ * com.google.cloud.trace.core.SpanContext} is created and before any span is, with the {@link Sampler} of the
+ * request being served: the one of the first route matching its URI, or the default one. Traces continued from a
+ * caller keep the options of the caller.
+ * <p/>
+ * The URI of the request is set by the {@link RouteFilter} around the tracing filter, and only matched against the
+ * routes when a trace is started.
+ */
+class SamplingTraceOptionsFactory implements TraceOptionsFactory {
+
+    private static final TraceOptions ENABLED = TraceOptions.forTraceEnabled();
+    private static final TraceOptions DISABLED = TraceOptions.forTraceDisabled();
+
+    private final Sampler sampler;
+    private final Map<Pattern, Sampler> routes;
+    private final ThreadLocal<String> uri = new ThreadLocal<>();
+
+    SamplingTraceOptionsFactory(Sampler sampler, Map<Pattern, Sampler> routes) {
+        this.sampler = sampler;
+        this.routes = ImmutableMap.copyOf(routes);
+    }
+
+    @Override
+    public TraceOptions create() {
+        return sampler().sample() ? ENABLED : DISABLED;
+    }
+
+    @Override
+    public TraceOptions create(TraceOptions parentOptions) {
+        return parentOptions;
+    }
+
+    boolean hasRoutes() {
+        return !routes.isEmpty();
+    }
+
+    /**
+     * Sets the URI of the request served by the current thread, until {@link #exit()}.
+     */
+    void enter(String requestUri) {
+        uri.set(requestUri);
+    }
+
+    void exit() {
+        uri.remove();
+    }
+
+    private Sampler sampler() {
+        final String requestUri = uri.get();
+        if (requestUri != null) {
+            for (Map.Entry<Pattern, Sampler> route : routes.entrySet()) {
+                if (route.getKey().matcher(requestUri).matches()) {
+                    return route.getValue();
+                }
+            }
+        }
+        return sampler;
+    }
+}
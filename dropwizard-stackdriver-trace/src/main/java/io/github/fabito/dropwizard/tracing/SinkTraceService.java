@@ -0,0 +1,43 @@
+package io.github.fabito.dropwizard.tracing;
+
+import com.google.cloud.trace.GrpcSpanContextHandler;
+import com.google.cloud.trace.SpanContextHandler;
+import com.google.cloud.trace.SpanContextHandlerTracer;
+import com.google.cloud.trace.Tracer;
+import com.google.cloud.trace.core.JavaTimestampFactory;
+import com.google.cloud.trace.core.SpanContextFactory;
+import com.google.cloud.trace.core.TraceOptionsFactory;
+import com.google.cloud.trace.service.TraceService;
+import com.google.cloud.trace.sink.TraceSink;
+
+/**
+ * A {@link TraceService} recording spans to the given {@link TraceSink}. Assembled like
+ * {@link com.google.cloud.trace.service.TraceGrpcApiService}, which does not let its sink be decorated.
+ */
+class SinkTraceService implements TraceService {
+
+    private final SpanContextFactory spanContextFactory;
+    private final SpanContextHandler spanContextHandler;
+    private final Tracer tracer;
+
+    SinkTraceService(TraceSink sink, TraceOptionsFactory traceOptionsFactory) {
+        this.spanContextFactory = new SpanContextFactory(traceOptionsFactory);
+        this.spanContextHandler = new GrpcSpanContextHandler(spanContextFactory.initialContext());
+        this.tracer = new SpanContextHandlerTracer(sink, spanContextHandler, spanContextFactory, new JavaTimestampFactory());
+    }
+
+    @Override
+    public Tracer getTracer() {
+        return tracer;
+    }
+
+    @Override
+    public SpanContextHandler getSpanContextHandler() {
+        return spanContextHandler;
+    }
+
+    @Override
+    public SpanContextFactory getSpanContextFactory() {
+        return spanContextFactory;
+    }
+}
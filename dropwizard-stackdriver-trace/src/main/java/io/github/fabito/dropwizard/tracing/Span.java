@@ -0,0 +1,37 @@
+package io.github.fabito.dropwizard.tracing;
+
+/**
+ * A span started by a {@link SpanTracer}, ended when closed:
+ *
+ * <code>
+ *    try (Span span = spanTracer.start("load-order")) {
+ *        span.label("order", orderId);
+ *        ...
+ *    }
+ * </code>
+ *
+ * Spans must not be used once closed. Spans of requests which are not sampled do nothing.
+ */
+public interface Span extends AutoCloseable {
+
+    /**
+     * Adds a label, sent when the span ends.
+     */
+    Span label(String key, String value);
+
+    /**
+     * Adds a label, only turned into a string when the span is sampled.
+     */
+    Span label(String key, long value);
+
+    /**
+     * Whether the span is recorded, e.g. to skip computing costly labels.
+     */
+    boolean isSampled();
+
+    /**
+     * Ends the span.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,152 @@
+package io.github.fabito.dropwizard.tracing;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.cloud.trace.sink.TraceSink;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Ticker;
+import io.dropwizard.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configures the tail sampler, which only exports the sampled traces that turn out to be slow or failed, plus a
+ * random baseline. It only decides among the traces already kept by the {@link SamplerConfiguration sampler}: with
+ * the default sampler, rate limited to 1 trace per second, most slow and failed requests are never seen. Set
+ * {@code sampler.type} to {@code always}, or to {@code probability} with a high probability, when tail sampling;
+ * a warning is logged at startup otherwise.
+ *
+ * <b>Configuration Parameters:</b>
+ * <table>
+ *     <tr>
+ *         <td>Name</td>
+ *         <td>Default</td>
+ *         <td>Description</td>
+ *     </tr>
+ *     <tr>
+ *         <td>latencyThreshold</td>
+ *         <td>1 second</td>
+ *         <td>(Optional) Traces taking at least this long are exported.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>keepServerErrors</td>
+ *         <td>true</td>
+ *         <td>(Optional) Whether traces with a 5xx response are exported.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>baselineProbability</td>
+ *         <td>0.01</td>
+ *         <td>(Optional) The probability of exporting any other trace.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>window</td>
+ *         <td>10 seconds</td>
+ *         <td>(Optional) How long the spans of a trace are held, at most, before it is decided.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>maxTraces</td>
+ *         <td>1000</td>
+ *         <td>(Optional) The traces held at most. The oldest one is dropped to make room for a new one.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>tracesPerSecond</td>
+ *         <td>100</td>
+ *         <td>(Optional) The expected rate of sampled traces. The decisions taken during the last window, that is
+ *         window &times; tracesPerSecond of them, are remembered so that late spans follow their trace.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>maxDecisions</td>
+ *         <td>100000</td>
+ *         <td>(Optional) The decisions remembered at most, whatever the rate. The oldest ones are forgotten first,
+ *         and the late spans of their traces held again as new traces.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>maxSpansPerTrace</td>
+ *         <td>128</td>
+ *         <td>(Optional) The spans held at most per trace. The next ones are dropped.</td>
+ *     </tr>
+ * </table>
+ */
+public class TailSamplerConfiguration {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TailSamplerConfiguration.class);
+
+    @JsonProperty
+    @NotNull
+    private Duration latencyThreshold = Duration.seconds(1);
+
+    @JsonProperty
+    private boolean keepServerErrors = true;
+
+    @JsonProperty
+    @DecimalMin("0")
+    @DecimalMax("1")
+    private double baselineProbability = 0.01;
+
+    @JsonProperty
+    @NotNull
+    private Duration window = Duration.seconds(10);
+
+    @JsonProperty
+    @Min(1)
+    private int maxTraces = 1000;
+
+    @JsonProperty
+    @Min(1)
+    private int tracesPerSecond = 100;
+
+    @JsonProperty
+    @Min(1)
+    private int maxDecisions = 100000;
+
+    @JsonProperty
+    @Min(1)
+    private int maxSpansPerTrace = 128;
+
+    /**
+     * Wraps the given sink, deciding the traces held for longer than the window on the given executor.
+     */
+    TraceSink build(TraceSink sink, ScheduledExecutorService executor, MetricRegistry metrics, String name) {
+        final TailSamplingTraceSink tailSampler = new TailSamplingTraceSink(sink, Ticker.systemTicker(),
+                window.toNanoseconds(), latencyThreshold.toNanoseconds(), keepServerErrors, baselineProbability,
+                maxTraces, decisionCacheSize(), maxSpansPerTrace, metrics, name);
+        final long period = Math.max(1, Math.min(window.toMilliseconds(), TimeUnit.SECONDS.toMillis(1)));
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                tailSampler.expire();
+            } catch (RuntimeException e) {
+                LOGGER.error("Could not decide the expired traces", e);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+        return tailSampler;
+    }
+
+    /**
+     * The number of decisions taken during a window at the expected rate, capped by {@code maxDecisions}.
+     */
+    int decisionCacheSize() {
+        final double decisions = Math.ceil(window.toNanoseconds() * (double) tracesPerSecond / TimeUnit.SECONDS.toNanos(1));
+        return (int) Math.max(1, Math.min(maxDecisions, decisions));
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("latencyThreshold", latencyThreshold)
+                .add("keepServerErrors", keepServerErrors)
+                .add("baselineProbability", baselineProbability)
+                .add("window", window)
+                .add("maxTraces", maxTraces)
+                .add("tracesPerSecond", tracesPerSecond)
+                .add("maxDecisions", maxDecisions)
+                .add("maxSpansPerTrace", maxSpansPerTrace)
+                .toString();
+    }
+}
@@ -0,0 +1,298 @@
+package io.github.fabito.dropwizard.tracing;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.cloud.trace.core.Label;
+import com.google.cloud.trace.core.Labels;
+import com.google.cloud.trace.core.SpanContext;
+import com.google.cloud.trace.core.SpanId;
+import com.google.cloud.trace.core.SpanKind;
+import com.google.cloud.trace.core.StackTrace;
+import com.google.cloud.trace.core.Timestamp;
+import com.google.cloud.trace.core.TraceId;
+import com.google.cloud.trace.sink.TraceSink;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Holds the spans of each sampled trace until its first local span, usually the one of the request served, ends,
+ * then passes them on to the given sink only if the trace:
+ * <ul>
+ * <li>took at least the latency threshold;</li>
+ * <li>or got a 5xx response, in its own response or in the response of a call it made;</li>
+ * <li>or is part of the random baseline.</li>
+ * </ul>
+ * Traces still running after the window are decided on what is known of them so far. Decisions are remembered for
+ * the window, so that the spans recorded after a trace has been decided are passed on, or dropped, right away.
+ * Events of spans whose start was never seen are dropped, along with the traces made only of them, without being
+ * counted as decided.
+ * <p/>
+ * Memory is capped: at most {@code maxTraces} traces are held, the oldest one being dropped to make room for a new
+ * one, at most {@code maxSpansPerTrace} spans are held per trace, the next ones being dropped, and at most
+ * {@code maxDecisions} decisions are remembered, the oldest ones being forgotten first.
+ */
+class TailSamplingTraceSink implements TraceSink {
+
+    static final String STATUS_CODE_LABEL = "/http/status_code";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TailSamplingTraceSink.class);
+    private static final int EVENTS_PER_SPAN = 4;
+
+    private final TraceSink delegate;
+    private final Ticker ticker;
+    private final long windowNanos;
+    private final long latencyThresholdNanos;
+    private final boolean keepServerErrors;
+    private final double baselineProbability;
+    private final int maxTraces;
+    private final int maxSpansPerTrace;
+    private final Object lock = new Object();
+    private final LinkedHashMap<TraceId, PendingTrace> pending = new LinkedHashMap<>();
+    private final Cache<TraceId, Boolean> decisions;
+    private final Counter keptSlow;
+    private final Counter keptError;
+    private final Counter keptBaseline;
+    private final Counter dropped;
+    private final Counter evicted;
+    private final Counter truncated;
+
+    TailSamplingTraceSink(TraceSink delegate, Ticker ticker, long windowNanos, long latencyThresholdNanos, boolean keepServerErrors,
+                          double baselineProbability, int maxTraces, int maxDecisions, int maxSpansPerTrace, MetricRegistry metrics, String name) {
+        this.delegate = delegate;
+        this.ticker = ticker;
+        this.windowNanos = windowNanos;
+        this.latencyThresholdNanos = latencyThresholdNanos;
+        this.keepServerErrors = keepServerErrors;
+        this.baselineProbability = baselineProbability;
+        this.maxTraces = maxTraces;
+        this.maxSpansPerTrace = maxSpansPerTrace;
+        this.decisions = CacheBuilder.newBuilder()
+                .maximumSize(maxDecisions)
+                .expireAfterWrite(windowNanos, TimeUnit.NANOSECONDS)
+                .build();
+        this.keptSlow = metrics.counter(MetricRegistry.name(name, "tail-sampler", "kept-slow"));
+        this.keptError = metrics.counter(MetricRegistry.name(name, "tail-sampler", "kept-error"));
+        this.keptBaseline = metrics.counter(MetricRegistry.name(name, "tail-sampler", "kept-baseline"));
+        this.dropped = metrics.counter(MetricRegistry.name(name, "tail-sampler", "dropped"));
+        this.evicted = metrics.counter(MetricRegistry.name(name, "tail-sampler", "evicted"));
+        this.truncated = metrics.counter(MetricRegistry.name(name, "tail-sampler", "truncated"));
+        metrics.register(MetricRegistry.name(name, "tail-sampler", "pending"), (Gauge<Integer>) this::pendingTraces);
+    }
+
+    @Override
+    public void startSpan(SpanContext context, SpanContext parentContext, SpanKind spanKind, String name, Timestamp timestamp) {
+        if (context.getTraceOptions().getTraceEnabled()) {
+            record(context, trace -> trace.start(context.getSpanId(), timestamp),
+                    sink -> sink.startSpan(context, parentContext, spanKind, name, timestamp));
+        }
+    }
+
+    @Override
+    public void endSpan(SpanContext context, Timestamp timestamp) {
+        if (context.getTraceOptions().getTraceEnabled()) {
+            record(context, trace -> trace.end(context.getSpanId(), timestamp), sink -> sink.endSpan(context, timestamp));
+        }
+    }
+
+    @Override
+    public void annotateSpan(SpanContext context, Labels labels) {
+        if (context.getTraceOptions().getTraceEnabled()) {
+            record(context, trace -> trace.annotate(context.getSpanId(), labels), sink -> sink.annotateSpan(context, labels));
+        }
+    }
+
+    @Override
+    public void setStackTrace(SpanContext context, StackTrace stackTrace) {
+        if (context.getTraceOptions().getTraceEnabled()) {
+            record(context, trace -> trace.accepts(context.getSpanId()), sink -> sink.setStackTrace(context, stackTrace));
+        }
+    }
+
+    /**
+     * Decides the traces held for longer than the window.
+     */
+    void expire() {
+        final List<PendingTrace> kept = new ArrayList<>();
+        synchronized (lock) {
+            final long now = ticker.read();
+            final Iterator<Map.Entry<TraceId, PendingTrace>> entries = pending.entrySet().iterator();
+            while (entries.hasNext()) {
+                final Map.Entry<TraceId, PendingTrace> entry = entries.next();
+                final PendingTrace trace = entry.getValue();
+                if (now - trace.created < windowNanos) {
+                    break;
+                }
+                entries.remove();
+                if (trace.root != null && decide(entry.getKey(), trace, now - trace.created)) {
+                    kept.add(trace);
+                }
+            }
+        }
+        for (PendingTrace trace : kept) {
+            trace.replay();
+        }
+    }
+
+    private void record(SpanContext context, Predicate<PendingTrace> update, Consumer<TraceSink> event) {
+        final TraceId traceId = context.getTraceId();
+        final Boolean decision;
+        PendingTrace kept = null;
+        synchronized (lock) {
+            decision = decisions.getIfPresent(traceId);
+            if (decision == null) {
+                PendingTrace trace = pending.get(traceId);
+                if (trace == null) {
+                    if (pending.size() >= maxTraces) {
+                        evictOldest();
+                    }
+                    trace = new PendingTrace(ticker.read());
+                    pending.put(traceId, trace);
+                }
+                if (update.test(trace)) {
+                    trace.events.add(event);
+                }
+                if (trace.latencyNanos >= 0) {
+                    pending.remove(traceId);
+                    if (decide(traceId, trace, trace.latencyNanos)) {
+                        kept = trace;
+                    }
+                }
+            }
+        }
+        if (Boolean.TRUE.equals(decision)) {
+            event.accept(delegate);
+        } else if (kept != null) {
+            kept.replay();
+        }
+    }
+
+    private void evictOldest() {
+        final Iterator<Map.Entry<TraceId, PendingTrace>> entries = pending.entrySet().iterator();
+        final Map.Entry<TraceId, PendingTrace> oldest = entries.next();
+        entries.remove();
+        if (oldest.getValue().root != null) {
+            decisions.put(oldest.getKey(), Boolean.FALSE);
+            evicted.inc();
+        }
+    }
+
+    private boolean decide(TraceId traceId, PendingTrace trace, long latencyNanos) {
+        final boolean keep;
+        if (latencyNanos >= latencyThresholdNanos) {
+            keep = true;
+            keptSlow.inc();
+        } else if (keepServerErrors && trace.serverError) {
+            keep = true;
+            keptError.inc();
+        } else if (baselineProbability > 0.0 && ThreadLocalRandom.current().nextDouble() < baselineProbability) {
+            keep = true;
+            keptBaseline.inc();
+        } else {
+            keep = false;
+            dropped.inc();
+        }
+        decisions.put(traceId, keep);
+        return keep;
+    }
+
+    private int pendingTraces() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    private static long nanos(Timestamp timestamp) {
+        return TimeUnit.SECONDS.toNanos(timestamp.getSeconds()) + timestamp.getNanos();
+    }
+
+    private final class PendingTrace {
+
+        private final long created;
+        private final List<Consumer<TraceSink>> events = new ArrayList<>();
+        private final Set<SpanId> spans = new HashSet<>();
+        private SpanId root;
+        private Timestamp rootStart;
+        private long latencyNanos = -1;
+        private boolean serverError;
+
+        private PendingTrace(long created) {
+            this.created = created;
+        }
+
+        private boolean start(SpanId spanId, Timestamp timestamp) {
+            if (spans.size() >= maxSpansPerTrace) {
+                truncated.inc();
+                return false;
+            }
+            if (!hasRoom()) {
+                return false;
+            }
+            spans.add(spanId);
+            if (root == null) {
+                root = spanId;
+                rootStart = timestamp;
+            }
+            return true;
+        }
+
+        private boolean end(SpanId spanId, Timestamp timestamp) {
+            if (!spans.contains(spanId)) {
+                return false;
+            }
+            if (spanId.equals(root)) {
+                latencyNanos = Math.max(0, nanos(timestamp) - nanos(rootStart));
+            }
+            return hasRoom();
+        }
+
+        private boolean annotate(SpanId spanId, Labels labels) {
+            if (!spans.contains(spanId)) {
+                return false;
+            }
+            for (Label label : labels.getLabels()) {
+                if (STATUS_CODE_LABEL.equals(label.getKey()) && label.getValue() != null && label.getValue().startsWith("5")) {
+                    serverError = true;
+                }
+            }
+            return hasRoom();
+        }
+
+        private boolean accepts(SpanId spanId) {
+            return spans.contains(spanId) && hasRoom();
+        }
+
+        private boolean hasRoom() {
+            if (events.size() < maxSpansPerTrace * EVENTS_PER_SPAN) {
+                return true;
+            }
+            truncated.inc();
+            return false;
+        }
+
+        private void replay() {
+            try {
+                for (Consumer<TraceSink> event : events) {
+                    event.accept(delegate);
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Could not pass on the spans of a sampled trace", e);
+            }
+        }
+    }
+}
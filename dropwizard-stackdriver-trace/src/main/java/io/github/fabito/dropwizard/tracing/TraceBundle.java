@@ -15,6 +15,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
 import javax.servlet.FilterRegistration;
 import java.util.EnumSet;
 
@@ -45,6 +46,7 @@ public abstract class TraceBundle<T> implements ConfiguredBundle<T> {
     private TraceService traceService;
     private TraceHttpRequestInterceptor traceHttpRequestInterceptor;
     private TraceHttpResponseInterceptor traceHttpResponseInterceptor;
+    private SpanTracer spanTracer;
 
     public abstract TraceConfiguration getTraceConfiguration(T configuration);
 
@@ -56,17 +58,23 @@ public abstract class TraceBundle<T> implements ConfiguredBundle<T> {
     public void run(T configuration, Environment environment) throws Exception {
         LOGGER.debug("Setting up Stackdriver tracing infrastructure");
         TraceConfiguration traceConfiguration = getTraceConfiguration(configuration);
-        traceService = traceConfiguration.traceService(environment);
+        final SamplingTraceOptionsFactory traceOptionsFactory = traceConfiguration.traceOptionsFactory();
+        traceService = traceConfiguration.traceService(environment, traceOptionsFactory);
 
         final SpanContextHandler spanContextHandler = traceService.getSpanContextHandler();
         final SpanContextFactory spanContextFactory = traceService.getSpanContextFactory();
         LOGGER.debug("Creating request and response interceptors");
         traceHttpRequestInterceptor = new TraceHttpRequestInterceptor(traceService.getTracer());
         traceHttpResponseInterceptor = new TraceHttpResponseInterceptor(traceService.getTracer());
+        spanTracer = new SpanTracer(traceService.getTracer(), spanContextHandler);
 
         final String[] urlPatterns = traceConfiguration.getUrlPatterns();
         LOGGER.debug("Registering tracing filter using patterns: {}", (Object[]) urlPatterns);
-        final FilterRegistration.Dynamic tracingFilter = environment.servlets().addFilter("tracing-filter", new TraceServletFilter(spanContextHandler, spanContextFactory, traceHttpRequestInterceptor, traceHttpResponseInterceptor));
+        Filter filter = new TraceServletFilter(spanContextHandler, spanContextFactory, traceHttpRequestInterceptor, traceHttpResponseInterceptor);
+        if (traceOptionsFactory.hasRoutes()) {
+            filter = new RouteFilter(filter, traceOptionsFactory);
+        }
+        final FilterRegistration.Dynamic tracingFilter = environment.servlets().addFilter("tracing-filter", filter);
         tracingFilter.addMappingForUrlPatterns(EnumSet.allOf(DispatcherType.class), true, urlPatterns);
 
         LOGGER.debug("Stackdriver tracing up and running");
@@ -76,6 +84,13 @@ public abstract class TraceBundle<T> implements ConfiguredBundle<T> {
         return traceService.getTracer();
     }
 
+    /**
+     * A lightweight alternative to {@link #getTracer()} for instrumenting hot code.
+     */
+    public SpanTracer getSpanTracer() {
+        return spanTracer;
+    }
+
     public HttpClientBuilder httpClientBuilder(Environment environment) {
         return new TracedHttpClientBuilder(environment, traceHttpRequestInterceptor, traceHttpResponseInterceptor);
     }
@@ -1,20 +1,33 @@
 package io.github.fabito.dropwizard.tracing;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.google.cloud.trace.service.TraceGrpcApiService;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.trace.core.TraceOptionsFactory;
 import com.google.cloud.trace.service.TraceService;
+import com.google.cloud.trace.sink.TraceSink;
+import com.google.cloud.trace.v1.TraceSinkV1;
+import com.google.cloud.trace.v1.producer.TraceProducer;
+import com.google.cloud.trace.v1.util.RoughTraceSizer;
 import com.google.common.base.MoreObjects;
 import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
 import io.dropwizard.validation.MinSize;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.validation.Valid;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 /**
- * The configuration class used by {@link TraceGrpcApiService.Builder} to build a {@link TraceService}.
+ * The configuration class used to build a {@link TraceService} exporting traces over gRPC, the way
+ * {@link com.google.cloud.trace.service.TraceGrpcApiService} does.
  *
  * <b>Configuration Parameters:</b>
  * <table>
@@ -31,23 +44,77 @@ import java.io.IOException;
  *     <tr>
  *         <td>bufferSize</td>
  *         <td>32 * 1024</td>
- *         <td>(Optional) </td>
+ *         <td>(Optional) The bytes of spans buffered before they are exported, and the size of each export.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>flushSpans</td>
+ *         <td>1000</td>
+ *         <td>(Optional) The span updates buffered before they are exported, whatever their size.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>maxBufferSize</td>
+ *         <td>1024 * 1024</td>
+ *         <td>(Optional) The bytes of spans buffered at most, while exports fall behind.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>overflowPolicy</td>
+ *         <td>drop-newest</td>
+ *         <td>(Optional) What happens to the spans recorded while the buffer is full, see {@link OverflowPolicy}:
+ *         drop-newest, drop-oldest or block.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>blockTimeout</td>
+ *         <td>100 milliseconds</td>
+ *         <td>(Optional) How long a request waits for room in the buffer, with the block policy.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>maxConcurrentExports</td>
+ *         <td>4</td>
+ *         <td>(Optional) The exports in flight at most, sharing one gRPC channel.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>exportTimeout</td>
+ *         <td>10 seconds</td>
+ *         <td>(Optional) The deadline of each export.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>shutdownTimeout</td>
+ *         <td>5 seconds</td>
+ *         <td>(Optional) How long the last spans are exported for when the application is shut down.</td>
  *     </tr>
  *     <tr>
  *         <td>numThreads</td>
  *         <td>1</td>
- *         <td>(Optional)</td>
+ *         <td>(Optional) The threads flushing and exporting spans, raised to maxConcurrentExports when lower.</td>
  *     </tr>
  *     <tr>
  *         <td>scheduledDelay</td>
  *         <td>15</td>
- *         <td>(Optional)</td>
+ *         <td>(Optional) The seconds between two flushes of the buffer.</td>
  *     </tr>
  *     <tr>
  *         <td>urlPatterns</td>
  *         <td>/*</td>
  *         <td>(Optional) Which endpoints will be traced. Defaults to all.</td>
  *     </tr>
+ *     <tr>
+ *         <td>sampler</td>
+ *         <td>rate-limited, 1 trace per second</td>
+ *         <td>(Optional) How the requests starting a new trace are sampled, see {@link SamplerConfiguration}.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>routeSamplers</td>
+ *         <td>(none)</td>
+ *         <td>(Optional) The sampler of the requests whose URI matches a regular expression, instead of the
+ *         sampler. The first matching expression applies.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>tailSampler</td>
+ *         <td>(none)</td>
+ *         <td>(Optional) Only export the sampled traces that are slow or failed, plus a random baseline, see
+ *         {@link TailSamplerConfiguration}. It only sees the traces kept by the sampler and the route samplers,
+ *         which should then trace most requests, e.g. with the {@code always} type.</td>
+ *     </tr>
  * </table>
  *
  * @author Fábio Franco Uechi
@@ -55,6 +122,7 @@ import java.io.IOException;
 public class TraceConfiguration {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TraceConfiguration.class);
+    private static final String API_HOST = "cloudtrace.googleapis.com";
 
     @JsonProperty
     @Min(1)
@@ -75,28 +143,109 @@ public class TraceConfiguration {
     @Min(0)
     private Integer bufferSize = 32 * 1024;
 
+    @JsonProperty
+    @Min(1)
+    private Integer flushSpans = 1000;
+
+    @JsonProperty
+    @Min(1)
+    private Integer maxBufferSize = 1024 * 1024;
+
+    @JsonProperty
+    @NotNull
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+
+    @JsonProperty
+    @NotNull
+    private Duration blockTimeout = Duration.milliseconds(100);
+
+    @JsonProperty
+    @Min(1)
+    private Integer maxConcurrentExports = 4;
+
+    @JsonProperty
+    @NotNull
+    private Duration exportTimeout = Duration.seconds(10);
+
+    @JsonProperty
+    @NotNull
+    private Duration shutdownTimeout = Duration.seconds(5);
+
     @JsonProperty
     @MinSize(1)
     @NotNull
     private String[] urlPatterns = new String[] { "/*" };
 
-    TraceService traceService(Environment environment) throws IOException {
+    @JsonProperty
+    @Valid
+    @NotNull
+    private SamplerConfiguration sampler = new SamplerConfiguration();
+
+    @JsonProperty
+    @Valid
+    @NotNull
+    private Map<String, SamplerConfiguration> routeSamplers = new LinkedHashMap<>();
+
+    @JsonProperty
+    @Valid
+    private TailSamplerConfiguration tailSampler;
+
+    SamplingTraceOptionsFactory traceOptionsFactory() {
+        final Map<Pattern, Sampler> routes = new LinkedHashMap<>();
+        for (Map.Entry<String, SamplerConfiguration> entry : routeSamplers.entrySet()) {
+            routes.put(Pattern.compile(entry.getKey()), entry.getValue().build());
+        }
+        return new SamplingTraceOptionsFactory(sampler.build(), routes);
+    }
+
+    TraceService traceService(Environment environment, TraceOptionsFactory traceOptionsFactory) throws IOException {
 
         LOGGER.info("Setting up a new TraceService");
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug(this.toString());
         }
 
-        return TraceGrpcApiService.builder()
-                .setProjectId(this.projectId)
-                .setScheduledDelay(this.scheduledDelay)
-                .setBufferSize(this.bufferSize)
-                .setScheduledExecutorService(
-                        environment.lifecycle()
-                                .scheduledExecutorService(this.name)
-                                .threads(this.numThreads)
-                                .build())
+        final ScheduledExecutorService executor = environment.lifecycle()
+                .scheduledExecutorService(this.name)
+                .threads(Math.max(this.numThreads, this.maxConcurrentExports))
                 .build();
+        final GrpcTraceExporter exporter = new GrpcTraceExporter(API_HOST, GoogleCredentials.getApplicationDefault(),
+                this.exportTimeout.getQuantity(), this.exportTimeout.getUnit());
+        final ExportingTraceConsumer consumer = new ExportingTraceConsumer(exporter, new RoughTraceSizer(),
+                this.bufferSize, this.flushSpans, this.maxBufferSize, this.overflowPolicy,
+                this.blockTimeout.getQuantity(), this.blockTimeout.getUnit(), this.maxConcurrentExports, executor,
+                environment.metrics(), this.name);
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                consumer.flush();
+            } catch (RuntimeException e) {
+                LOGGER.error("Could not flush the trace buffer", e);
+            }
+        }, this.scheduledDelay, this.scheduledDelay, TimeUnit.SECONDS);
+        // managed objects stop in reverse order: the last spans are exported before the executor is shut down
+        environment.lifecycle().manage(new TraceExportManager(consumer, exporter, this.shutdownTimeout));
+        TraceSink sink = new TraceSinkV1(this.projectId, new TraceProducer(), consumer);
+        if (this.tailSampler != null) {
+            warnIfHeadSampled();
+            sink = this.tailSampler.build(sink, executor, environment.metrics(), this.name);
+        }
+        return new SinkTraceService(sink, traceOptionsFactory);
+    }
+
+    /**
+     * Warns when the tail sampler only gets to see a fraction of the requests.
+     */
+    private void warnIfHeadSampled() {
+        if (!this.sampler.tracesMostRequests()) {
+            LOGGER.warn("The tail sampler only decides among the traces kept by the sampler {}: set sampler.type to always, "
+                    + "or to probability with a high probability, so that it sees the slow and failed requests", this.sampler);
+        }
+        for (Map.Entry<String, SamplerConfiguration> route : this.routeSamplers.entrySet()) {
+            // routes never traced are left out on purpose
+            if (!route.getValue().tracesMostRequests() && !route.getValue().tracesNoRequest()) {
+                LOGGER.warn("The tail sampler only decides among the traces of {} kept by the sampler {}", route.getKey(), route.getValue());
+            }
+        }
     }
 
     String[] getUrlPatterns() {
@@ -111,7 +260,17 @@ public class TraceConfiguration {
                 .add("name", name)
                 .add("projectId", projectId)
                 .add("bufferSize", bufferSize)
+                .add("flushSpans", flushSpans)
+                .add("maxBufferSize", maxBufferSize)
+                .add("overflowPolicy", overflowPolicy)
+                .add("blockTimeout", blockTimeout)
+                .add("maxConcurrentExports", maxConcurrentExports)
+                .add("exportTimeout", exportTimeout)
+                .add("shutdownTimeout", shutdownTimeout)
                 .add("urlPatterns", urlPatterns)
+                .add("sampler", sampler)
+                .add("routeSamplers", routeSamplers)
+                .add("tailSampler", tailSampler)
                 .toString();
     }
 }
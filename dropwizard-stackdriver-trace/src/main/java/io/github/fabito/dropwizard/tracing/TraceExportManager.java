@@ -0,0 +1,49 @@
+package io.github.fabito.dropwizard.tracing;
+
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports the buffered spans when the application is shut down, then closes the gRPC channel, so that the last
+ * traces are not lost. Registered after the executor running the exports, so that it stops before it.
+ *
+ * @see ExportingTraceConsumer#flushAndAwait(long, TimeUnit)
+ */
+class TraceExportManager implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TraceExportManager.class);
+
+    private final ExportingTraceConsumer consumer;
+    private final GrpcTraceExporter exporter;
+    private final Duration shutdownTimeout;
+
+    /**
+     * @param consumer        the buffer of spans
+     * @param exporter        the exporter of the buffered spans
+     * @param shutdownTimeout the time to wait for the last exports and the channel to close
+     */
+    TraceExportManager(ExportingTraceConsumer consumer, GrpcTraceExporter exporter, Duration shutdownTimeout) {
+        this.consumer = consumer;
+        this.exporter = exporter;
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    @Override
+    public void start() throws Exception {
+    }
+
+    @Override
+    public void stop() throws Exception {
+        final long deadline = System.nanoTime() + shutdownTimeout.toNanoseconds();
+        if (!consumer.flushAndAwait(shutdownTimeout.getQuantity(), shutdownTimeout.getUnit())) {
+            LOGGER.warn("Spans were still being exported after {}, some may be lost", shutdownTimeout);
+        }
+        if (!exporter.shutdown(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+            LOGGER.warn("The trace export channel did not close within {}, cancelled the exports in flight", shutdownTimeout);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package io.github.fabito.dropwizard.tracing;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.cloud.trace.v1.consumer.TraceConsumer;
+import com.google.devtools.cloudtrace.v1.Trace;
+import com.google.devtools.cloudtrace.v1.TraceSpan;
+import com.google.devtools.cloudtrace.v1.Traces;
+import io.dropwizard.util.Duration;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ExportingTraceConsumerTest {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    private final List<Traces> exported = new CopyOnWriteArrayList<>();
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void exportsOnceFlushBytesAreBuffered() throws Exception {
+        final ExportingTraceConsumer consumer = consumer(exported::add, 300, 1000, 1000, OverflowPolicy.DROP_NEWEST, 2, DIRECT);
+
+        consumer.receive(traces(trace(1, 1), trace(2, 1)));
+        assertThat(exported, hasSize(0));
+
+        consumer.receive(traces(trace(3, 1)));
+        assertThat(exportedIds(), containsInAnyOrder("1", "2", "3"));
+        assertThat(count("flushes"), is(1L));
+    }
+
+    @Test
+    public void exportsOnceFlushSpansAreBuffered() throws Exception {
+        final ExportingTraceConsumer consumer = consumer(exported::add, 10000, 3, 10000, OverflowPolicy.DROP_NEWEST, 2, DIRECT);
+
+        consumer.receive(traces(trace(1, 2)));
+        assertThat(exported, hasSize(0));
+
+        consumer.receive(traces(trace(2, 1)));
+        assertThat(exportedIds(), containsInAnyOrder("1", "2"));
+    }
+
+    @Test
+    public void flushesInBatchesOfFlushBytes() throws Exception {
+        final ExportingTraceConsumer consumer = consumer(exported::add, 200, 1000, 10000, OverflowPolicy.DROP_NEWEST, 2, DIRECT);
+        consumer.receive(traces(trace(1, 1)));
+        consumer.receive(traces(trace(2, 3)));
+
+        consumer.flush();
+
+        // a span update larger than flushBytes is exported on its own
+        assertThat(exported, hasSize(2));
+        assertThat(exported.get(1).getTraces(0).getTraceId(), is("2"));
+        assertThat(count("exported-spans"), is(4L));
+    }
+
+    @Test
+    public void limitsTheExportsInFlight() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final ExportingTraceConsumer consumer = consumer(traces -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            exported.add(traces);
+        }, 100, 1000, 10000, OverflowPolicy.DROP_NEWEST, 2, executor);
+        for (int id = 1; id <= 5; id++) {
+            consumer.receive(traces(trace(id, 1)));
+        }
+        consumer.flush();
+
+        assertThat(consumer.flushAndAwait(50, TimeUnit.MILLISECONDS), is(false));
+        assertThat(maxInFlight.get(), is(2));
+        assertThat(gauge("buffered-bytes"), is(300.0));
+
+        release.countDown();
+        assertThat(consumer.flushAndAwait(10, TimeUnit.SECONDS), is(true));
+        assertThat(exportedIds(), containsInAnyOrder("1", "2", "3", "4", "5"));
+        assertThat(maxInFlight.get(), is(2));
+    }
+
+    @Test
+    public void countsTheSpansOfFailedExportsAsDropped() throws Exception {
+        final ExportingTraceConsumer consumer = consumer(traces -> {
+            throw new IllegalStateException("unavailable");
+        }, 10000, 1000, 10000, OverflowPolicy.DROP_NEWEST, 2, DIRECT);
+        consumer.receive(traces(trace(1, 2), trace(2, 1)));
+
+        consumer.flush();
+
+        assertThat(count("failures"), is(1L));
+        assertThat(count("dropped-spans"), is(3L));
+        assertThat(count("exported-spans"), is(0L));
+        assertThat(gauge("buffered-bytes"), is(0.0));
+    }
+
+    @Test
+    public void exportsTheLastSpansBeforeClosingTheChannel() throws Exception {
+        final GrpcTraceExporter exporter = mock(GrpcTraceExporter.class);
+        when(exporter.shutdown(anyLong(), eq(TimeUnit.NANOSECONDS))).thenReturn(true);
+        final ExportingTraceConsumer consumer = consumer(exporter, 10000, 1000, 10000, OverflowPolicy.DROP_NEWEST, 2, executor);
+        consumer.receive(traces(trace(1, 1)));
+
+        new TraceExportManager(consumer, exporter, Duration.seconds(10)).stop();
+
+        final InOrder stop = inOrder(exporter);
+        stop.verify(exporter).receive(traces(trace(1, 1)));
+        stop.verify(exporter).shutdown(anyLong(), eq(TimeUnit.NANOSECONDS));
+        assertThat(count("exported-spans"), is(1L));
+    }
+
+    @Test
+    public void dropsTheNewestSpansWhenFull() throws Exception {
+        final ExportingTraceConsumer consumer = consumer(exported::add, 10000, 1000, 300, OverflowPolicy.DROP_NEWEST, 2, DIRECT);
+
+        for (int id = 1; id <= 4; id++) {
+            consumer.receive(traces(trace(id, 1)));
+        }
+        assertThat(gauge("buffered-bytes"), is(300.0));
+        assertThat(gauge("buffer-fill"), is(1.0));
+        assertThat(count("dropped-spans"), is(1L));
+
+        consumer.flush();
+        assertThat(exportedIds(), containsInAnyOrder("1", "2", "3"));
+        assertThat(gauge("buffered-bytes"), is(0.0));
+        assertThat(count("exported-spans"), is(3L));
+    }
+
+    @Test
+    public void dropsTheOldestSpansWhenFull() throws Exception {
+        final ExportingTraceConsumer consumer = consumer(exported::add, 10000, 1000, 300, OverflowPolicy.DROP_OLDEST, 2, DIRECT);
+
+        for (int id = 1; id <= 4; id++) {
+            consumer.receive(traces(trace(id, 1)));
+        }
+        assertThat(count("dropped-spans"), is(1L));
+
+        consumer.flush();
+        assertThat(exportedIds(), containsInAnyOrder("2", "3", "4"));
+    }
+
+    @Test
+    public void dropsSpansLargerThanTheBuffer() throws Exception {
+        final ExportingTraceConsumer consumer = consumer(exported::add, 10000, 1000, 300, OverflowPolicy.DROP_OLDEST, 2, DIRECT);
+
+        consumer.receive(traces(trace(1, 1)));
+        consumer.receive(traces(trace(2, 4)));
+        assertThat(count("dropped-spans"), is(4L));
+
+        consumer.flush();
+        assertThat(exportedIds(), containsInAnyOrder("1"));
+    }
+
+    @Test
+    public void blocksUntilTheTimeoutWhenFull() throws Exception {
+        final ExportingTraceConsumer consumer = consumer(exported::add, 10000, 1000, 100, OverflowPolicy.BLOCK, 2, DIRECT, 50);
+        consumer.receive(traces(trace(1, 1)));
+
+        final long start = System.nanoTime();
+        consumer.receive(traces(trace(2, 1)));
+
+        assertThat(System.nanoTime() - start, is(greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50))));
+        assertThat(count("dropped-spans"), is(1L));
+    }
+
+    @Test
+    public void blocksUntilThereIsRoom() throws Exception {
+        final ExportingTraceConsumer consumer = consumer(exported::add, 10000, 1000, 100, OverflowPolicy.BLOCK, 2, DIRECT, 10000);
+        consumer.receive(traces(trace(1, 1)));
+
+        final Thread recorder = new Thread(() -> consumer.receive(traces(trace(2, 1))));
+        recorder.start();
+        while (recorder.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+        consumer.flush();
+        recorder.join(10000);
+        consumer.flush();
+
+        assertThat(exportedIds(), containsInAnyOrder("1", "2"));
+        assertThat(count("dropped-spans"), is(0L));
+    }
+
+    ExportingTraceConsumer consumer(TraceConsumer delegate, int flushBytes, int flushSpans, long capacity,
+                                    OverflowPolicy overflowPolicy, int maxConcurrentExports, Executor executor) {
+        return consumer(delegate, flushBytes, flushSpans, capacity, overflowPolicy, maxConcurrentExports, executor, 0);
+    }
+
+    /**
+     * A consumer sizing each span update 100 bytes.
+     */
+    ExportingTraceConsumer consumer(TraceConsumer delegate, int flushBytes, int flushSpans, long capacity,
+                                    OverflowPolicy overflowPolicy, int maxConcurrentExports, Executor executor, long blockTimeoutMillis) {
+        return new ExportingTraceConsumer(delegate, trace -> 100 * trace.getSpansCount(), flushBytes, flushSpans, capacity,
+                overflowPolicy, blockTimeoutMillis, TimeUnit.MILLISECONDS, maxConcurrentExports, executor, metrics, "tracing");
+    }
+
+    private List<String> exportedIds() {
+        final List<String> ids = new ArrayList<>();
+        for (Traces traces : exported) {
+            for (Trace trace : traces.getTracesList()) {
+                ids.add(trace.getTraceId());
+            }
+        }
+        return ids;
+    }
+
+    private long count(String name) {
+        return metrics.counter(MetricRegistry.name("tracing", "export", name)).getCount();
+    }
+
+    private double gauge(String name) {
+        return ((Number) metrics.getGauges().get(MetricRegistry.name("tracing", "export", name)).getValue()).doubleValue();
+    }
+
+    private static Traces traces(Trace... traces) {
+        final Traces.Builder builder = Traces.newBuilder();
+        for (Trace trace : traces) {
+            builder.addTraces(trace);
+        }
+        return builder.build();
+    }
+
+    private static Trace trace(int id, int spans) {
+        final Trace.Builder builder = Trace.newBuilder().setProjectId("my-gcp-project-id").setTraceId(Integer.toString(id));
+        for (int span = 1; span <= spans; span++) {
+            builder.addSpans(TraceSpan.newBuilder().setSpanId(span).setName("span" + span));
+        }
+        return builder.build();
+    }
+}
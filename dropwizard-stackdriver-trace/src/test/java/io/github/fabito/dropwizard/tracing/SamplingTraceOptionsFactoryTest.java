@@ -0,0 +1,178 @@
+package io.github.fabito.dropwizard.tracing;
+
+import com.google.cloud.trace.core.TraceOptions;
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SamplingTraceOptionsFactoryTest {
+
+    private final ManualTicker ticker = new ManualTicker();
+
+    @Test
+    public void rateLimitsAfterABurstOfOneSecond() throws Exception {
+        final Sampler sampler = new RateLimitingSampler(10, ticker);
+
+        assertThat(sampled(sampler, 100), is(10));
+
+        ticker.advance(100, TimeUnit.MILLISECONDS);
+        assertThat(sampled(sampler, 100), is(1));
+
+        ticker.advance(250, TimeUnit.MILLISECONDS);
+        assertThat(sampled(sampler, 100), is(2));
+
+        // idle time does not pile up more than one second worth of traces
+        ticker.advance(1, TimeUnit.HOURS);
+        assertThat(sampled(sampler, 100), is(10));
+    }
+
+    @Test
+    public void rejectsNonPositiveRates() throws Exception {
+        try {
+            new RateLimitingSampler(0, ticker);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("tracesPerSecond must be positive"));
+        }
+    }
+
+    @Test
+    public void capsAdaptiveSamplingAtTwiceTheRateUntilAdjusted() throws Exception {
+        final Sampler sampler = new AdaptiveSampler(10, ticker);
+
+        assertThat(sampled(sampler, 1000), is(20));
+    }
+
+    @Test
+    public void adaptsTheProbabilityToTheTraffic() throws Exception {
+        final Sampler sampler = new AdaptiveSampler(10, ticker);
+        int sampled = 0;
+        for (int i = 0; i < 1000; i++) {
+            ticker.advance(1, TimeUnit.MILLISECONDS);
+            sampled += sampled(sampler, 1);
+        }
+        assertThat(sampled, is(lessThanOrEqualTo(40)));
+
+        // 1000 requests per second: each one is now sampled with a probability of about 1%
+        sampled = 0;
+        for (int i = 0; i < 1000; i++) {
+            ticker.advance(1, TimeUnit.MILLISECONDS);
+            sampled += sampled(sampler, 1);
+        }
+        assertThat(sampled, is(greaterThan(0)));
+        assertThat(sampled, is(lessThanOrEqualTo(30)));
+    }
+
+    @Test
+    public void samplesWithTheFirstMatchingRoute() throws Exception {
+        final Map<Pattern, Sampler> routes = new LinkedHashMap<>();
+        routes.put(Pattern.compile("/api/admin/.*"), Sampler.NEVER);
+        routes.put(Pattern.compile("/api/.*"), Sampler.ALWAYS);
+        final SamplingTraceOptionsFactory factory = new SamplingTraceOptionsFactory(Sampler.NEVER, routes);
+
+        assertThat(factory.hasRoutes(), is(true));
+        assertThat(factory.create().getTraceEnabled(), is(false));
+        factory.enter("/api/admin/users");
+        assertThat(factory.create().getTraceEnabled(), is(false));
+        factory.enter("/api/users");
+        assertThat(factory.create().getTraceEnabled(), is(true));
+        factory.enter("/health");
+        assertThat(factory.create().getTraceEnabled(), is(false));
+        factory.exit();
+        assertThat(factory.create().getTraceEnabled(), is(false));
+    }
+
+    @Test
+    public void keepsTheOptionsOfTheCaller() throws Exception {
+        final SamplingTraceOptionsFactory factory = new SamplingTraceOptionsFactory(Sampler.NEVER, new LinkedHashMap<>());
+        final TraceOptions parentOptions = TraceOptions.forTraceEnabled();
+
+        assertThat(factory.hasRoutes(), is(false));
+        assertSame(parentOptions, factory.create(parentOptions));
+    }
+
+    @Test
+    public void setsTheRouteOnlyWhileTheRequestIsFiltered() throws Exception {
+        final Map<Pattern, Sampler> routes = new LinkedHashMap<>();
+        routes.put(Pattern.compile("/api/.*"), Sampler.ALWAYS);
+        final SamplingTraceOptionsFactory factory = new SamplingTraceOptionsFactory(Sampler.NEVER, routes);
+        final Filter delegate = mock(Filter.class);
+        final boolean[] sampled = new boolean[1];
+        doAnswer(invocation -> sampled[0] = factory.create().getTraceEnabled())
+                .when(delegate).doFilter(any(), any(), any());
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getRequestURI()).thenReturn("/api/users");
+        final RouteFilter filter = new RouteFilter(delegate, factory);
+
+        filter.doFilter(request, mock(ServletResponse.class), mock(FilterChain.class));
+
+        assertThat(sampled[0], is(true));
+        assertThat(factory.create().getTraceEnabled(), is(false));
+    }
+
+    @Test
+    public void clearsTheRouteWhenTheRequestFails() throws Exception {
+        final Map<Pattern, Sampler> routes = new LinkedHashMap<>();
+        routes.put(Pattern.compile("/api/.*"), Sampler.ALWAYS);
+        final SamplingTraceOptionsFactory factory = new SamplingTraceOptionsFactory(Sampler.NEVER, routes);
+        final Filter delegate = mock(Filter.class);
+        doThrow(new ServletException("failed")).when(delegate).doFilter(any(), any(), any());
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getRequestURI()).thenReturn("/api/users");
+
+        try {
+            new RouteFilter(delegate, factory).doFilter(request, mock(ServletResponse.class), mock(FilterChain.class));
+            fail();
+        } catch (ServletException e) {
+            assertThat(factory.create().getTraceEnabled(), is(false));
+        }
+    }
+
+    private static int sampled(Sampler sampler, int requests) {
+        int sampled = 0;
+        for (int i = 0; i < requests; i++) {
+            if (sampler.sample()) {
+                sampled++;
+            }
+        }
+        return sampled;
+    }
+
+    /**
+     * A {@link Ticker} moved forward by the test.
+     */
+    private static final class ManualTicker extends Ticker {
+
+        private long nanos = TimeUnit.DAYS.toNanos(1);
+
+        void advance(long duration, TimeUnit unit) {
+            nanos += unit.toNanos(duration);
+        }
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+}
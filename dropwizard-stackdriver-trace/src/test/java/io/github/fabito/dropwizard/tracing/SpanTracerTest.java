@@ -0,0 +1,123 @@
+package io.github.fabito.dropwizard.tracing;
+
+import com.google.cloud.trace.SpanContextHandler;
+import com.google.cloud.trace.Tracer;
+import com.google.cloud.trace.core.EndSpanOptions;
+import com.google.cloud.trace.core.Label;
+import com.google.cloud.trace.core.Labels;
+import com.google.cloud.trace.core.SpanContext;
+import com.google.cloud.trace.core.SpanContextHandle;
+import com.google.cloud.trace.core.SpanId;
+import com.google.cloud.trace.core.StartSpanOptions;
+import com.google.cloud.trace.core.Timestamp;
+import com.google.cloud.trace.core.TraceContext;
+import com.google.cloud.trace.core.TraceId;
+import com.google.cloud.trace.core.TraceOptions;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class SpanTracerTest {
+
+    private final Tracer tracer = mock(Tracer.class);
+    private final SpanContextHandler spanContextHandler = mock(SpanContextHandler.class);
+    private final SpanTracer spanTracer = new SpanTracer(tracer, spanContextHandler);
+
+    @Test
+    public void doesNothingOutsideSampledRequests() throws Exception {
+        when(spanContextHandler.current()).thenReturn(context(new SpanId(1), TraceOptions.forTraceDisabled()));
+        final Span unsampled = spanTracer.start("load-order");
+        when(spanContextHandler.current()).thenReturn(context(SpanId.invalid(), TraceOptions.forTraceEnabled()));
+        final Span outsideRequest = spanTracer.start("load-order");
+
+        assertThat(unsampled.isSampled(), is(false));
+        assertThat(unsampled.label("order", 42L).label("customer", "c"), is(sameInstance(unsampled)));
+        unsampled.close();
+        assertThat(outsideRequest, is(sameInstance(unsampled)));
+        verifyZeroInteractions(tracer);
+    }
+
+    @Test
+    public void sendsTheLabelsInOneAnnotationWhenTheSpanEnds() throws Exception {
+        final TraceContext context = sampled();
+        final List<Timestamp> timestamps = new ArrayList<>();
+        doAnswer(invocation -> timestamps.add(((EndSpanOptions) invocation.getArguments()[1]).getTimestamp()))
+                .when(tracer).endSpan(eq(context), any(EndSpanOptions.class));
+        when(tracer.startSpan(eq("load-order"), any(StartSpanOptions.class))).then(invocation -> {
+            timestamps.add(((StartSpanOptions) invocation.getArguments()[1]).getTimestamp());
+            return context;
+        });
+
+        final Span span = spanTracer.start("load-order");
+        assertThat(span.isSampled(), is(true));
+        for (int i = 1; i <= 5; i++) {
+            if (i % 2 == 0) {
+                span.label("key" + i, "value" + i);
+            } else {
+                span.label("key" + i, i);
+            }
+        }
+        verify(tracer, never()).annotateSpan(any(), any());
+        span.close();
+
+        final ArgumentCaptor<Labels> labels = ArgumentCaptor.forClass(Labels.class);
+        verify(tracer).annotateSpan(eq(context), labels.capture());
+        assertThat(labels.getValue().getLabels(), contains(new Label("key1", "1"), new Label("key2", "value2"),
+                new Label("key3", "3"), new Label("key4", "value4"), new Label("key5", "5")));
+        assertThat(timestamps.size(), is(2));
+        assertThat(nanos(timestamps.get(1)), is(greaterThanOrEqualTo(nanos(timestamps.get(0)))));
+    }
+
+    @Test
+    public void sendsNoAnnotationWithoutLabels() throws Exception {
+        final TraceContext context = sampled();
+
+        spanTracer.start("load-order").close();
+
+        verify(tracer, never()).annotateSpan(any(), any());
+        verify(tracer).endSpan(eq(context), any(EndSpanOptions.class));
+    }
+
+    @Test
+    public void endsSpansOnce() throws Exception {
+        final TraceContext context = sampled();
+
+        final Span span = spanTracer.start("load-order");
+        span.close();
+        span.close();
+
+        verify(tracer).endSpan(eq(context), any(EndSpanOptions.class));
+    }
+
+    private TraceContext sampled() {
+        final TraceContext context = new TraceContext(mock(SpanContextHandle.class));
+        when(spanContextHandler.current()).thenReturn(context(new SpanId(1), TraceOptions.forTraceEnabled()));
+        when(tracer.startSpan(any(String.class), any(StartSpanOptions.class))).thenReturn(context);
+        return context;
+    }
+
+    private static SpanContext context(SpanId spanId, TraceOptions traceOptions) {
+        return new SpanContext(new TraceId(BigInteger.ONE), spanId, traceOptions);
+    }
+
+    private static long nanos(Timestamp timestamp) {
+        return timestamp.getSeconds() * 1000000000L + timestamp.getNanos();
+    }
+}
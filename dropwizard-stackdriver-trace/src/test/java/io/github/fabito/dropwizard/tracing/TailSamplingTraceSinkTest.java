@@ -0,0 +1,245 @@
+package io.github.fabito.dropwizard.tracing;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.cloud.trace.core.Labels;
+import com.google.cloud.trace.core.SpanContext;
+import com.google.cloud.trace.core.SpanId;
+import com.google.cloud.trace.core.SpanKind;
+import com.google.cloud.trace.core.Timestamp;
+import com.google.cloud.trace.core.TraceId;
+import com.google.cloud.trace.core.TraceOptions;
+import com.google.cloud.trace.sink.TraceSink;
+import com.google.common.base.Ticker;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class TailSamplingTraceSinkTest {
+
+    private final TraceSink delegate = mock(TraceSink.class);
+    private final Ticker ticker = mock(Ticker.class);
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    @Test
+    public void keepsSlowTraces() throws Exception {
+        final TailSamplingTraceSink sink = sink(0.0, 10, 10);
+        final SpanContext root = context(1, 1);
+        final SpanContext child = context(1, 2);
+
+        sink.startSpan(root, null, SpanKind.RPC_SERVER, "GET /slow", timestamp(0));
+        sink.startSpan(child, root, SpanKind.RPC_CLIENT, "GET /backend", timestamp(10));
+        sink.endSpan(child, timestamp(140));
+        verifyZeroInteractions(delegate);
+        sink.endSpan(root, timestamp(150));
+
+        final InOrder replay = inOrder(delegate);
+        replay.verify(delegate).startSpan(eq(root), eq(null), eq(SpanKind.RPC_SERVER), eq("GET /slow"), any(Timestamp.class));
+        replay.verify(delegate).startSpan(eq(child), eq(root), eq(SpanKind.RPC_CLIENT), eq("GET /backend"), any(Timestamp.class));
+        replay.verify(delegate).endSpan(eq(child), any(Timestamp.class));
+        replay.verify(delegate).endSpan(eq(root), any(Timestamp.class));
+        assertThat(count("kept-slow"), is(1L));
+        assertThat(count("dropped"), is(0L));
+    }
+
+    @Test
+    public void dropsFastTracesAndTheirLateSpans() throws Exception {
+        final TailSamplingTraceSink sink = sink(0.0, 10, 10);
+        final SpanContext root = context(1, 1);
+
+        sink.startSpan(root, null, SpanKind.RPC_SERVER, "GET /fast", timestamp(0));
+        sink.endSpan(root, timestamp(5));
+        sink.startSpan(context(1, 2), root, SpanKind.RPC_CLIENT, "GET /late", timestamp(6));
+
+        verifyZeroInteractions(delegate);
+        assertThat(count("dropped"), is(1L));
+        assertThat(count("pending"), is(0L));
+    }
+
+    @Test
+    public void keepsServerErrorsAndPassesOnTheirLateSpans() throws Exception {
+        final TailSamplingTraceSink sink = sink(0.0, 10, 10);
+        final SpanContext root = context(1, 1);
+        final SpanContext child = context(1, 2);
+        final Labels status = Labels.builder().add(TailSamplingTraceSink.STATUS_CODE_LABEL, "503").build();
+
+        sink.startSpan(root, null, SpanKind.RPC_SERVER, "GET /error", timestamp(0));
+        sink.startSpan(child, root, SpanKind.RPC_CLIENT, "GET /backend", timestamp(1));
+        sink.annotateSpan(child, status);
+        sink.endSpan(child, timestamp(2));
+        sink.endSpan(root, timestamp(3));
+        final SpanContext late = context(1, 3);
+        sink.startSpan(late, root, SpanKind.RPC_CLIENT, "GET /late", timestamp(4));
+
+        final InOrder replay = inOrder(delegate);
+        replay.verify(delegate).startSpan(eq(root), eq(null), eq(SpanKind.RPC_SERVER), eq("GET /error"), any(Timestamp.class));
+        replay.verify(delegate).startSpan(eq(child), eq(root), eq(SpanKind.RPC_CLIENT), eq("GET /backend"), any(Timestamp.class));
+        replay.verify(delegate).annotateSpan(child, status);
+        replay.verify(delegate).endSpan(eq(child), any(Timestamp.class));
+        replay.verify(delegate).endSpan(eq(root), any(Timestamp.class));
+        replay.verify(delegate).startSpan(eq(late), eq(root), eq(SpanKind.RPC_CLIENT), eq("GET /late"), any(Timestamp.class));
+        assertThat(count("kept-error"), is(1L));
+    }
+
+    @Test
+    public void keepsTheBaseline() throws Exception {
+        final TailSamplingTraceSink sink = sink(1.0, 10, 10);
+        final SpanContext root = context(1, 1);
+
+        sink.startSpan(root, null, SpanKind.RPC_SERVER, "GET /fast", timestamp(0));
+        sink.endSpan(root, timestamp(5));
+
+        verify(delegate).startSpan(eq(root), eq(null), eq(SpanKind.RPC_SERVER), eq("GET /fast"), any(Timestamp.class));
+        verify(delegate).endSpan(eq(root), any(Timestamp.class));
+        assertThat(count("kept-baseline"), is(1L));
+    }
+
+    @Test
+    public void ignoresTracesNotSampledByTheHeadSampler() throws Exception {
+        final TailSamplingTraceSink sink = sink(1.0, 10, 10);
+        final SpanContext root = new SpanContext(new TraceId(BigInteger.ONE), new SpanId(1), TraceOptions.forTraceDisabled());
+
+        sink.startSpan(root, null, SpanKind.RPC_SERVER, "GET /fast", timestamp(0));
+        sink.endSpan(root, timestamp(5));
+
+        verifyZeroInteractions(delegate);
+        assertThat(count("pending"), is(0L));
+    }
+
+    @Test
+    public void evictsTheOldestTraceBeyondMaxTraces() throws Exception {
+        final TailSamplingTraceSink sink = sink(0.0, 2, 10);
+        for (int trace = 1; trace <= 3; trace++) {
+            sink.startSpan(context(trace, 1), null, SpanKind.RPC_SERVER, "GET /slow", timestamp(0));
+        }
+        assertThat(count("evicted"), is(1L));
+        assertThat(count("pending"), is(2L));
+
+        sink.endSpan(context(1, 1), timestamp(1000));
+        sink.endSpan(context(2, 1), timestamp(1000));
+
+        verify(delegate, never()).startSpan(eq(context(1, 1)), any(), any(), any(), any());
+        verify(delegate).startSpan(eq(context(2, 1)), any(), any(), any(), any());
+        assertThat(count("kept-slow"), is(1L));
+    }
+
+    @Test
+    public void truncatesTracesBeyondMaxSpansPerTrace() throws Exception {
+        final TailSamplingTraceSink sink = sink(0.0, 10, 2);
+        final SpanContext root = context(1, 1);
+        sink.startSpan(root, null, SpanKind.RPC_SERVER, "GET /slow", timestamp(0));
+        for (int span = 2; span <= 4; span++) {
+            sink.startSpan(context(1, span), root, SpanKind.RPC_CLIENT, "GET /backend", timestamp(span));
+        }
+        sink.endSpan(root, timestamp(1000));
+
+        verify(delegate, times(2)).startSpan(any(), any(), any(), any(), any());
+        verify(delegate).startSpan(eq(context(1, 2)), any(), any(), any(), any());
+        verify(delegate).endSpan(eq(root), any(Timestamp.class));
+        assertThat(count("truncated"), is(2L));
+    }
+
+    @Test
+    public void decidesTracesStillRunningAfterTheWindow() throws Exception {
+        final TailSamplingTraceSink sink = sink(0.0, 10, 10);
+        final SpanContext root = context(1, 1);
+        sink.startSpan(root, null, SpanKind.RPC_SERVER, "GET /stuck", timestamp(0));
+
+        when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(9));
+        sink.expire();
+        verifyZeroInteractions(delegate);
+        assertThat(count("pending"), is(1L));
+
+        when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        sink.expire();
+        verify(delegate).startSpan(eq(root), eq(null), eq(SpanKind.RPC_SERVER), eq("GET /stuck"), any(Timestamp.class));
+        assertThat(count("kept-slow"), is(1L));
+        assertThat(count("pending"), is(0L));
+
+        sink.endSpan(root, timestamp(20000));
+        verify(delegate).endSpan(eq(root), any(Timestamp.class));
+    }
+
+    @Test
+    public void dropsTracesWithoutAStartedSpanWithoutCountingThem() throws Exception {
+        final TailSamplingTraceSink sink = sink(1.0, 1, 10);
+        sink.endSpan(context(1, 1), timestamp(5));
+        sink.annotateSpan(context(2, 1), Labels.builder().add(TailSamplingTraceSink.STATUS_CODE_LABEL, "500").build());
+        assertThat(count("pending"), is(1L));
+
+        when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        sink.expire();
+
+        verifyZeroInteractions(delegate);
+        assertThat(count("pending"), is(0L));
+        assertThat(count("evicted"), is(0L));
+        assertThat(count("kept-baseline"), is(0L));
+        assertThat(count("dropped"), is(0L));
+    }
+
+    @Test
+    public void forgetsTheOldestDecisionsBeyondMaxDecisions() throws Exception {
+        final TailSamplingTraceSink sink = sink(0.0, 10, 1, 10);
+        for (int trace = 1; trace <= 2; trace++) {
+            sink.startSpan(context(trace, 1), null, SpanKind.RPC_SERVER, "GET /fast", timestamp(0));
+            sink.endSpan(context(trace, 1), timestamp(5));
+        }
+
+        sink.startSpan(context(2, 2), context(2, 1), SpanKind.RPC_CLIENT, "GET /late", timestamp(6));
+        assertThat(count("pending"), is(0L));
+        sink.startSpan(context(1, 2), context(1, 1), SpanKind.RPC_CLIENT, "GET /late", timestamp(6));
+        assertThat(count("pending"), is(1L));
+        assertThat(count("dropped"), is(2L));
+    }
+
+    /**
+     * A sink keeping traces of at least 100ms, with a 10 seconds window.
+     */
+    private TailSamplingTraceSink sink(double baselineProbability, int maxTraces, int maxSpansPerTrace) {
+        return sink(baselineProbability, maxTraces, 1000, maxSpansPerTrace);
+    }
+
+    private TailSamplingTraceSink sink(double baselineProbability, int maxTraces, int maxDecisions, int maxSpansPerTrace) {
+        return new TailSamplingTraceSink(delegate, ticker, TimeUnit.SECONDS.toNanos(10), TimeUnit.MILLISECONDS.toNanos(100),
+                true, baselineProbability, maxTraces, maxDecisions, maxSpansPerTrace, metrics, "tracing");
+    }
+
+    private long count(String name) {
+        final String metric = MetricRegistry.name("tracing", "tail-sampler", name);
+        if (metrics.getGauges().containsKey(metric)) {
+            return ((Number) metrics.getGauges().get(metric).getValue()).longValue();
+        }
+        return metrics.counter(metric).getCount();
+    }
+
+    private static SpanContext context(long traceId, long spanId) {
+        return new SpanContext(new TraceId(BigInteger.valueOf(traceId)), new SpanId(spanId), TraceOptions.forTraceEnabled());
+    }
+
+    private static Timestamp timestamp(long millis) {
+        return new Timestamp() {
+            @Override
+            public long getSeconds() {
+                return TimeUnit.MILLISECONDS.toSeconds(millis);
+            }
+
+            @Override
+            public int getNanos() {
+                return (int) TimeUnit.MILLISECONDS.toNanos(millis % 1000);
+            }
+        };
+    }
+}
@@ -1,12 +1,6 @@
 package io.github.fabito.dropwizard.samples;
 
-import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.servlets.PingServlet;
-import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.api.client.googleapis.util.Utils;
-import com.google.api.client.http.HttpTransport;
-import com.google.api.client.http.apache.ApacheHttpTransport;
-import com.google.api.services.monitoring.v3.Monitoring;
 import com.google.cloud.trace.apachehttp.TraceRequestInterceptor;
 import com.google.cloud.trace.apachehttp.TraceResponseInterceptor;
 import com.google.common.collect.Lists;
@@ -15,7 +9,6 @@ import io.dropwizard.client.HttpClientBuilder;
 import io.dropwizard.java8.Java8Bundle;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
-import io.github.fabito.dropwizard.metrics.StackdriverMonitoringReporter;
 import io.github.fabito.dropwizard.samples.resources.PingPongResource;
 import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
@@ -28,7 +21,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
 
 public class PingPongApplication extends Application<PingPongConfiguration> {
 
@@ -59,22 +51,6 @@ public class PingPongApplication extends Application<PingPongConfiguration> {
                         Lists.newArrayList(new TraceResponseInterceptor())))
                 .build("");
 
-        final HttpTransport httpTransport = new ApacheHttpTransport(httpClient);
-
-        final Monitoring monitoring = new Monitoring.Builder(
-                httpTransport,
-                Utils.getDefaultJsonFactory(), GoogleCredential.getApplicationDefault())
-                .setApplicationName(getName())
-                .build();
-
-        final StackdriverMonitoringReporter reporter = StackdriverMonitoringReporter.forRegistry(environment.metrics())
-                //.prefixedWith("web1.example.com")
-                .convertRatesTo(TimeUnit.SECONDS)
-                .convertDurationsTo(TimeUnit.MILLISECONDS)
-                .filter(MetricFilter.ALL)
-                .build("sc-core-dev", monitoring);
-        reporter.start(1, TimeUnit.MINUTES);
-
         environment.jersey().register(new PingPongResource());
         environment.servlets().addServlet("ping", new PingServlet()).addMapping("/ping");
     }